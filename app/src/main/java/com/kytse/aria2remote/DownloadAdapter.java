@@ -16,264 +16,373 @@
 package com.kytse.aria2remote;
 
 import android.content.Context;
-import android.os.AsyncTask;
 import android.support.design.widget.Snackbar;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageButton;
-import android.widget.LinearLayout;
-import android.widget.ProgressBar;
-import android.widget.TextView;
 
 import com.kytse.aria2.Aria2;
+import com.kytse.aria2.Aria2Future;
 import com.kytse.aria2.Download;
+import com.kytse.aria2.DownloadList;
+import com.kytse.aria2.Gid;
 
 import org.apache.xmlrpc.XmlRpcException;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
-public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHolder> implements View.OnClickListener {
+public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHolder> implements
+        View.OnClickListener, View.OnLongClickListener, DownloadRowView.OnActionClickListener {
 
+    public interface OnSelectionChangedListener {
+
+        void onSelectionChanged(int count);
+    }
+
+    // Everything onBindViewHolder reads; the lists are fetched with just these fields.
+    public static final Set<Download.Field> FIELDS = Collections.unmodifiableSet(EnumSet.of(
+            Download.Field.GID,
+            Download.Field.STATUS,
+            Download.Field.TOTAL_LENGTH,
+            Download.Field.COMPLETED_LENGTH,
+            Download.Field.DOWNLOAD_SPEED,
+            Download.Field.UPLOAD_SPEED,
+            Download.Field.NAME));
+
+    // Payload for a change of selection, kept clear of the Download.CHANGED_* flags.
+    private static final int CHANGED_SELECTION = 1 << 16;
 
     private Context mContext;
     private Aria2 mAria2;
-    private List<Download> mDownloads;
+    private DownloadList mDownloads;
 
-    public DownloadAdapter(Context context, Aria2 aria2, List<Download> downloads) {
+    private final SizeFormatter mSizeFormatter;
+    private final int mCardBackground;
+    private final int mCardBackgroundSelected;
+
+    private final Set<Long> mSelected = new LinkedHashSet<>();
+    private OnSelectionChangedListener mOnSelectionChangedListener;
+
+    public DownloadAdapter(Context context, Aria2 aria2, DownloadList downloads) {
 
         mContext = context;
         mAria2 = aria2;
         mDownloads = downloads;
+
+        mSizeFormatter = new SizeFormatter(Locale.getDefault());
+        mCardBackground = context.getResources().getColor(R.color.cardBackground);
+        mCardBackgroundSelected = context.getResources().getColor(R.color.cardBackgroundSelected);
+
+        // Rows are keyed by GID, so a download that moves keeps its view and animates there.
+        setHasStableIds(true);
+    }
+
+    public DownloadList getDownloads() {
+        return mDownloads;
+    }
+
+    /**
+     * Swaps in another version of the list. The caller notifies the adapter of the changes
+     * straight after, on the main thread.
+     */
+    public void setDownloads(DownloadList downloads) {
+        mDownloads = downloads;
+
+        // Downloads outside the window of a paged list may still be there.
+        if (downloads.size() != downloads.getTotal()) {
+            return;
+        }
+
+        int count = mSelected.size();
+        for (Iterator<Long> iterator = mSelected.iterator(); iterator.hasNext(); ) {
+            if (!downloads.contains(iterator.next())) {
+                iterator.remove();
+            }
+        }
+        if (mSelected.size() != count && mOnSelectionChangedListener != null) {
+            mOnSelectionChangedListener.onSelectionChanged(mSelected.size());
+        }
+    }
+
+    public void setOnSelectionChangedListener(OnSelectionChangedListener listener) {
+        mOnSelectionChangedListener = listener;
+    }
+
+    /**
+     * @return the GIDs of the selected downloads, in the order they were selected
+     */
+    public List<String> getSelected() {
+        List<String> gids = new ArrayList<>(mSelected.size());
+        for (long gid :
+                mSelected) {
+            gids.add(Gid.toString(gid));
+        }
+        return gids;
+    }
+
+    public void clearSelection() {
+        if (mSelected.isEmpty()) {
+            return;
+        }
+
+        mSelected.clear();
+        notifyItemRangeChanged(0, getItemCount(), CHANGED_SELECTION);
+        if (mOnSelectionChangedListener != null) {
+            mOnSelectionChangedListener.onSelectionChanged(0);
+        }
     }
 
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
 
         View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_download, parent, false);
-        return new ViewHolder(v);
+        ViewHolder holder = new ViewHolder(v);
+        holder.mRowView.setSizeFormatter(mSizeFormatter);
+
+        // The listeners find the download through the holder's position when they fire, so
+        // binding a row does not have to tag its views.
+        holder.mRowView.setOnActionClickListener(this);
+        holder.mRowView.setOnClickListener(this);
+        holder.mRowView.setOnLongClickListener(this);
+        holder.mRowView.setTag(holder);
+        return holder;
+    }
+
+    @Override
+    public long getItemId(int position) {
+
+        Download download = mDownloads.findAt(position);
+        if (download == null) {
+            // Keyed by how far the row is from the window, so it keeps its ID while the downloads
+            // in the window come and go. Rows below the window take the even IDs and rows above
+            // it the odd ones, all in the range Gid keeps clear of real GIDs.
+            int end = mDownloads.getOffset() + mDownloads.size();
+            return position >= end ?
+                    Gid.RESERVED_FIRST + 2L * (position - end) :
+                    Gid.RESERVED_FIRST + 2L * (mDownloads.getOffset() - 1 - position) + 1;
+        }
+        return download.getGID();
     }
 
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
 
-        Download download = mDownloads.get(position);
+        Download download = mDownloads.findAt(position);
+        if (download == null) {
+            bindPlaceholder(holder);
+            return;
+        }
 
-        holder.imageButtonAction.setOnClickListener(this);
-        holder.imageButtonAction.setTag(R.string.KEY_GID, download.getGID());
-        holder.imageButtonAction.setTag(R.string.KEY_STATUS, download.getStatus());
-        switch (download.getStatus()){
-            case ACTIVE:
-            case WAITING:
-                holder.imageButtonAction.setImageResource(R.drawable.ic_pause_black_48dp);
-                break;
-            case PAUSED:
-                holder.imageButtonAction.setImageResource(R.drawable.ic_play_arrow_black_48dp);
-                break;
-            default:
-                holder.imageButtonAction.setImageResource(android.R.color.transparent);
+        bindSelection(holder, download);
+        bindStatus(holder, download);
+        bindName(holder, download);
+        bindSpeed(holder, download);
+        bindProgress(holder, download);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
         }
 
-        holder.textViewName.setText(download.getName());
-        holder.textViewStatus.setText(download.getStatus().toString());
+        int changed = 0;
+        for (Object payload :
+                payloads) {
+            changed |= (Integer) payload;
+        }
 
-        switch (download.getStatus()) {
-            case ACTIVE:
-                holder.textViewDownloadSpeed.setText(String.format(Locale.getDefault(), "%s/sec", toReadableFormat(Integer.parseInt(download.getDownloadSpeed()))));
-                holder.textViewUploadSpeed.setText(String.format(Locale.getDefault(), "%s/sec", toReadableFormat(Integer.parseInt(download.getUploadSpeed()))));
-                holder.linearLayoutUploadSpeed.setVisibility(View.VISIBLE);
-                holder.linearLayoutDownloadSpeed.setVisibility(View.VISIBLE);
-                break;
-            case WAITING:
-            case PAUSED:
-            case COMPLETE:
-            case REMOVED:
-            case ERROR:
-                holder.linearLayoutUploadSpeed.setVisibility(View.INVISIBLE);
-                holder.linearLayoutDownloadSpeed.setVisibility(View.INVISIBLE);
-                break;
-            default:
-                break;
+        Download download = mDownloads.findAt(position);
+        if (download == null) {
+            return;
         }
 
-        holder.textViewTotalLength.setText(toReadableFormat(download.getTotalLength()));
-        holder.progressBarLinear.setMax(download.getTotalLength());
-        holder.progressBarLinear.setProgress(download.getCompletedLength());
+        if ((changed & Download.CHANGED_STATUS) != 0) {
+            bindStatus(holder, download);
+            bindSpeed(holder, download);
+        } else if ((changed & Download.CHANGED_SPEED) != 0) {
+            bindSpeed(holder, download);
+        }
+        if ((changed & Download.CHANGED_NAME) != 0) {
+            bindName(holder, download);
+        }
+        if ((changed & Download.CHANGED_PROGRESS) != 0) {
+            bindProgress(holder, download);
+        }
+        if ((changed & CHANGED_SELECTION) != 0) {
+            bindSelection(holder, download);
+        }
     }
 
-    @Override
-    public int getItemCount() {
-        return mDownloads.size();
+    /**
+     * Blanks a row of a paged list whose download has not been read yet.
+     */
+    private void bindPlaceholder(ViewHolder holder) {
+
+        holder.mRowView.clear();
+        setCardBackgroundColor(holder, mCardBackground);
     }
 
-    @Override
-    public void onClick(View v) {
+    private void bindSelection(ViewHolder holder, Download download) {
 
-        if (v instanceof ImageButton) {
-            String gid = (String) v.getTag(R.string.KEY_GID);
-            Download.Status status = (Download.Status) v.getTag(R.string.KEY_STATUS);
-
-            switch (status) {
-                case ACTIVE:
-                case WAITING:
-                    new PauseDownloadAsyncTask(v, gid, false).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                    break;
-                case PAUSED:
-                    new UnpauseDownloadAsyncTask(v, gid).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                    break;
-                default:
-            }
+        boolean selected = !mSelected.isEmpty() && mSelected.contains(download.getGID());
+        setCardBackgroundColor(holder, selected ? mCardBackgroundSelected : mCardBackground);
+    }
+
+    private void setCardBackgroundColor(ViewHolder holder, int color) {
+
+        if (holder.mBackgroundColor != color) {
+            holder.mBackgroundColor = color;
+            holder.mCardView.setCardBackgroundColor(color);
         }
     }
 
-    static class ViewHolder extends RecyclerView.ViewHolder {
+    private void bindStatus(ViewHolder holder, Download download) {
 
-        private CardView mCardView;
+        holder.mRowView.setStatus(download.getStatus(), download.isChangingStatus());
+    }
 
-        public ImageButton imageButtonAction;
-        public LinearLayout linearLayoutUploadSpeed;
-        public LinearLayout linearLayoutDownloadSpeed;
-        public TextView textViewName;
-        public TextView textViewStatus;
-        public TextView textViewTotalLength;
-        public TextView textViewDownloadSpeed;
-        public TextView textViewUploadSpeed;
-        public ProgressBar progressBarLinear;
+    private void bindName(ViewHolder holder, Download download) {
 
-        public ViewHolder(View itemView) {
-            super(itemView);
+        holder.mRowView.setName(download.getName());
+    }
 
-            mCardView = (CardView) itemView.findViewById(R.id.card_view);
-            imageButtonAction = (ImageButton) mCardView.findViewById(R.id.imageButton_action);
-            linearLayoutUploadSpeed = (LinearLayout) mCardView.findViewById(R.id.linearLayout_uploadSpeed);
-            linearLayoutDownloadSpeed = (LinearLayout) mCardView.findViewById(R.id.linearLayout_downloadSpeed);
-            textViewName = (TextView) mCardView.findViewById(R.id.textView_name);
-            textViewStatus = (TextView) mCardView.findViewById(R.id.textView_status);
-            textViewTotalLength = (TextView) mCardView.findViewById(R.id.textView_totalLength);
-            textViewDownloadSpeed = (TextView) mCardView.findViewById(R.id.textView_downloadSpeed);
-            textViewUploadSpeed = (TextView) mCardView.findViewById(R.id.textView_uploadSpeed);
-            progressBarLinear = (ProgressBar) mCardView.findViewById(R.id.progressBar_linear);
-        }
+    private void bindSpeed(ViewHolder holder, Download download) {
+
+        holder.mRowView.setSpeeds(download.getDownloadSpeed(), download.getUploadSpeed());
     }
 
-    private String toReadableFormat(int sizeInB) {
+    private void bindProgress(ViewHolder holder, Download download) {
 
-        double size = sizeInB;
-        String unit = ("B");
+        holder.mRowView.setProgress(download.getCompletedLength(), download.getTotalLength());
+    }
 
-        double sizeInKB = sizeInB / 1000.00;
-        if (sizeInKB > 1) {
-            size = sizeInKB;
-            unit = "KB";
-        }
+    @Override
+    public int getItemCount() {
+        // A paged list has rows for every download, read or not.
+        return mDownloads.getTotal();
+    }
 
-        double sizeInMB = sizeInKB / 1000.00;
-        if (sizeInMB > 1) {
-            size = sizeInMB;
-            unit = "MB";
-        }
+    /**
+     * @return the download shown by the row {@code v} belongs to, or {@code null} if the row is a
+     * placeholder or on its way out
+     */
+    private Download downloadOf(View v) {
 
-        double sizeInGB = sizeInMB / 1000.00;
-        if (sizeInGB > 1) {
-            size = sizeInGB;
-            unit = "GB";
-        }
+        int position = ((ViewHolder) v.getTag()).getAdapterPosition();
+        return position == RecyclerView.NO_POSITION ? null : mDownloads.findAt(position);
+    }
+
+    @Override
+    public boolean onLongClick(View v) {
 
-        return String.format(Locale.getDefault(), "%.2f %s", size, unit);
+        Download download = downloadOf(v);
+        if (download != null) {
+            toggleSelection(download);
+        }
+        return true;
     }
 
-    private class UnpauseDownloadAsyncTask extends AsyncTask<Void, Void, Void> {
+    private void toggleSelection(Download download) {
 
-        private XmlRpcException mException;
+        if (!mSelected.remove(download.getGID())) {
+            mSelected.add(download.getGID());
+        }
 
-        private View mView;
-        private String mGID;
+        notifyItemChanged(mDownloads.getOffset() + mDownloads.indexOf(download), CHANGED_SELECTION);
+        if (mOnSelectionChangedListener != null) {
+            mOnSelectionChangedListener.onSelectionChanged(mSelected.size());
+        }
+    }
 
-        UnpauseDownloadAsyncTask(View view, String gid) {
-            mView = view;
-            mGID = gid;
+    @Override
+    public void onClick(View v) {
+
+        // While anything is selected, a tap on a row adds it to or takes it out of the selection.
+        Download download = downloadOf(v);
+        if (download != null && !mSelected.isEmpty()) {
+            toggleSelection(download);
         }
+    }
 
-        @Override
-        protected Void doInBackground(Void... params) {
+    @Override
+    public void onActionClick(DownloadRowView view) {
 
-            try {
-                mAria2.unpause(mGID);
-            } catch (XmlRpcException e) {
-                e.printStackTrace();
-                mException = e;
-            }
+        Download download = downloadOf(view);
+        if (download == null || download.getStatus() == null) {
+            return;
+        }
 
-            return null;
+        String gid = Gid.toString(download.getGID());
+        switch (download.getStatus()) {
+            case ACTIVE:
+            case WAITING:
+                mAria2.getAsync().pause(gid).addCallback(
+                        new SnackbarCallback(view, String.format(mContext.getString(R.string.gid_pausing), gid)),
+                        MainThreadExecutor.INSTANCE);
+                break;
+            case PAUSED:
+                mAria2.getAsync().unpause(gid).addCallback(
+                        new SnackbarCallback(view, String.format(mContext.getString(R.string.gid_unpausing), gid)),
+                        MainThreadExecutor.INSTANCE);
+                break;
+            default:
         }
+    }
 
-        @Override
-        protected void onPostExecute(Void aVoid) {
-            super.onPostExecute(aVoid);
+    static class ViewHolder extends RecyclerView.ViewHolder {
 
-            String message = String.format(mContext.getString(R.string.gid_unpausing), mGID);
+        private CardView mCardView;
+        private DownloadRowView mRowView;
 
-            if (mException != null) {
-                message = mContext.getString(R.string.error_occurred);
+        // The colour the card was last given; the row view keeps track of the rest itself.
+        private int mBackgroundColor;
 
-                if (mException.code != 0) {
-                    message = mException.getLocalizedMessage();
-                }
-            }
+        public ViewHolder(View itemView) {
+            super(itemView);
 
-            Snackbar.make(mView, message, Snackbar.LENGTH_SHORT).show();
+            mCardView = (CardView) itemView.findViewById(R.id.card_view);
+            mRowView = (DownloadRowView) mCardView.findViewById(R.id.download_row);
         }
     }
 
-    private class PauseDownloadAsyncTask extends AsyncTask<Void, Void, Void> {
-
-        private XmlRpcException mException;
+    private class SnackbarCallback implements Aria2Future.Callback<String> {
 
         private View mView;
-        private String mGID;
-        private boolean mForce;
+        private String mMessage;
 
-        public PauseDownloadAsyncTask(View view, String gid, boolean force) {
+        SnackbarCallback(View view, String message) {
             mView = view;
-            mGID = gid;
-            mForce = force;
+            mMessage = message;
         }
 
         @Override
-        protected void onPostExecute(Void aVoid) {
-            super.onPostExecute(aVoid);
+        public void onSuccess(String gid) {
+            Snackbar.make(mView, mMessage, Snackbar.LENGTH_SHORT).show();
+        }
 
-            String message = String.format(mContext.getString(R.string.gid_pausing), mGID);
+        @Override
+        public void onFailure(XmlRpcException e) {
+            e.printStackTrace();
 
-            if (mException != null) {
-                message = mContext.getString(R.string.error_occurred);
+            String message = mContext.getString(R.string.error_occurred);
 
-                if (mException.code != 0) {
-                    message = mException.getLocalizedMessage();
-                }
+            if (e.code != 0) {
+                message = e.getLocalizedMessage();
             }
 
             Snackbar.make(mView, message, Snackbar.LENGTH_SHORT).show();
         }
-
-        @Override
-        protected Void doInBackground(Void... params) {
-
-            try {
-                if (mForce) {
-                    mAria2.forcePause(mGID);
-                } else {
-                    mAria2.pause(mGID);
-                }
-            } catch (XmlRpcException e) {
-                e.printStackTrace();
-                mException = e;
-            }
-
-            return null;
-        }
     }
 }
@@ -15,8 +15,12 @@
 
 package com.kytse.aria2remote;
 
+import android.app.Activity;
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Context;
 import android.content.DialogInterface;
-import android.os.AsyncTask;
+import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -26,38 +30,64 @@ import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.AlertDialog;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.view.ActionMode;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.SimpleItemAnimator;
+import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.EditText;
 
 import com.kytse.aria2.Aria2;
 import com.kytse.aria2.Aria2Factory;
+import com.kytse.aria2.Aria2Future;
+import com.kytse.aria2.Aria2Poller;
+import com.kytse.aria2.BatchResult;
+import com.kytse.aria2.ChangeSet;
+import com.kytse.aria2.DownloadList;
+import com.kytse.aria2.UriImporter;
 
 import org.apache.xmlrpc.XmlRpcException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.MalformedURLException;
+import java.util.List;
 
 
 public class DownloadListFragment extends Fragment implements
         SwipeRefreshLayout.OnRefreshListener,
-        Aria2.OnAria2ListUpdatedListener, View.OnClickListener {
+        Aria2.OnAria2ListUpdatedListener, Aria2Poller.OnPollListener, View.OnClickListener,
+        DownloadAdapter.OnSelectionChangedListener {
 
-    private static final int LOOP_INTERVAL = 1000;
+    private static final String TAG = "DownloadListFragment";
+
+    private static final int REQUEST_IMPORT_FILE = 1;
 
     private Aria2 mAria2;
     private Aria2.ListType mType;
 
     private RecyclerView mRecyclerView;
-    private RecyclerView.Adapter mAdapter;
+    private DownloadAdapter mAdapter;
     private RecyclerView.LayoutManager mLayoutManager;
 
     private SwipeRefreshLayout mSwipeRefreshLayout;
 
-    private GetDownloadListAsyncTask mGetDownloadListAsyncTask;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private Aria2Poller.Subscription mSubscription;
+
+    private ActionMode mActionMode;
+
+    private Snackbar mImportSnackbar;
 
     public DownloadListFragment() {
         // Required empty public constructor
@@ -91,10 +121,19 @@ public class DownloadListFragment extends Fragment implements
         int typeIndex = getArguments().getInt(getString(R.string.KEY_LIST_TYPE_INDEX));
         try {
             mAria2 = Aria2Factory.getInstance(url, secret);
+            mAria2.setListFields(DownloadAdapter.FIELDS);
 
             mType = Aria2.ListType.values()[typeIndex];
 
+            // The stopped list can hold thousands of results, so only the rows around the ones on
+            // screen are read.
+            if (mType == Aria2.ListType.STOPPED) {
+                mAria2.setStoppedWindow(0, 0);
+                mRecyclerView.addOnScrollListener(new StoppedWindowScrollListener());
+            }
+
             mAdapter = new DownloadAdapter(getContext(), mAria2, mAria2.getList(mType));
+            mAdapter.setOnSelectionChangedListener(this);
             mRecyclerView.setAdapter(mAdapter);
 
         } catch (MalformedURLException e) {
@@ -114,23 +153,33 @@ public class DownloadListFragment extends Fragment implements
 
         mAria2.addListener(this);
 
+        // Versions published while no listener was registered are caught up on in one go.
+        DownloadList list = mAria2.getList(mType);
+        if (list.getVersion() != mAdapter.getDownloads().getVersion()) {
+            mAdapter.setDownloads(list);
+            mAdapter.notifyDataSetChanged();
+        }
+
         mSwipeRefreshLayout.post(new Runnable() {
             @Override
             public void run() {
                 mSwipeRefreshLayout.setRefreshing(true);
-                onRefresh();
             }
         });
 
-        mGetDownloadListAsyncTask = new GetDownloadListAsyncTask();
-        mGetDownloadListAsyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        // Subscribing refreshes the list straight away, so there is no separate first refresh.
+        mSubscription = mAria2.getPoller().subscribe(mType, this);
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        if (mGetDownloadListAsyncTask != null) {
-            mGetDownloadListAsyncTask.cancel(true);
+        if (mActionMode != null) {
+            mActionMode.finish();
+        }
+        if (mSubscription != null) {
+            mSubscription.cancel();
+            mSubscription = null;
         }
 
         mAria2.removeListener(this);
@@ -138,62 +187,101 @@ public class DownloadListFragment extends Fragment implements
 
     @Override
     public void onRefresh() {
-        if (mGetDownloadListAsyncTask == null ||
-                mGetDownloadListAsyncTask.getStatus() != AsyncTask.Status.RUNNING) {
-            mGetDownloadListAsyncTask = new GetDownloadListAsyncTask();
-            mGetDownloadListAsyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-        }
+        mAria2.getPoller().refresh();
     }
 
     @Override
-    public void onAria2ListItemChanged(Aria2.ListType type, final int position) {
-        if (type == mType) {
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    mAdapter.notifyItemChanged(position);
-                }
-            });
-        }
+    public void onPolled(Aria2.ListType type) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mSwipeRefreshLayout.setRefreshing(false);
+            }
+        });
     }
 
     @Override
-    public void onAria2ListItemInserted(Aria2.ListType type, final int position) {
-        if (type == mType) {
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    mAdapter.notifyItemInserted(position);
+    public void onPollFailed(Aria2.ListType type, final XmlRpcException e) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isAdded()) {
+                    return;
                 }
-            });
-        }
+
+                String message = getString(R.string.error_occurred);
+
+                if (e.code != 0) {
+                    message = e.getLocalizedMessage();
+                }
+
+                Snackbar.make(mSwipeRefreshLayout, message, Snackbar.LENGTH_SHORT).show();
+                mSwipeRefreshLayout.setRefreshing(false);
+            }
+        });
     }
 
     @Override
-    public void onAria2ListItemRemoved(Aria2.ListType type, final int position) {
+    public void onAria2ListUpdated(Aria2.ListType type, final DownloadList list, final ChangeSet changeSet) {
         if (type == mType) {
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            mHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    mAdapter.notifyItemRemoved(position);
+                    long version = mAdapter.getDownloads().getVersion();
+                    if (list.getVersion() <= version) {
+                        return;
+                    }
+
+                    mAdapter.setDownloads(list);
+                    if (list.getVersion() != version + 1) {
+                        // The change set is relative to a version the adapter never had.
+                        mAdapter.notifyDataSetChanged();
+                        return;
+                    }
+
+                    for (ChangeSet.Change change :
+                            changeSet.getChanges()) {
+                        switch (change.getType()) {
+                            case INSERT:
+                                mAdapter.notifyItemRangeInserted(change.getPosition(), change.getCount());
+                                break;
+                            case REMOVE:
+                                mAdapter.notifyItemRangeRemoved(change.getPosition(), change.getCount());
+                                break;
+                            case MOVE:
+                                mAdapter.notifyItemMoved(change.getPosition(), change.getToPosition());
+                                break;
+                            case CHANGE:
+                                if (change.getPayload() == 0) {
+                                    // Replaced rather than updated, so bound from scratch.
+                                    mAdapter.notifyItemRangeChanged(change.getPosition(), change.getCount());
+                                } else {
+                                    mAdapter.notifyItemRangeChanged(change.getPosition(), change.getCount(),
+                                            change.getPayload());
+                                }
+                                break;
+                        }
+                    }
                 }
             });
         }
     }
 
     @Override
-    public void onAria2ListItemMoved(Aria2.ListType type, final int oldPosition, final int newPosition) {
-        if (type == mType) {
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    mAdapter.notifyItemMoved(oldPosition, newPosition);
-                }
-            });
+    public void onSelectionChanged(int count) {
+        if (count == 0) {
+            if (mActionMode != null) {
+                mActionMode.finish();
+            }
+            return;
+        }
+
+        if (mActionMode == null) {
+            mActionMode = ((AppCompatActivity) getActivity())
+                    .startSupportActionMode(new SelectionActionModeCallback());
+        }
+        if (mActionMode != null) {
+            mActionMode.setTitle(String.format(getString(R.string.selected_count), count));
         }
     }
 
@@ -209,8 +297,14 @@ public class DownloadListFragment extends Fragment implements
                         @Override
                         public void onClick(DialogInterface dialog, int which) {
                             String url = editText.getEditableText().toString();
-                            new AddDownloadAsyncTask(url)
-                                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                            mAria2.getAsync().addUri(url)
+                                    .addCallback(new AddDownloadCallback(), MainThreadExecutor.INSTANCE);
+                        }
+                    })
+                    .setNeutralButton(R.string.import_uris, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            showImportDialog();
                         }
                     })
                     .setNegativeButton(R.string.cancel, null)
@@ -218,95 +312,246 @@ public class DownloadListFragment extends Fragment implements
         }
     }
 
-    private class GetDownloadListAsyncTask extends AsyncTask<Void, Void, Void> {
+    private void showImportDialog() {
+        CharSequence[] sources = new CharSequence[] {
+                getString(R.string.import_from_clipboard),
+                getString(R.string.import_from_file)
+        };
+
+        new AlertDialog.Builder(getContext())
+                .setTitle(R.string.import_uris)
+                .setItems(sources, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (which == 0) {
+                            importFromClipboard();
+                        } else {
+                            Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                            intent.addCategory(Intent.CATEGORY_OPENABLE);
+                            intent.setType("text/*");
+                            startActivityForResult(intent, REQUEST_IMPORT_FILE);
+                        }
+                    }
+                })
+                .show();
+    }
+
+    private void importFromClipboard() {
+        ClipboardManager clipboard =
+                (ClipboardManager) getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+        ClipData clip = clipboard.getPrimaryClip();
+
+        if (clip == null || clip.getItemCount() == 0) {
+            Snackbar.make(mRecyclerView, R.string.clipboard_empty, Snackbar.LENGTH_SHORT).show();
+            return;
+        }
+
+        importUris(new StringReader(clip.getItemAt(0).coerceToText(getContext()).toString()));
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
 
-        private Exception mException;
+        if (requestCode != REQUEST_IMPORT_FILE || resultCode != Activity.RESULT_OK || data == null) {
+            return;
+        }
+
+        try {
+            InputStream in = getContext().getContentResolver().openInputStream(data.getData());
+            importUris(new InputStreamReader(in, "UTF-8"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            Snackbar.make(mRecyclerView, R.string.error_occurred, Snackbar.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Streams the URIs in {@code reader} to aria2, showing the progress until it is done.
+     */
+    private void importUris(Reader reader) {
+        mImportSnackbar = Snackbar.make(mRecyclerView, String.format(getString(R.string.importing), 0, 0),
+                Snackbar.LENGTH_INDEFINITE);
+        mImportSnackbar.show();
+
+        mAria2.getAsync().importUris(reader, new ImportListener())
+                .addCallback(new ImportCallback(), MainThreadExecutor.INSTANCE);
+    }
+
+    private class StoppedWindowScrollListener extends RecyclerView.OnScrollListener {
 
         @Override
-        protected Void doInBackground(Void... params) {
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            LinearLayoutManager layoutManager = (LinearLayoutManager) mLayoutManager;
+            int first = layoutManager.findFirstVisibleItemPosition();
+            int last = layoutManager.findLastVisibleItemPosition();
+
+            if (first != RecyclerView.NO_POSITION &&
+                    mAria2.setStoppedWindow(first, last)) {
+                mAria2.getPoller().refresh();
+            }
+        }
+    }
 
-            try {
-                while (true) {
-                    mAria2.updateList(mType);
-                    publishProgress();
-                    Thread.sleep(LOOP_INTERVAL);
-                }
-            } catch (XmlRpcException | InterruptedException e) {
-                e.printStackTrace();
-                mException = e;
+    private class SelectionActionModeCallback implements ActionMode.Callback {
+
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.download_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            // Stopped downloads can only be removed.
+            boolean stopped = mType == Aria2.ListType.STOPPED;
+            menu.findItem(R.id.action_pause).setVisible(!stopped);
+            menu.findItem(R.id.action_unpause).setVisible(!stopped);
+            return true;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            List<String> gids = mAdapter.getSelected();
+            Aria2Future<BatchResult> future;
+
+            switch (item.getItemId()) {
+                case R.id.action_pause:
+                    future = mAria2.getAsync().pause(gids);
+                    break;
+                case R.id.action_unpause:
+                    future = mAria2.getAsync().unpause(gids);
+                    break;
+                case R.id.action_remove:
+                    future = mType == Aria2.ListType.STOPPED ?
+                            mAria2.getAsync().removeDownloadResult(gids) :
+                            mAria2.getAsync().remove(gids);
+                    break;
+                default:
+                    return false;
             }
 
-            return null;
+            future.addCallback(new BatchCallback(), MainThreadExecutor.INSTANCE);
+            mode.finish();
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            mActionMode = null;
+            mAdapter.clearSelection();
+        }
+    }
+
+    private class BatchCallback implements Aria2Future.Callback<BatchResult> {
+
+        @Override
+        public void onSuccess(BatchResult result) {
+            if (isAdded()) {
+                Snackbar.make(mRecyclerView, String.format(getString(R.string.batch_result),
+                        result.getSucceeded().size(), result.getFailed().size()),
+                        Snackbar.LENGTH_SHORT).show();
+                mAria2.getPoller().refresh();
+            }
         }
 
         @Override
-        protected void onPostExecute(Void aVoid) {
-            super.onPostExecute(aVoid);
+        public void onFailure(XmlRpcException e) {
+            e.printStackTrace();
 
-            if (mException != null) {
+            if (isAdded()) {
                 String message = getString(R.string.error_occurred);
 
-                if (mException instanceof XmlRpcException) {
-                    if (((XmlRpcException) mException).code != 0) {
-                        message = mException.getLocalizedMessage();
-                    }
+                if (e.code != 0) {
+                    message = e.getLocalizedMessage();
                 }
 
-                Snackbar.make(mSwipeRefreshLayout, message, Snackbar.LENGTH_SHORT).show();
+                Snackbar.make(mRecyclerView, message, Snackbar.LENGTH_SHORT).show();
             }
-
-            mSwipeRefreshLayout.setRefreshing(false);
         }
+    }
+
+    private class ImportListener implements UriImporter.Listener {
 
         @Override
-        protected void onProgressUpdate(Void... values) {
-            super.onProgressUpdate(values);
+        public void onProgress(final UriImporter.Progress progress) {
+            MainThreadExecutor.INSTANCE.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (isAdded() && mImportSnackbar != null) {
+                        mImportSnackbar.setText(String.format(getString(R.string.importing),
+                                progress.getAdded(), progress.getFailed()));
+                    }
+                }
+            });
+        }
 
-            mSwipeRefreshLayout.setRefreshing(false);
+        @Override
+        public void onUriFailed(String uri, XmlRpcException e) {
+            Log.w(TAG, String.format("Failed to add %s: %s", uri, e.getMessage()));
         }
     }
 
-    private class AddDownloadAsyncTask extends AsyncTask<Void, Void, String> {
+    private class ImportCallback implements Aria2Future.Callback<UriImporter.Progress> {
+
+        @Override
+        public void onSuccess(UriImporter.Progress progress) {
+            if (isAdded()) {
+                dismissImportSnackbar();
+                Snackbar.make(mRecyclerView, String.format(getString(R.string.import_result),
+                        progress.getAdded(), progress.getFailed(), progress.getDuplicates()),
+                        Snackbar.LENGTH_LONG).show();
+                mAria2.getPoller().refresh();
+            }
+        }
+
+        @Override
+        public void onFailure(XmlRpcException e) {
+            e.printStackTrace();
 
-        private Exception mException;
+            if (isAdded()) {
+                dismissImportSnackbar();
+                String message = getString(R.string.error_occurred);
 
-        private String mURL;
+                if (e.code != 0) {
+                    message = e.getLocalizedMessage();
+                }
 
-        AddDownloadAsyncTask(String url) {
-            mURL = url;
+                Snackbar.make(mRecyclerView, message, Snackbar.LENGTH_SHORT).show();
+            }
         }
 
-        @Override
-        protected String doInBackground(Void... params) {
-            String gid = null;
-
-            try {
-                gid = mAria2.addUri(mURL);
-            } catch (XmlRpcException e) {
-                e.printStackTrace();
-                mException = e;
+        private void dismissImportSnackbar() {
+            if (mImportSnackbar != null) {
+                mImportSnackbar.dismiss();
+                mImportSnackbar = null;
             }
+        }
+    }
 
-            return gid;
+    private class AddDownloadCallback implements Aria2Future.Callback<String> {
+
+        @Override
+        public void onSuccess(String gid) {
+            if (isAdded()) {
+                Snackbar.make(mRecyclerView, String.format(getString(R.string.gid_added), gid),
+                        Snackbar.LENGTH_SHORT).show();
+            }
         }
 
         @Override
-        protected void onPostExecute(String gid) {
-            super.onPostExecute(gid);
+        public void onFailure(XmlRpcException e) {
+            e.printStackTrace();
 
-            String message = getString(R.string.error_occurred);
+            if (isAdded()) {
+                String message = getString(R.string.error_occurred);
 
-            if (gid != null) {
-                message = String.format(getString(R.string.gid_added), gid);
-            } else if (mException != null) {
-                if (mException instanceof XmlRpcException) {
-                    if (((XmlRpcException) mException).code != 0) {
-                        message = mException.getLocalizedMessage();
-                    }
+                if (e.code != 0) {
+                    message = e.getLocalizedMessage();
                 }
-            }
 
-            Snackbar.make(mRecyclerView, message, Snackbar.LENGTH_SHORT).show();
+                Snackbar.make(mRecyclerView, message, Snackbar.LENGTH_SHORT).show();
+            }
         }
     }
 }
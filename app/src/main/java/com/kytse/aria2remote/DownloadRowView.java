@@ -0,0 +1,491 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2remote;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Bundle;
+import android.support.v4.view.ViewCompat;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.support.v4.widget.ExploreByTouchHelper;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+
+import com.kytse.aria2.Download;
+
+import java.util.List;
+
+/**
+ * One row of the download list, drawn by a single view: the action button, the name, the status,
+ * the speeds and total length, and the progress bar. Its height only depends on the text sizes,
+ * so a change of any value just redraws the row and never asks for a layout pass.
+ *
+ * Each setter returns early when the value is what the row already shows.
+ *
+ * As the action button is only drawn, accessibility services see it as a virtual view of the row.
+ */
+public class DownloadRowView extends View {
+
+    public interface OnActionClickListener {
+
+        void onActionClick(DownloadRowView view);
+    }
+
+    private static final int PROGRESS_MAX = 1000;
+
+    private static final int PRESSED_COLOR = 0x1f000000;
+
+    // The action button of a download whose status aria2 has yet to confirm is drawn faded.
+    private static final int CHANGING_ALPHA = 0x61;
+
+    private static final int ACTION_VIRTUAL_VIEW_ID = 1;
+
+    private final TextPaint mNamePaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final TextPaint mTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mProgressPaint = new Paint();
+    private final Paint mTrackPaint = new Paint();
+    private final Paint mPressedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final Drawable mPauseIcon;
+    private final Drawable mResumeIcon;
+    private final Drawable mDownloadSpeedIcon;
+    private final Drawable mUploadSpeedIcon;
+    private final String mPauseDescription;
+    private final String mResumeDescription;
+
+    private final ActionAccessibilityHelper mAccessibilityHelper;
+
+    private final int mProgressHeight;
+    private final int mProgressMargin;
+
+    // Worked out in onSizeChanged, as they only depend on the size and the fonts.
+    private final Rect mActionBounds = new Rect();
+    private int mTextLeft;
+    private int mTextWidth;
+    private int mNameBaseline;
+    private int mStatusBaseline;
+    private int mDetailTop;
+    private int mDetailBaseline;
+    private int mProgressTop;
+
+    private SizeFormatter mSizeFormatter;
+    private OnActionClickListener mOnActionClickListener;
+    // Whether the touch going on started on the action button, and whether it is still over it.
+    private boolean mActionTouched;
+    private boolean mActionPressed;
+
+    private Download.Status mStatus;
+    private boolean mChangingStatus;
+    private Drawable mActionIcon;
+    private String mActionDescription;
+    private String mStatusText;
+
+    private String mName;
+    // The name cut to the width of the row, made again only when the name or the width changes.
+    private CharSequence mNameLayout;
+
+    private boolean mSpeedsShown;
+    private long mDownloadSpeed = -1;
+    private long mUploadSpeed = -1;
+    private final char[] mDownloadSpeedText = new char[SizeFormatter.MAX_LENGTH];
+    private final char[] mUploadSpeedText = new char[SizeFormatter.MAX_LENGTH];
+    private int mDownloadSpeedLength;
+    private int mUploadSpeedLength;
+
+    private long mTotalLength = -1;
+    private final char[] mTotalLengthText = new char[SizeFormatter.MAX_LENGTH];
+    private int mTotalLengthLength;
+    private int mProgress;
+
+    public DownloadRowView(Context context) {
+        this(context, null);
+    }
+
+    public DownloadRowView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        Resources resources = context.getResources();
+
+        TypedArray colors = context.getTheme().obtainStyledAttributes(new int[] {
+                android.R.attr.textColorPrimary, android.R.attr.textColorSecondary});
+        mNamePaint.setColor(colors.getColorStateList(0).getDefaultColor());
+        mTextPaint.setColor(colors.getColorStateList(1).getDefaultColor());
+        colors.recycle();
+
+        mNamePaint.setTextSize(resources.getDimension(R.dimen.download_row_name_text_size));
+        mTextPaint.setTextSize(resources.getDimension(R.dimen.download_row_text_size));
+        mProgressPaint.setColor(resources.getColor(R.color.colorAccent));
+        mTrackPaint.setColor(resources.getColor(R.color.colorAccent));
+        mTrackPaint.setAlpha(0x40);
+        mPressedPaint.setColor(PRESSED_COLOR);
+
+        mPauseIcon = iconOf(resources, R.drawable.ic_pause_black_48dp);
+        mResumeIcon = iconOf(resources, R.drawable.ic_play_arrow_black_48dp);
+        mDownloadSpeedIcon = iconOf(resources, R.drawable.ic_file_download_black_18dp);
+        mUploadSpeedIcon = iconOf(resources, R.drawable.ic_file_upload_black_18dp);
+        mPauseDescription = resources.getString(R.string.action_pause);
+        mResumeDescription = resources.getString(R.string.action_unpause);
+
+        mProgressHeight = resources.getDimensionPixelSize(R.dimen.download_row_progress_height);
+        mProgressMargin = resources.getDimensionPixelSize(R.dimen.download_row_progress_margin);
+
+        mAccessibilityHelper = new ActionAccessibilityHelper(this);
+        ViewCompat.setAccessibilityDelegate(this, mAccessibilityHelper);
+    }
+
+    private static Drawable iconOf(Resources resources, int id) {
+        // Mutated, as the alpha of the action button is set per row.
+        Drawable icon = resources.getDrawable(id).mutate();
+        icon.setBounds(0, 0, icon.getIntrinsicWidth(), icon.getIntrinsicHeight());
+        return icon;
+    }
+
+    void setSizeFormatter(SizeFormatter sizeFormatter) {
+        mSizeFormatter = sizeFormatter;
+    }
+
+    public void setOnActionClickListener(OnActionClickListener listener) {
+        mOnActionClickListener = listener;
+    }
+
+    /**
+     * Sets the status, which picks the action button and whether the speeds are shown. A status
+     * that is {@code changing} has been asked of aria2 but not confirmed yet.
+     */
+    public void setStatus(Download.Status status, boolean changing) {
+        if (mStatus == status && mChangingStatus == changing) {
+            return;
+        }
+        mStatus = status;
+        mChangingStatus = changing;
+
+        // A status aria2 reports that this app does not know of is shown blank, with no action.
+        mActionIcon = null;
+        mActionDescription = null;
+        if (status != null) {
+            switch (status) {
+                case ACTIVE:
+                case WAITING:
+                    mActionIcon = mPauseIcon;
+                    mActionDescription = mPauseDescription;
+                    break;
+                case PAUSED:
+                    mActionIcon = mResumeIcon;
+                    mActionDescription = mResumeDescription;
+                    break;
+                default:
+            }
+        }
+        if (mActionIcon != null) {
+            mActionIcon.setAlpha(changing ? CHANGING_ALPHA : 0xff);
+        }
+        mStatusText = status == null ? null : status.toString();
+        mSpeedsShown = status == Download.Status.ACTIVE;
+        updateContentDescription();
+        mAccessibilityHelper.invalidateRoot();
+        invalidate();
+    }
+
+    public void setName(String name) {
+        if (name == null ? mName == null : name.equals(mName)) {
+            return;
+        }
+        mName = name;
+        mNameLayout = ellipsize(name);
+        updateContentDescription();
+        invalidate();
+    }
+
+    public void setSpeeds(long downloadSpeed, long uploadSpeed) {
+        if (mDownloadSpeed == downloadSpeed && mUploadSpeed == uploadSpeed) {
+            return;
+        }
+        if (mDownloadSpeed != downloadSpeed) {
+            mDownloadSpeed = downloadSpeed;
+            mDownloadSpeedLength = mSizeFormatter.format(downloadSpeed, true, mDownloadSpeedText);
+        }
+        if (mUploadSpeed != uploadSpeed) {
+            mUploadSpeed = uploadSpeed;
+            mUploadSpeedLength = mSizeFormatter.format(uploadSpeed, true, mUploadSpeedText);
+        }
+        if (mSpeedsShown) {
+            invalidate();
+        }
+    }
+
+    public void setProgress(long completedLength, long totalLength) {
+        // Scaled to a fixed range, as the lengths may be over what an int holds.
+        int progress = totalLength == 0 ? 0 : (int) (completedLength * PROGRESS_MAX / totalLength);
+        if (mTotalLength == totalLength && mProgress == progress) {
+            return;
+        }
+        if (mTotalLength != totalLength) {
+            mTotalLength = totalLength;
+            mTotalLengthLength = mSizeFormatter.format(totalLength, false, mTotalLengthText);
+        }
+        mProgress = progress;
+        invalidate();
+    }
+
+    /**
+     * Blanks the row, for a download that has not been read yet.
+     */
+    public void clear() {
+        mStatus = null;
+        mChangingStatus = false;
+        mActionIcon = null;
+        mActionDescription = null;
+        mStatusText = null;
+        mName = null;
+        mNameLayout = null;
+        mSpeedsShown = false;
+        mDownloadSpeed = -1;
+        mUploadSpeed = -1;
+        mTotalLength = -1;
+        mTotalLengthLength = 0;
+        mProgress = 0;
+        updateContentDescription();
+        mAccessibilityHelper.invalidateRoot();
+        invalidate();
+    }
+
+    /**
+     * Describes the row by its name and status. The speeds are left out, as they change too often
+     * to be read out.
+     */
+    private void updateContentDescription() {
+        if (mName == null || mStatusText == null) {
+            setContentDescription(mName != null ? mName : mStatusText);
+        } else {
+            setContentDescription(mName + ", " + mStatusText);
+        }
+    }
+
+    private CharSequence ellipsize(String name) {
+        if (name == null || mTextWidth <= 0) {
+            return name;
+        }
+        return TextUtils.ellipsize(name, mNamePaint, mTextWidth, TextUtils.TruncateAt.END);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int textHeight = lineHeightOf(mNamePaint) + lineHeightOf(mTextPaint)
+                + Math.max(lineHeightOf(mTextPaint), mDownloadSpeedIcon.getIntrinsicHeight())
+                + mProgressMargin + mProgressHeight;
+        int height = getPaddingTop() + Math.max(mPauseIcon.getIntrinsicHeight(), textHeight) + getPaddingBottom();
+
+        setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    private static int lineHeightOf(Paint paint) {
+        Paint.FontMetricsInt metrics = paint.getFontMetricsInt();
+        return metrics.descent - metrics.ascent;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        int top = getPaddingTop();
+        int actionSize = mPauseIcon.getIntrinsicWidth();
+        mActionBounds.set(getPaddingLeft(), top, getPaddingLeft() + actionSize, top + mPauseIcon.getIntrinsicHeight());
+
+        mTextLeft = mActionBounds.right;
+        mTextWidth = w - getPaddingRight() - mTextLeft;
+
+        mNameBaseline = top - mNamePaint.getFontMetricsInt().ascent;
+        top += lineHeightOf(mNamePaint);
+        mStatusBaseline = top - mTextPaint.getFontMetricsInt().ascent;
+        top += lineHeightOf(mTextPaint);
+
+        int detailHeight = Math.max(lineHeightOf(mTextPaint), mDownloadSpeedIcon.getIntrinsicHeight());
+        mDetailTop = top;
+        mDetailBaseline = top + (detailHeight - lineHeightOf(mTextPaint)) / 2 - mTextPaint.getFontMetricsInt().ascent;
+        top += detailHeight;
+
+        mProgressTop = top + mProgressMargin;
+
+        mNameLayout = ellipsize(mName);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mActionIcon != null) {
+            if (mActionPressed) {
+                canvas.drawCircle(mActionBounds.exactCenterX(), mActionBounds.exactCenterY(),
+                        mActionBounds.width() / 2f, mPressedPaint);
+            }
+            canvas.save();
+            canvas.translate(mActionBounds.left, mActionBounds.top);
+            mActionIcon.draw(canvas);
+            canvas.restore();
+        }
+
+        if (mNameLayout != null) {
+            canvas.drawText(mNameLayout, 0, mNameLayout.length(), mTextLeft, mNameBaseline, mNamePaint);
+        }
+        if (mStatusText != null) {
+            canvas.drawText(mStatusText, mTextLeft, mStatusBaseline, mTextPaint);
+        }
+
+        // Download speed, upload speed and total length share the line in equal columns.
+        int column = mTextWidth / 3;
+        if (mSpeedsShown) {
+            drawDetail(canvas, mDownloadSpeedIcon, mDownloadSpeedText, mDownloadSpeedLength, mTextLeft);
+            drawDetail(canvas, mUploadSpeedIcon, mUploadSpeedText, mUploadSpeedLength, mTextLeft + column);
+        }
+        if (mTotalLengthLength > 0) {
+            canvas.drawText(mTotalLengthText, 0, mTotalLengthLength, mTextLeft + 2 * column, mDetailBaseline, mTextPaint);
+        }
+
+        int progressRight = mTextLeft + mTextWidth;
+        int progressEnd = mTextLeft + (int) ((long) mTextWidth * mProgress / PROGRESS_MAX);
+        canvas.drawRect(progressEnd, mProgressTop, progressRight, mProgressTop + mProgressHeight, mTrackPaint);
+        canvas.drawRect(mTextLeft, mProgressTop, progressEnd, mProgressTop + mProgressHeight, mProgressPaint);
+    }
+
+    private void drawDetail(Canvas canvas, Drawable icon, char[] text, int length, int left) {
+        canvas.save();
+        canvas.translate(left, mDetailTop);
+        icon.draw(canvas);
+        canvas.restore();
+
+        canvas.drawText(text, 0, length, left + icon.getIntrinsicWidth(), mDetailBaseline, mTextPaint);
+    }
+
+    /**
+     * Takes touches on the action button for itself, and leaves the rest of the row to the
+     * click and long click listeners.
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean onAction = mActionIcon != null && mActionBounds.contains((int) event.getX(), (int) event.getY());
+
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mActionTouched = onAction;
+                if (onAction) {
+                    setActionPressed(true);
+                    return true;
+                }
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (mActionTouched) {
+                    setActionPressed(onAction);
+                    return true;
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                if (mActionTouched) {
+                    mActionTouched = false;
+                    setActionPressed(false);
+                    if (onAction) {
+                        performActionClick();
+                    }
+                    return true;
+                }
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                if (mActionTouched) {
+                    mActionTouched = false;
+                    setActionPressed(false);
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+
+        return super.onTouchEvent(event);
+    }
+
+    private void setActionPressed(boolean pressed) {
+        if (mActionPressed != pressed) {
+            mActionPressed = pressed;
+            invalidate(mActionBounds);
+        }
+    }
+
+    private boolean performActionClick() {
+        if (mOnActionClickListener == null) {
+            return false;
+        }
+        playSoundEffect(SoundEffectConstants.CLICK);
+        mOnActionClickListener.onActionClick(this);
+        mAccessibilityHelper.sendEventForVirtualView(ACTION_VIRTUAL_VIEW_ID, AccessibilityEvent.TYPE_VIEW_CLICKED);
+        return true;
+    }
+
+    @Override
+    protected boolean dispatchHoverEvent(MotionEvent event) {
+        return mAccessibilityHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event);
+    }
+
+    /**
+     * Exposes the action button, while there is one, as a virtual view that can be explored by
+     * touch and clicked.
+     */
+    private class ActionAccessibilityHelper extends ExploreByTouchHelper {
+
+        ActionAccessibilityHelper(View host) {
+            super(host);
+        }
+
+        @Override
+        protected int getVirtualViewAt(float x, float y) {
+            return mActionIcon != null && mActionBounds.contains((int) x, (int) y) ?
+                    ACTION_VIRTUAL_VIEW_ID : INVALID_ID;
+        }
+
+        @Override
+        protected void getVisibleVirtualViews(List<Integer> virtualViewIds) {
+            if (mActionIcon != null) {
+                virtualViewIds.add(ACTION_VIRTUAL_VIEW_ID);
+            }
+        }
+
+        @Override
+        protected void onPopulateEventForVirtualView(int virtualViewId, AccessibilityEvent event) {
+            // A description has to be set even for a view that has just gone, or the helper throws.
+            event.setContentDescription(mActionDescription != null ? mActionDescription : "");
+        }
+
+        @Override
+        protected void onPopulateNodeForVirtualView(int virtualViewId, AccessibilityNodeInfoCompat node) {
+            node.setContentDescription(mActionDescription != null ? mActionDescription : "");
+            node.setBoundsInParent(mActionBounds);
+            node.setClickable(true);
+            node.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK);
+        }
+
+        @Override
+        protected boolean onPerformActionForVirtualView(int virtualViewId, int action, Bundle arguments) {
+            return action == AccessibilityNodeInfoCompat.ACTION_CLICK && mActionIcon != null
+                    && performActionClick();
+        }
+    }
+}
@@ -20,7 +20,6 @@ import android.animation.AnimatorListenerAdapter;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.SharedPreferences;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.Snackbar;
@@ -38,15 +37,17 @@ import android.widget.TextView;
 
 import com.kytse.aria2.Aria2;
 import com.kytse.aria2.Aria2Factory;
+import com.kytse.aria2.Aria2Future;
 
 import org.apache.xmlrpc.XmlRpcException;
 
 import java.net.MalformedURLException;
+import java.util.Map;
 
 
 public class LoginFragment extends Fragment {
 
-    private UserLoginTask mAuthTask = null;
+    private Aria2Future<Map> mAuthTask = null;
 
     private EditText mEditTextUrl;
     private EditText mEditTextSecret;
@@ -125,12 +126,24 @@ public class LoginFragment extends Fragment {
             cancel = true;
         }
 
+        Aria2 aria2 = null;
+        if (!cancel) {
+            try {
+                aria2 = Aria2Factory.getInstance(url, secret);
+            } catch (MalformedURLException e) {
+                e.printStackTrace();
+                mEditTextUrl.setError(e.getLocalizedMessage());
+                focusView = mEditTextUrl;
+                cancel = true;
+            }
+        }
+
         if (cancel) {
             focusView.requestFocus();
         } else {
             showProgress(true);
-            mAuthTask = new UserLoginTask(url, secret);
-            mAuthTask.execute((Void) null);
+            mAuthTask = aria2.getAsync().getGlobalStat()
+                    .addCallback(new UserLoginCallback(url, secret), MainThreadExecutor.INSTANCE);
         }
     }
 
@@ -162,81 +175,55 @@ public class LoginFragment extends Fragment {
         }
     }
 
-    public class UserLoginTask extends AsyncTask<Void, Void, Boolean> {
+    private class UserLoginCallback implements Aria2Future.Callback<Map> {
 
         private final String mUrl;
         private final String mSecret;
 
-        private Exception mException;
-
-        UserLoginTask(String email, String password) {
-            mUrl = email;
-            mSecret = password;
+        UserLoginCallback(String url, String secret) {
+            mUrl = url;
+            mSecret = secret;
         }
 
         @Override
-        protected Boolean doInBackground(Void... params) {
+        public void onSuccess(Map globalStat) {
+            mAuthTask = null;
+            if (!isAdded()) {
+                return;
+            }
+            showProgress(false);
 
-            try {
-                Aria2 aria2 = Aria2Factory.getInstance(mUrl, mSecret);
+            SharedPreferences settings = getActivity().
+                    getSharedPreferences(getString(R.string.login_credentials), 0);
+            SharedPreferences.Editor editor = settings.edit();
+            editor.putString(getString(R.string.KEY_URL), mUrl);
+            editor.putString(getString(R.string.KEY_SECRET), mSecret);
 
-                aria2.getGlobalStat();
+            editor.apply();
 
-                return true;
-            } catch (MalformedURLException | XmlRpcException e) {
-                e.printStackTrace();
-                mException = e;
+            if (mListener != null) {
+                mListener.onLoginSucceeded();
             }
-
-            return false;
         }
 
         @Override
-        protected void onPostExecute(final Boolean success) {
+        public void onFailure(XmlRpcException e) {
+            e.printStackTrace();
+
             mAuthTask = null;
+            if (!isAdded()) {
+                return;
+            }
             showProgress(false);
 
-            if (success) {
-
-                SharedPreferences settings = getActivity().
-                        getSharedPreferences(getString(R.string.login_credentials), 0);
-                SharedPreferences.Editor editor = settings.edit();
-                editor.putString(getString(R.string.KEY_URL), mUrl);
-                editor.putString(getString(R.string.KEY_SECRET), mSecret);
-
-                editor.apply();
-
-                if (mListener != null) {
-                    mListener.onLoginSucceeded();
-                }
-
+            String error;
+            if (e.code == 0) {
+                error = "Error occurred";
             } else {
-                View focusView = null;
-
-                if (mException instanceof MalformedURLException) {
-                    mEditTextUrl.setError(mException.getLocalizedMessage());
-                    focusView = mEditTextUrl;
-                } else if (mException instanceof XmlRpcException) {
-                    String error;
-                    if (((XmlRpcException) mException).code == 0) {
-                        error = "Error occurred";
-                    } else {
-                        error = mException.getLocalizedMessage();
-                    }
-                    Snackbar snackbar = Snackbar.make(mLoginFormView, error, Snackbar.LENGTH_SHORT);
-                    snackbar.show();
-                }
-
-                if (focusView != null) {
-                    focusView.requestFocus();
-                }
+                error = e.getLocalizedMessage();
             }
-        }
-
-        @Override
-        protected void onCancelled() {
-            mAuthTask = null;
-            showProgress(false);
+            Snackbar snackbar = Snackbar.make(mLoginFormView, error, Snackbar.LENGTH_SHORT);
+            snackbar.show();
         }
     }
 
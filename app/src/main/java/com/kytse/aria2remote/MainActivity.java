@@ -33,9 +33,12 @@ import android.widget.TextView;
 
 import com.kytse.aria2.Aria2;
 import com.kytse.aria2.Aria2Factory;
+import com.kytse.aria2.SnapshotCache;
 
 import org.apache.xmlrpc.XmlRpcException;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 
 public class MainActivity extends AppCompatActivity implements
@@ -49,6 +52,8 @@ public class MainActivity extends AppCompatActivity implements
 
     private NavigationView mNavigationView;
 
+    private SnapshotCache mSnapshotCache;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -77,9 +82,40 @@ public class MainActivity extends AppCompatActivity implements
 
         mLoginFragment.setListener(this);
 
+        mSnapshotCache = new SnapshotCache(new File(getCacheDir(), "snapshots"));
+
         loginStateDidChanged();
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        SharedPreferences settings = getSharedPreferences(getString(R.string.login_credentials), 0);
+        final String url = settings.getString(getString(R.string.KEY_URL), null);
+        String secret = settings.getString(getString(R.string.KEY_SECRET), null);
+        if (url == null) {
+            return;
+        }
+
+        try {
+            final Aria2 aria2 = Aria2Factory.getInstance(url, secret);
+            // Runs on the same serial executor as the restore, so the two never overlap.
+            AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mSnapshotCache.save(url, aria2);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public boolean onNavigationItemSelected(MenuItem item) {
 
@@ -139,15 +175,22 @@ public class MainActivity extends AppCompatActivity implements
 
     private void logout() {
         SharedPreferences settings = getSharedPreferences(getString(R.string.login_credentials), 0);
+
+        final String url = settings.getString(getString(R.string.KEY_URL), null);
+        Aria2Factory.removeInstance(url);
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                mSnapshotCache.delete(url);
+            }
+        });
+
         SharedPreferences.Editor editor = settings.edit();
         editor.remove(getString(R.string.KEY_URL));
         editor.remove(getString(R.string.KEY_SECRET));
 
         editor.apply();
 
-        String url = settings.getString(getString(R.string.KEY_URL), null);
-        Aria2Factory.removeInstance(url);
-
         loginStateDidChanged();
     }
 
@@ -185,7 +228,32 @@ public class MainActivity extends AppCompatActivity implements
             stoppedBundle.putInt(getString(R.string.KEY_LIST_TYPE_INDEX), Aria2.ListType.STOPPED.ordinal());
             mStoppedFragment.setArguments(stoppedBundle);
 
+            restoreSnapshot(url, secret);
+
             onNavigationItemSelected(mNavigationView.getMenu().findItem(R.id.nav_active));
         }
     }
+
+    /**
+     * Shows the lists as they were last seen, until the first refresh comes back.
+     */
+    private void restoreSnapshot(final String url, String secret) {
+
+        try {
+            final Aria2 aria2 = Aria2Factory.getInstance(url, secret);
+            AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mSnapshotCache.restore(url, aria2);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        mSnapshotCache.delete(url);
+                    }
+                }
+            });
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+        }
+    }
 }
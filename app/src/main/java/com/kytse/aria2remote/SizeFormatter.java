@@ -0,0 +1,94 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2remote;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Writes byte counts as "1.50 MB" or "1.50 MB/sec" into a caller's char array, so the list can
+ * redraw sizes and speeds every second without making a string for each. The output is what
+ * {@code String.format(Locale.getDefault(), "%.2f %s", ...)} gives, with sizes in powers of 1000.
+ */
+class SizeFormatter {
+
+    // Long enough for Long.MAX_VALUE in GB per second.
+    static final int MAX_LENGTH = 32;
+
+    private static final String[] UNITS = {"B", "KB", "MB", "GB"};
+
+    private static final String PER_SECOND = "/sec";
+
+    private final char mZeroDigit;
+    private final char mDecimalSeparator;
+
+    SizeFormatter(Locale locale) {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        mZeroDigit = symbols.getZeroDigit();
+        mDecimalSeparator = symbols.getDecimalSeparator();
+    }
+
+    /**
+     * @param buffer at least {@link #MAX_LENGTH} chars
+     * @return the number of chars written from the start of {@code buffer}
+     */
+    int format(long bytes, boolean perSecond, char[] buffer) {
+        int unit = 0;
+        long divisor = 1;
+        // As in the "size > 1" tests this replaces, exactly 1000 of a unit stays in that unit.
+        while (unit < UNITS.length - 1 && bytes > divisor * 1000) {
+            divisor *= 1000;
+            unit++;
+        }
+
+        // Hundredths, rounded half up as %.2f does, without overflowing on the largest counts.
+        long whole = bytes / divisor;
+        long hundredths = ((bytes % divisor) * 100 + divisor / 2) / divisor;
+        if (hundredths == 100) {
+            whole++;
+            hundredths = 0;
+        }
+
+        int length = writeDigits(whole, buffer, 0);
+        buffer[length++] = mDecimalSeparator;
+        buffer[length++] = (char) (mZeroDigit + hundredths / 10);
+        buffer[length++] = (char) (mZeroDigit + hundredths % 10);
+        buffer[length++] = ' ';
+        length = writeString(UNITS[unit], buffer, length);
+        if (perSecond) {
+            length = writeString(PER_SECOND, buffer, length);
+        }
+        return length;
+    }
+
+    private int writeDigits(long value, char[] buffer, int offset) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buffer[i] = (char) (mZeroDigit + value % 10);
+            value /= 10;
+        }
+        return offset + digits;
+    }
+
+    private static int writeString(String s, char[] buffer, int offset) {
+        s.getChars(0, s.length(), buffer, offset);
+        return offset + s.length();
+    }
+}
@@ -0,0 +1,134 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.parser.XmlRpcResponseParser;
+import org.apache.xmlrpc.util.SAXParsers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a tellActive response with Apache's parser followed by
+ * {@link Download#Download(Map)} against {@link DownloadResponseParser}.
+ *
+ * Run with {@code ./gradlew :jaria2:jmh}; add {@code -Pjmh.args="-prof gc"} to see the allocation
+ * rate of each path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int mDownloads;
+
+    private byte[] mResponse;
+    private XmlRpcClientConfigImpl mConfig;
+    private XmlRpcClient mClient;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<methodResponse><params><param><value><array><data>");
+        for (int i = 0; i < mDownloads; i++) {
+            builder.append("<value><struct>")
+                    .append(member("gid", String.format("%016x", i)))
+                    .append(member("status", "active"))
+                    .append(member("totalLength", "5368709120"))
+                    .append(member("completedLength", String.valueOf(i * 1024L)))
+                    .append(member("uploadLength", "0"))
+                    .append(member("bitfield", "ffffffffffffffffffffffffffffffffffffffff"))
+                    .append(member("downloadSpeed", "1048576"))
+                    .append(member("uploadSpeed", "0"))
+                    .append(member("connections", "16"))
+                    .append(member("dir", "/downloads"))
+                    .append("<member><name>files</name><value><array><data><value><struct>")
+                    .append(member("index", "1"))
+                    .append(member("path", String.format("/downloads/file%d.iso", i)))
+                    .append(member("length", "5368709120"))
+                    .append(member("completedLength", String.valueOf(i * 1024L)))
+                    .append(member("selected", "true"))
+                    .append("<member><name>uris</name><value><array><data>");
+            for (int j = 0; j < 4; j++) {
+                builder.append("<value><struct>")
+                        .append(member("status", "used"))
+                        .append(member("uri", String.format("http://mirror%d.example.com/file%d.iso", j, i)))
+                        .append("</struct></value>");
+            }
+            builder.append("</data></array></value></member>")
+                    .append("</struct></value></data></array></value></member>")
+                    .append("</struct></value>");
+        }
+        builder.append("</data></array></value></param></params></methodResponse>");
+
+        mResponse = builder.toString().getBytes(Charset.forName("UTF-8"));
+        mConfig = new XmlRpcClientConfigImpl();
+        mClient = new XmlRpcClient();
+    }
+
+    @Benchmark
+    public List<Download> apacheParser() throws Exception {
+        XmlRpcResponseParser parser = new XmlRpcResponseParser(mConfig, mClient.getTypeFactory());
+        XMLReader reader = SAXParsers.newXMLReader();
+        reader.setContentHandler(parser);
+        reader.parse(new InputSource(new ByteArrayInputStream(mResponse)));
+
+        Object[] status = (Object[]) parser.getResult();
+        List<Download> downloads = new ArrayList<>(status.length);
+        for (Object object :
+                status) {
+            downloads.add(new Download((Map<String, Object>) object));
+        }
+        return downloads;
+    }
+
+    @Benchmark
+    public Object streamingParser() throws Exception {
+        DownloadResponseParser parser = new DownloadResponseParser(DownloadResponseParser.Shape.DOWNLOADS);
+        XMLReader reader = SAXParsers.newXMLReader();
+        reader.setContentHandler(parser);
+        reader.parse(new InputSource(new ByteArrayInputStream(mResponse)));
+
+        return parser.getResult();
+    }
+
+    private static String member(String name, String value) {
+        return String.format("<member><name>%s</name><value><string>%s</string></value></member>", name, value);
+    }
+}
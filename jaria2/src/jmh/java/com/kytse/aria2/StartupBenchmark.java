@@ -0,0 +1,173 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how long a client made at startup takes to have an active list to show, with and
+ * without a {@link SnapshotCache}: either the first refresh from a local fake aria2, delayed by
+ * {@code mLatency} ms to stand in for a slow link, or a restore of the snapshot saved at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Param({"100", "1000", "5000"})
+    public int mDownloads;
+
+    @Param({"0", "300"})
+    public int mLatency;
+
+    private HttpServer mServer;
+    private String mUrl;
+    private File mDirectory;
+    private SnapshotCache mCache;
+
+    @Setup
+    public void setUp() throws Exception {
+        Object[] downloads = new Object[mDownloads];
+        for (int i = 0; i < mDownloads; i++) {
+            downloads[i] = status(i);
+        }
+        final String json = Json.encode(downloads);
+
+        // Without this the server's small writes wait on delayed ACKs, adding 40 ms to small replies.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        mServer.createContext("/jsonrpc", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Map request = (Map) Json.decode(new String(readFully(exchange.getRequestBody()), UTF_8));
+                try {
+                    Thread.sleep(mLatency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, String.format("{\"jsonrpc\":\"2.0\",\"id\":%s,\"result\":%s}",
+                        Json.encode(request.get("id")), json).getBytes(UTF_8));
+            }
+        });
+        mServer.start();
+        mUrl = String.format("http://127.0.0.1:%d", mServer.getAddress().getPort());
+
+        mDirectory = Files.createTempDirectory("snapshots").toFile();
+        mCache = new SnapshotCache(mDirectory);
+        Aria2 aria2 = new Aria2(mUrl, null, Transport.Protocol.JSON_RPC);
+        aria2.updateList(Aria2.ListType.ACTIVE);
+        mCache.save(mUrl, aria2);
+
+        System.out.printf("%n%d downloads: response %d bytes, snapshot %d bytes%n",
+                mDownloads, json.getBytes(UTF_8).length, mDirectory.listFiles()[0].length());
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop(0);
+        for (File file :
+                mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public DownloadList withoutCache() throws Exception {
+        Aria2 aria2 = new Aria2(mUrl, null, Transport.Protocol.JSON_RPC);
+        aria2.updateList(Aria2.ListType.ACTIVE);
+        return aria2.getList(Aria2.ListType.ACTIVE);
+    }
+
+    @Benchmark
+    public DownloadList withCache() throws Exception {
+        Aria2 aria2 = new Aria2(mUrl, null, Transport.Protocol.JSON_RPC);
+        mCache.restore(mUrl, aria2);
+        return aria2.getList(Aria2.ListType.ACTIVE);
+    }
+
+    private static Map<String, Object> status(int i) {
+        Map<String, Object> file = new HashMap<>();
+        file.put("index", "1");
+        file.put("path", String.format("/downloads/file%d.iso", i));
+        file.put("length", "5368709120");
+        file.put("completedLength", String.valueOf(i * 1024L));
+        file.put("selected", "true");
+
+        Map<String, Object> status = new HashMap<>();
+        status.put("gid", String.format("%016x", i));
+        status.put("status", "active");
+        status.put("totalLength", "5368709120");
+        status.put("completedLength", String.valueOf(i * 1024L));
+        status.put("downloadSpeed", "1048576");
+        status.put("uploadSpeed", "0");
+        status.put("dir", "/downloads");
+        status.put("files", new Object[] {file});
+        return status;
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json-rpc");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,190 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares fetching the active list over XML-RPC and JSON-RPC from a local fake aria2 that
+ * answers both endpoints with the same downloads. The response sizes are printed at setup, so the
+ * bytes on the wire can be read next to the round trip and decode times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransportBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Param({"10", "100", "1000"})
+    public int mDownloads;
+
+    private HttpServer mServer;
+    private Aria2 mXmlRpc;
+    private Aria2 mJsonRpc;
+
+    @Setup
+    public void setUp() throws IOException {
+        Object[] downloads = new Object[mDownloads];
+        for (int i = 0; i < mDownloads; i++) {
+            downloads[i] = status(i);
+        }
+
+        final byte[] xml = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><params><param>"
+                + toXml(downloads) + "</param></params></methodResponse>").getBytes(UTF_8);
+        final String json = Json.encode(downloads);
+
+        // Without this the server's small writes wait on delayed ACKs, adding 40 ms to small replies.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        mServer.createContext("/rpc", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                readFully(exchange.getRequestBody());
+                respond(exchange, "text/xml", xml);
+            }
+        });
+        mServer.createContext("/jsonrpc", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Map request = (Map) Json.decode(new String(readFully(exchange.getRequestBody()), UTF_8));
+                respond(exchange, "application/json-rpc", String.format("{\"jsonrpc\":\"2.0\",\"id\":%s,\"result\":%s}",
+                        Json.encode(request.get("id")), json).getBytes(UTF_8));
+            }
+        });
+        mServer.start();
+
+        String url = String.format("http://127.0.0.1:%d", mServer.getAddress().getPort());
+        mXmlRpc = new Aria2(url, null, Transport.Protocol.XML_RPC);
+        mJsonRpc = new Aria2(url, null, Transport.Protocol.JSON_RPC);
+
+        System.out.printf("%n%d downloads: XML-RPC response %d bytes, JSON-RPC response %d bytes%n",
+                mDownloads, xml.length, json.getBytes(UTF_8).length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Benchmark
+    public List<Download> xmlRpc() throws Exception {
+        return mXmlRpc.tellActive(null);
+    }
+
+    @Benchmark
+    public List<Download> jsonRpc() throws Exception {
+        return mJsonRpc.tellActive(null);
+    }
+
+    private static Map<String, Object> status(int i) {
+        Map<String, Object> uri = new HashMap<>();
+        uri.put("status", "used");
+        uri.put("uri", String.format("http://mirror.example.com/file%d.iso", i));
+
+        Map<String, Object> file = new HashMap<>();
+        file.put("index", "1");
+        file.put("path", String.format("/downloads/file%d.iso", i));
+        file.put("length", "5368709120");
+        file.put("completedLength", String.valueOf(i * 1024L));
+        file.put("selected", "true");
+        file.put("uris", new Object[] {uri});
+
+        Map<String, Object> status = new HashMap<>();
+        status.put("gid", String.format("%016x", i));
+        status.put("status", "active");
+        status.put("totalLength", "5368709120");
+        status.put("completedLength", String.valueOf(i * 1024L));
+        status.put("uploadLength", "0");
+        status.put("downloadSpeed", "1048576");
+        status.put("uploadSpeed", "0");
+        status.put("connections", "16");
+        status.put("dir", "/downloads");
+        status.put("files", new Object[] {file});
+        return status;
+    }
+
+    private static String toXml(Object value) {
+        StringBuilder builder = new StringBuilder("<value>");
+        if (value instanceof Map) {
+            builder.append("<struct>");
+            for (Object key :
+                    ((Map) value).keySet()) {
+                builder.append("<member><name>").append(key).append("</name>")
+                        .append(toXml(((Map) value).get(key))).append("</member>");
+            }
+            builder.append("</struct>");
+        } else if (value instanceof Object[]) {
+            builder.append("<array><data>");
+            for (Object element :
+                    (Object[]) value) {
+                builder.append(toXml(element));
+            }
+            builder.append("</data></array>");
+        } else {
+            builder.append("<string>").append(value).append("</string>");
+        }
+        return builder.append("</value>").toString();
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return buffer.toByteArray();
+    }
+}
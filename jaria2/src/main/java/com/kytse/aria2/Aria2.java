@@ -16,44 +16,225 @@
 package com.kytse.aria2;
 
 import org.apache.xmlrpc.XmlRpcException;
-import org.apache.xmlrpc.client.XmlRpcClient;
-import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Aria2 {
 
     public enum ListType {ACTIVE, WAITING, STOPPED}
 
-    private final XmlRpcClient mClient;
+    // aria2 clamps the requested range to the list size, so this asks for the whole list
+    // without having to read numWaiting/numStopped first.
+    private static final int LIST_ALL = Integer.MAX_VALUE;
+
+    // Calls per system.multicall in the batch actions, so one request stays a manageable size.
+    public static final int BATCH_SIZE = 100;
+
+    // A paged stopped list is read in whole pages, with a page to spare either side of the rows
+    // on screen.
+    public static final int STOPPED_PAGE_SIZE = 25;
+
+    // Downloads whose files are kept by getFiles; they are read one detail view at a time.
+    private static final int FILES_CACHE_SIZE = 8;
+
+    /**
+     * Positions of the stopped list, counted from the newest download.
+     */
+    private static final class StoppedWindow {
+
+        private final int mOffset;
+        private final int mCount;
+
+        StoppedWindow(int offset, int count) {
+            mOffset = offset;
+            mCount = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StoppedWindow &&
+                    mOffset == ((StoppedWindow) o).mOffset && mCount == ((StoppedWindow) o).mCount;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mOffset + mCount;
+        }
+    }
+
+    /**
+     * Files read by {@link #getFiles(String)}, with the status their download had then.
+     */
+    private static final class CachedFiles {
+
+        private final Download.Status mStatus;
+        private final List<File> mFiles;
+
+        CachedFiles(Download.Status status, List<File> files) {
+            mStatus = status;
+            mFiles = files;
+        }
+    }
+
+    private final HttpConnectionPool mConnectionPool;
+    private final CoalescingTransport mTransport;
+
+    private final URI mWebSocketUri;
+    private WebSocketTransport mWebSocketTransport;
+    private ExecutorService mNotificationExecutor;
 
     private String mSecret;
 
-    private List<Download> mActiveList;
-    private List<Download> mWaitingList;
-    private List<Download> mStoppedList;
+    private volatile Set<Download.Field> mListFields;
+
+    // The part of the stopped list that is read, or null to read all of it.
+    private volatile StoppedWindow mStoppedWindow;
+
+    // The current version of each list. Replaced, never modified, by synchroniseList, so
+    // readers need no lock.
+    private final Map<ListType, AtomicReference<DownloadList>> mLists = new EnumMap<>(ListType.class);
+
+    // The status changes shown ahead of aria2, by GID. Guarded by this, like the lists' writes.
+    private final Map<Long, StatusTransition> mTransitions = new HashMap<>();
 
-    private List<OnAria2ListUpdatedListener> mListenerList;
+    // The files of the downloads last looked at, by GID, least recently read first. Guarded by
+    // this.
+    private final Map<Long, CachedFiles> mFiles = new LinkedHashMap<Long, CachedFiles>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CachedFiles> eldest) {
+            return size() > FILES_CACHE_SIZE;
+        }
+    };
+
+    // Copied on write, so listeners can be added and removed while an update is being reported.
+    private final List<OnAria2ListUpdatedListener> mListenerList = new CopyOnWriteArrayList<>();
+
+    private Aria2Async mAsync;
+    private Aria2Poller mPoller;
 
     protected Aria2(String url, String secret) throws MalformedURLException {
-        XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
-        config.setServerURL(new URL(String.format("%s/rpc", url)));
-        mClient = new XmlRpcClient();
-        mClient.setConfig(config);
+        this(url, secret, Transport.Protocol.XML_RPC);
+    }
 
-        mActiveList = new ArrayList<>();
-        mWaitingList = new ArrayList<>();
-        mStoppedList = new ArrayList<>();
+    protected Aria2(String url, String secret, Transport.Protocol protocol) throws MalformedURLException {
+        mConnectionPool = new HttpConnectionPool(new URL(url));
+        Transport transport;
+        switch (protocol) {
+            case JSON_RPC:
+                transport = new JsonRpcHttpTransport(new URL(String.format("%s/jsonrpc", url)), mConnectionPool);
+                break;
+            case XML_RPC:
+            default:
+                transport = new XmlRpcClientTransport(new URL(String.format("%s/rpc", url)), mConnectionPool);
+                break;
+        }
+        mTransport = new CoalescingTransport(transport);
+
+        try {
+            URI uri = new URI(url);
+            String scheme = "https".equalsIgnoreCase(uri.getScheme()) ? "wss" : "ws";
+            mWebSocketUri = new URI(scheme, null, uri.getHost(), uri.getPort(), "/jsonrpc", null, null);
+        } catch (URISyntaxException e) {
+            throw new MalformedURLException(e.getMessage());
+        }
 
-        mListenerList = new ArrayList<>();
+        for (ListType type :
+                ListType.values()) {
+            mLists.put(type, new AtomicReference<>(DownloadList.EMPTY));
+        }
 
         mSecret = secret == null ? null : String.format("token:%s", secret);
     }
 
+    /**
+     * @return the HTTP connections the RPC calls go over, for setting timeouts and reading reuse
+     * statistics
+     */
+    public HttpConnectionPool getConnectionPool() {
+        return mConnectionPool;
+    }
+
+    /**
+     * Keeps the results of a read-only method, such as {@code aria2.getGlobalStat}, for
+     * {@code ttl} milliseconds and answers identical calls from them in the meantime. Off for
+     * every method by default; a {@code ttl} of 0 turns it off again. Identical reads made while
+     * one is in flight are always sent once.
+     *
+     * @throws IllegalArgumentException if {@code method} can change aria2's state
+     */
+    public void setCacheTtl(String method, long ttl) {
+        mTransport.setCacheTtl(method, ttl);
+    }
+
+    /**
+     * @return the non-blocking view of this instance, created on first use
+     */
+    public synchronized Aria2Async getAsync() {
+        if (mAsync == null) {
+            mAsync = new Aria2Async(this);
+        }
+        return mAsync;
+    }
+
+    /**
+     * @return the poller that keeps this instance's lists up to date, created on first use
+     */
+    public synchronized Aria2Poller getPoller() {
+        if (mPoller == null) {
+            mPoller = new Aria2Poller(this);
+        }
+        return mPoller;
+    }
+
+    /**
+     * Stops polling, disconnects the notifications, cancels the asynchronous calls that have not
+     * started and closes the idle connections.
+     */
+    public void close() {
+        synchronized (this) {
+            if (mPoller != null) {
+                mPoller.shutdown();
+                mPoller = null;
+            }
+        }
+        disconnectNotification();
+        synchronized (this) {
+            if (mNotificationExecutor != null) {
+                mNotificationExecutor.shutdown();
+                mNotificationExecutor = null;
+            }
+            if (mAsync != null) {
+                mAsync.shutdown();
+                mAsync = null;
+            }
+        }
+        mConnectionPool.evictAll();
+    }
+
     public void addListener(OnAria2ListUpdatedListener listener) {
         mListenerList.add(listener);
     }
@@ -62,42 +243,315 @@ public class Aria2 {
         mListenerList.remove(listener);
     }
 
-    public List<Download> getList(ListType type) {
-        switch (type) {
-            case ACTIVE:
-                return mActiveList;
-            case WAITING:
-                return mWaitingList;
-            case STOPPED:
-                return mStoppedList;
+    /**
+     * Subscribes to aria2's download events over the WebSocket endpoint. While connected, events
+     * move the affected downloads between the lists, so callers only need to poll for speed and
+     * progress.
+     */
+    public synchronized void connectNotification() throws XmlRpcException {
+        if (isNotificationConnected()) {
+            return;
+        }
+
+        if (mNotificationExecutor == null) {
+            mNotificationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "aria2-notification");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        // Taken here, as close() may shut the executor down while a notification comes in.
+        final ExecutorService executor = mNotificationExecutor;
+        WebSocketTransport transport = new WebSocketTransport(
+                new WebSocketTransport.OnNotificationListener() {
+                    @Override
+                    public void onNotification(String method, final String gid) {
+                        try {
+                            executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        refreshDownload(gid);
+                                    } catch (XmlRpcException ignored) {
+                                        // The download is read again with its list on the
+                                        // next poll.
+                                    }
+                                }
+                            });
+                        } catch (RejectedExecutionException ignored) {
+                            // Closed.
+                        }
+                    }
+
+                    @Override
+                    public void onDisconnected() {
+                    }
+                }, WebSocketTransport.DEFAULT_TIMEOUT);
+        transport.connect(mWebSocketUri);
+        mWebSocketTransport = transport;
+    }
+
+    public synchronized void disconnectNotification() {
+        if (mWebSocketTransport != null) {
+            mWebSocketTransport.close();
+            mWebSocketTransport = null;
+        }
+    }
+
+    public synchronized boolean isNotificationConnected() {
+        return mWebSocketTransport != null && mWebSocketTransport.isConnected();
+    }
+
+    /**
+     * Limits the fields fetched by {@link #updateList(ListType)} and {@link #updateLists(Set)}.
+     *
+     * @param fields the fields the lists are displayed with, or {@code null} for all of them
+     */
+    public void setListFields(Set<Download.Field> fields) {
+        mListFields = fields == null ? null : EnumSet.copyOf(fields);
+    }
+
+    /**
+     * Pages the stopped list: from now on only the downloads around positions {@code first} to
+     * {@code last} are read, newest first, rather than the whole history. The list published is
+     * then a window of the whole list, see {@link DownloadList#getOffset()}.
+     *
+     * @return whether the window moved, so the list is worth refreshing straight away
+     */
+    public boolean setStoppedWindow(int first, int last) {
+        int offset = Math.max(0, first / STOPPED_PAGE_SIZE - 1) * STOPPED_PAGE_SIZE;
+        int end = (Math.max(first, last) / STOPPED_PAGE_SIZE + 2) * STOPPED_PAGE_SIZE;
+        StoppedWindow window = new StoppedWindow(offset, end - offset);
+
+        if (window.equals(mStoppedWindow)) {
+            return false;
         }
+        mStoppedWindow = window;
+        return true;
+    }
+
+    /**
+     * Goes back to reading the whole stopped list, oldest first. The next refresh reports every
+     * position as changed.
+     */
+    public void clearStoppedWindow() {
+        mStoppedWindow = null;
+    }
 
-        return new ArrayList<>();
+    /**
+     * @return the current version of the list; it does not change when the list is refreshed
+     */
+    public DownloadList getList(ListType type) {
+        return mLists.get(type).get();
     }
 
-    public void updateList(ListType type) throws XmlRpcException {
+    /**
+     * Publishes {@code downloads}, as kept by {@link SnapshotCache}, as the first version of the
+     * list of {@code type}, so there is something to show before the first refresh. The refresh
+     * then goes through the usual diff. A list that has been read already is left alone.
+     *
+     * @return whether the list was published
+     */
+    synchronized boolean restoreList(ListType type, List<Download> downloads, int offset, int total) {
+        if (getList(type).getVersion() != DownloadList.EMPTY.getVersion()) {
+            return false;
+        }
+
+        publish(type, new DownloadList(DownloadList.EMPTY.getVersion() + 1, downloads, offset, total),
+                new ChangeSet.Builder().insert(0, total).build());
+        return true;
+    }
+
+    /**
+     * @return whether the list changed
+     */
+    public boolean updateList(ListType type) throws XmlRpcException {
         List<Download> targetList;
         switch (type) {
             case ACTIVE:
-                targetList = this.tellActive();
+                targetList = this.tellActive(mListFields);
                 break;
-            case WAITING: {
-                Map globalStat = this.getGlobalStat();
-                int numWaiting = Integer.parseInt((String) globalStat.get("numWaiting"));
-                targetList = this.tellWaiting(0, numWaiting);
+            case WAITING:
+                targetList = this.tellWaiting(0, LIST_ALL, mListFields);
                 break;
-            }
-            case STOPPED: {
-                Map globalStat = this.getGlobalStat();
-                int numStopped = Integer.parseInt((String) globalStat.get("numStopped"));
-                targetList = this.tellStopped(0, numStopped);
+            case STOPPED:
+                StoppedWindow window = mStoppedWindow;
+                if (window != null) {
+                    return updateStoppedWindow(window);
+                }
+                targetList = this.tellStopped(0, LIST_ALL, mListFields);
                 break;
-            }
             default:
                 targetList = new ArrayList<>();
         }
 
-        this.synchroniseList(type, targetList);
+        return this.synchroniseList(type, targetList);
+    }
+
+    /**
+     * Refreshes the given lists, in a single round trip when there is more than one.
+     *
+     * @return the lists that changed
+     */
+    public Set<ListType> updateLists(Set<ListType> types) throws XmlRpcException {
+        Set<ListType> changed = EnumSet.noneOf(ListType.class);
+        if (types.isEmpty()) {
+            return changed;
+        }
+        if (types.size() == 1) {
+            ListType type = types.iterator().next();
+            if (updateList(type)) {
+                changed.add(type);
+            }
+            return changed;
+        }
+
+        Set<Download.Field> fields = mListFields;
+        StoppedWindow window = types.contains(ListType.STOPPED) ? mStoppedWindow : null;
+        ListType[] order = types.toArray(new ListType[types.size()]);
+        // A paged stopped list needs numStopped too, which is read in the same round trip.
+        String[] methods = new String[window == null ? order.length : order.length + 1];
+        Object[][] params = new Object[methods.length][];
+        for (int i = 0; i < order.length; i++) {
+            switch (order[i]) {
+                case ACTIVE:
+                    methods[i] = "aria2.tellActive";
+                    params[i] = fields == null ? withSecret() : withSecret((Object) keysOf(fields, true));
+                    break;
+                case WAITING:
+                case STOPPED:
+                    methods[i] = order[i] == ListType.WAITING ? "aria2.tellWaiting" : "aria2.tellStopped";
+                    params[i] = order[i] == ListType.STOPPED && window != null ?
+                            stoppedWindowParams(window, fields) :
+                            fields == null ?
+                                    withSecret(Integer.valueOf(0), Integer.valueOf(LIST_ALL)) :
+                                    withSecret(Integer.valueOf(0), Integer.valueOf(LIST_ALL), keysOf(fields, true));
+                    break;
+            }
+        }
+        if (window != null) {
+            methods[order.length] = "aria2.getGlobalStat";
+            params[order.length] = withSecret();
+        }
+
+        Object[] results = multicall(methods, params);
+
+        List<List<Download>> lists = new ArrayList<>(order.length);
+        for (int i = 0; i < order.length; i++) {
+            lists.add(toDownloadList((Object[]) results[i]));
+        }
+        completeNamesOf(lists, fields);
+
+        synchronized (this) {
+            for (int i = 0; i < order.length; i++) {
+                boolean listChanged = order[i] == ListType.STOPPED && window != null ?
+                        this.synchroniseStoppedWindow(window, numStoppedOf(results[order.length]), lists.get(i)) :
+                        this.synchroniseList(order[i], lists.get(i));
+                if (listChanged) {
+                    changed.add(order[i]);
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Reads the downloads in {@code window} of the stopped list, and how many there are in all.
+     */
+    private boolean updateStoppedWindow(StoppedWindow window) throws XmlRpcException {
+        Set<Download.Field> fields = mListFields;
+        Object[] results = multicall(
+                new String[] {"aria2.getGlobalStat", "aria2.tellStopped"},
+                new Object[][] {withSecret(), stoppedWindowParams(window, fields)});
+
+        List<Download> list = completeNames(toDownloadList((Object[]) results[1]), fields);
+        return synchroniseStoppedWindow(window, numStoppedOf(results[0]), list);
+    }
+
+    /**
+     * A negative offset counts from the newest download, and has aria2 list them newest first.
+     */
+    private Object[] stoppedWindowParams(StoppedWindow window, Set<Download.Field> fields) {
+        Integer offset = Integer.valueOf(-1 - window.mOffset);
+        Integer count = Integer.valueOf(window.mCount);
+        return fields == null ? withSecret(offset, count) : withSecret(offset, count, keysOf(fields, true));
+    }
+
+    private static int numStoppedOf(Object globalStat) {
+        return Integer.parseInt(String.valueOf(((Map) globalStat).get("numStopped")));
+    }
+
+    private void refreshDownload(String gid) throws XmlRpcException {
+        WebSocketTransport transport;
+        synchronized (this) {
+            transport = mWebSocketTransport;
+        }
+        if (transport == null) {
+            return;
+        }
+
+        // Fetched like the lists are, so a torrent with thousands of files does not bring them all.
+        Set<Download.Field> fields = mListFields;
+        Object[] params = fields == null ? withSecret(gid) : withSecret(gid, keysOf(fields, true));
+
+        List<Download> refreshed = new ArrayList<>(1);
+        refreshed.add(toDownload(transport.execute("aria2.tellStatus", params)));
+        Download download = completeNames(refreshed, fields).get(0);
+        if (download.getStatus() == null) {
+            // A status this client does not know of; where it belongs is left to the next poll.
+            return;
+        }
+        long id = download.getGID();
+        ListType targetType = listTypeOf(download.getStatus());
+
+        boolean paged = mStoppedWindow != null;
+        synchronized (this) {
+            for (ListType type :
+                    ListType.values()) {
+                DownloadList list = getList(type);
+                boolean listed = list.contains(id);
+                if (type != targetType && !listed || type == targetType && type == ListType.WAITING) {
+                    continue;
+                }
+                if (type == ListType.STOPPED && paged) {
+                    continue;
+                }
+
+                List<Download> targetList = new ArrayList<>(list);
+                if (type != targetType) {
+                    targetList.remove(list.find(id));
+                } else if (!listed) {
+                    targetList.add(download);
+                } else {
+                    targetList.set(targetList.indexOf(list.find(id)), download);
+                }
+
+                this.synchroniseList(type, targetList);
+            }
+        }
+
+        // The queue position of a waiting download is only known to tellWaiting, and a paged
+        // stopped list has to be read again for its positions to be right.
+        if (targetType == ListType.WAITING || targetType == ListType.STOPPED && paged) {
+            updateList(targetType);
+        }
+    }
+
+    private static ListType listTypeOf(Download.Status status) {
+        switch (status) {
+            case ACTIVE:
+                return ListType.ACTIVE;
+            case WAITING:
+            case PAUSED:
+                return ListType.WAITING;
+            default:
+                return ListType.STOPPED;
+        }
     }
 
     public String addUri(String uri) throws XmlRpcException {
@@ -110,43 +564,71 @@ public class Aria2 {
             params = new Object[] {uris};
         }
 
-        return (String) mClient.execute("aria2.addUri", params);
+        return (String) mTransport.execute("aria2.addUri", params);
     }
 
-    public String remove(String gid) throws XmlRpcException {
-        Object[] params;
-
-        if (mSecret != null) {
-            params = new Object[] {mSecret, gid};
-        } else {
-            params = new Object[] {gid};
+    /**
+     * Adds a download for each of {@code uris} in one {@code system.multicall}, and returns the
+     * GID of each, or an {@link XmlRpcException} in place of each one that was refused.
+     */
+    Object[] addUris(List<String> uris) throws XmlRpcException {
+        String[] methods = new String[uris.size()];
+        Object[][] params = new Object[uris.size()][];
+        for (int i = 0; i < uris.size(); i++) {
+            methods[i] = "aria2.addUri";
+            params[i] = withSecret((Object) new Object[] {uris.get(i)});
         }
 
-        return (String) mClient.execute("aria2.remove", params);
+        return multicallResults(methods, params);
     }
 
-    public String forceRemove(String gid) throws XmlRpcException {
-        Object[] params;
+    /**
+     * Adds the download described by a .torrent file of {@code length} bytes, read from
+     * {@code torrent} while the request is sent rather than beforehand. aria2 refuses requests
+     * larger than its {@code --rpc-max-request-size}, 2 MB by default.
+     *
+     * @return the GID of the new download
+     */
+    public String addTorrent(InputStream torrent, long length) throws XmlRpcException {
+        return (String) mTransport.execute("aria2.addTorrent", withSecret(new Upload(torrent, length)));
+    }
 
-        if (mSecret != null) {
-            params = new Object[] {mSecret, gid};
-        } else {
-            params = new Object[] {gid};
+    public String addTorrent(byte[] torrent) throws XmlRpcException {
+        return addTorrent(new ByteArrayInputStream(torrent), torrent.length);
+    }
+
+    /**
+     * Adds the downloads described by a Metalink file of {@code length} bytes, read from
+     * {@code metalink} while the request is sent, as for {@link #addTorrent(InputStream, long)}.
+     *
+     * @return the GIDs of the new downloads
+     */
+    public List<String> addMetalink(InputStream metalink, long length) throws XmlRpcException {
+        Object[] gids = (Object[]) mTransport.execute("aria2.addMetalink",
+                withSecret(new Upload(metalink, length)));
+
+        List<String> result = new ArrayList<>(gids.length);
+        for (Object gid :
+                gids) {
+            result.add((String) gid);
         }
+        return result;
+    }
 
-        return (String) mClient.execute("aria2.forceRemove", params);
+    public List<String> addMetalink(byte[] metalink) throws XmlRpcException {
+        return addMetalink(new ByteArrayInputStream(metalink), metalink.length);
     }
 
-    public String pause(String gid) throws XmlRpcException {
-        Object[] params;
+    public String remove(String gid) throws XmlRpcException {
+        return transition("aria2.remove", gid);
+    }
 
-        if (mSecret != null) {
-            params = new Object[] {mSecret, gid};
-        } else {
-            params = new Object[] {gid};
-        }
+    public String forceRemove(String gid) throws XmlRpcException {
+        return transition("aria2.forceRemove", gid);
+    }
 
-        return (String) mClient.execute("aria2.pause", params);
+    public String pause(String gid) throws XmlRpcException {
+        return transition("aria2.pause", gid);
     }
 
     public void pauseAll() throws XmlRpcException {
@@ -158,19 +640,11 @@ public class Aria2 {
             params = new Object[] {};
         }
 
-        mClient.execute("aria2.pauseAll", params);
+        mTransport.execute("aria2.pauseAll", params);
     }
 
     public String forcePause(String gid) throws XmlRpcException {
-        Object[] params;
-
-        if (mSecret != null) {
-            params = new Object[] {mSecret, gid};
-        } else {
-            params = new Object[] {gid};
-        }
-
-        return (String) mClient.execute("aria2.forcePause", params);
+        return transition("aria2.forcePause", gid);
     }
 
     public void forcePauseAll() throws XmlRpcException {
@@ -182,19 +656,11 @@ public class Aria2 {
             params = new Object[] {};
         }
 
-        mClient.execute("aria2.forcePauseAll", params);
+        mTransport.execute("aria2.forcePauseAll", params);
     }
 
     public String unpause(String gid) throws XmlRpcException {
-        Object[] params;
-
-        if (mSecret != null) {
-            params = new Object[] {mSecret, gid};
-        } else {
-            params = new Object[] {gid};
-        }
-
-        return (String) mClient.execute("aria2.unpause", params);
+        return transition("aria2.unpause", gid);
     }
 
     public void unpauseAll() throws XmlRpcException {
@@ -206,84 +672,496 @@ public class Aria2 {
             params = new Object[] {};
         }
 
-        mClient.execute("aria2.unpauseAll", params);
+        mTransport.execute("aria2.unpauseAll", params);
     }
 
-    public Download tellStatus(String gid) throws XmlRpcException {
-        Object[] params;
+    /**
+     * Sends a command that changes the status of {@code gid}. The lists show the new status
+     * straight away, with the download marked as changing, until a list read after aria2 accepted
+     * the command confirms it; if aria2 refuses it, the old status is shown again. The same
+     * command sent again while the first is on its way is not sent, and succeeds.
+     */
+    private String transition(String method, String gid) throws XmlRpcException {
+        StatusTransition transition = beginTransition(method, gid);
+        if (transition == StatusTransition.REPEATED) {
+            return gid;
+        }
 
-        if (mSecret != null) {
-            params = new Object[] {mSecret, gid};
-        } else {
-            params = new Object[] {gid};
+        boolean accepted = false;
+        try {
+            String result = (String) mTransport.execute(method, withSecret(gid));
+            accepted = true;
+            return result;
+        } finally {
+            endTransition(transition, accepted);
+        }
+    }
+
+    /**
+     * Shows the status {@code method} will take {@code gid} to in the lists, marked as changing.
+     *
+     * @return the transition to end once aria2 has answered, {@code null} if nothing is shown, or
+     * {@link StatusTransition#REPEATED} if the same change is already on its way
+     */
+    private synchronized StatusTransition beginTransition(String method, String gid) {
+        long id;
+        try {
+            id = Gid.parse(gid);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        long now = StatusTransition.now();
+        StatusTransition pending = mTransitions.get(id);
+        if (pending != null && pending.isExpired(now)) {
+            mTransitions.remove(id);
+            pending = null;
+        }
+        if (pending != null && StatusTransition.targetOf(method, pending.mFrom) == pending.mTo) {
+            return StatusTransition.REPEATED;
+        }
+
+        for (ListType type :
+                ListType.values()) {
+            DownloadList list = getList(type);
+            Download download = list.find(id);
+            if (download == null) {
+                continue;
+            }
+
+            Download.Status to = StatusTransition.targetOf(method, download.getStatus());
+            if (to == null) {
+                return null;
+            }
+
+            // After another change that is still on its way, aria2 last reported the status
+            // that change started from.
+            StatusTransition transition = new StatusTransition(id,
+                    pending == null ? download.getStatus() : pending.mFrom, to, now);
+            mTransitions.put(id, transition);
+            replaceDownload(type, list, download, download.withStatus(to, true));
+            return transition;
         }
 
-        return new Download((Map<String, Object>) mClient.execute("aria2.tellStatus", params));
+        return null;
     }
 
-    private List<Download> tellActive() throws XmlRpcException {
-        Object[] params;
+    /**
+     * Keeps showing the new status until the lists confirm it if aria2 {@code accepted} the
+     * command, or shows the old one again straight away if not.
+     */
+    private synchronized void endTransition(StatusTransition transition, boolean accepted) {
+        if (transition == null || mTransitions.get(transition.mGid) != transition) {
+            return;
+        }
 
-        if (mSecret != null) {
-            params = new Object[] {mSecret};
-        } else {
-            params = new Object[] {};
+        if (accepted) {
+            transition.settle(StatusTransition.now());
+            return;
         }
 
-        Object[] status = (Object[]) mClient.execute("aria2.tellActive", params);
-        List<Download> result = new ArrayList<>(status.length);
-        for (Object object :
-                status) {
-            if (object instanceof Map) {
-                result.add(new Download((Map<String, Object>) object));
+        mTransitions.remove(transition.mGid);
+        for (ListType type :
+                ListType.values()) {
+            DownloadList list = getList(type);
+            Download download = list.find(transition.mGid);
+            if (download != null && download.isChangingStatus()) {
+                replaceDownload(type, list, download, download.withStatus(transition.mFrom, false));
+            }
+        }
+    }
+
+    /**
+     * Publishes the next version of the list with {@code download} replaced.
+     */
+    private void replaceDownload(ListType type, DownloadList list, Download download, Download replacement) {
+        List<Download> downloads = new ArrayList<>(list);
+        int index = downloads.indexOf(download);
+        downloads.set(index, replacement);
+
+        publish(type, new DownloadList(list.getVersion() + 1, downloads, list.getOffset(), list.getTotal()),
+                new ChangeSet.Builder().change(list.getOffset() + index, Download.CHANGED_STATUS).build());
+    }
+
+    /**
+     * Shows the status of each download in {@code targetList}, as read from aria2, that is still
+     * changing as the status it changes to, and ends the transitions that are over.
+     */
+    private List<Download> withTransitions(List<Download> targetList) {
+        if (mTransitions.isEmpty()) {
+            return targetList;
+        }
+
+        long now = StatusTransition.now();
+        List<Download> result = new ArrayList<>(targetList);
+        for (int i = 0; i < result.size(); i++) {
+            Download download = result.get(i);
+            // Downloads already marked as changing are the published ones, not aria2's.
+            StatusTransition transition = download.isChangingStatus() ? null : mTransitions.get(download.getGID());
+            if (transition == null) {
+                continue;
+            }
+
+            if (transition.isOver(download.getStatus(), now)) {
+                mTransitions.remove(download.getGID());
+            } else {
+                result.set(i, download.withStatus(transition.mTo, true));
+            }
+        }
+
+        for (Iterator<StatusTransition> iterator = mTransitions.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
             }
         }
 
         return result;
     }
 
-    private List<Download> tellWaiting(int offset, int num) throws XmlRpcException {
-        Object[] params;
+    /**
+     * Pauses every download in {@code gids}, {@link #BATCH_SIZE} to a round trip.
+     */
+    public BatchResult pause(Collection<String> gids) {
+        return batch("aria2.pause", gids);
+    }
 
-        if (mSecret != null) {
-            params = new Object[] {mSecret, Integer.valueOf(offset), Integer.valueOf(num)};
-        } else {
-            params = new Object[] {Integer.valueOf(offset), Integer.valueOf(num)};
+    public BatchResult forcePause(Collection<String> gids) {
+        return batch("aria2.forcePause", gids);
+    }
+
+    public BatchResult unpause(Collection<String> gids) {
+        return batch("aria2.unpause", gids);
+    }
+
+    public BatchResult remove(Collection<String> gids) {
+        return batch("aria2.remove", gids);
+    }
+
+    public BatchResult forceRemove(Collection<String> gids) {
+        return batch("aria2.forceRemove", gids);
+    }
+
+    /**
+     * Removes completed, errored and removed downloads from the stopped list.
+     */
+    public BatchResult removeDownloadResult(Collection<String> gids) {
+        return batch("aria2.removeDownloadResult", gids);
+    }
+
+    /**
+     * Calls {@code method} on each GID through chunked {@code system.multicall}s. A chunk whose
+     * request fails as a whole fails all of its GIDs, and the remaining chunks are still sent.
+     */
+    private BatchResult batch(String method, Collection<String> gids) {
+        List<String> all = new ArrayList<>(gids);
+
+        // As with a single command, the new statuses are shown straight away, and downloads whose
+        // change is already on its way are left out.
+        StatusTransition[] transitions = new StatusTransition[all.size()];
+        List<Integer> pending = new ArrayList<>(all.size());
+        for (int i = 0; i < all.size(); i++) {
+            transitions[i] = beginTransition(method, all.get(i));
+            if (transitions[i] != StatusTransition.REPEATED) {
+                pending.add(i);
+            }
         }
 
-        Object[] status = (Object[]) mClient.execute("aria2.tellWaiting", params);
-        List<Download> result = new ArrayList<>(status.length);
-        for (Object object :
-                status) {
-            if (object instanceof Map) {
-                result.add(new Download((Map<String, Object>) object));
+        XmlRpcException[] faults = new XmlRpcException[all.size()];
+        for (int start = 0; start < pending.size(); start += BATCH_SIZE) {
+            List<Integer> chunk = pending.subList(start, Math.min(start + BATCH_SIZE, pending.size()));
+            String[] methods = new String[chunk.size()];
+            Object[][] params = new Object[chunk.size()][];
+            for (int i = 0; i < chunk.size(); i++) {
+                methods[i] = method;
+                params[i] = withSecret(all.get(chunk.get(i)));
+            }
+
+            Object[] results;
+            try {
+                results = multicallResults(methods, params);
+            } catch (XmlRpcException e) {
+                for (int index :
+                        chunk) {
+                    faults[index] = e;
+                }
+                continue;
+            }
+
+            for (int i = 0; i < chunk.size(); i++) {
+                if (results[i] instanceof XmlRpcException) {
+                    faults[chunk.get(i)] = (XmlRpcException) results[i];
+                }
+            }
+        }
+
+        BatchResult result = new BatchResult();
+        for (int i = 0; i < all.size(); i++) {
+            endTransition(transitions[i], faults[i] == null);
+            if (faults[i] == null) {
+                result.succeeded(all.get(i));
+            } else {
+                result.failed(all.get(i), faults[i]);
             }
         }
 
         return result;
     }
 
-    private List<Download> tellStopped(int offset, int num) throws XmlRpcException {
-        Object[] params;
+    public Download tellStatus(String gid) throws XmlRpcException {
+        return tellStatus(gid, null);
+    }
 
-        if (mSecret != null) {
-            params = new Object[] {mSecret, Integer.valueOf(offset), Integer.valueOf(num)};
-        } else {
-            params = new Object[] {Integer.valueOf(offset), Integer.valueOf(num)};
+    /**
+     * @param fields the fields to fetch, or {@code null} for all of them
+     */
+    public Download tellStatus(String gid, Set<Download.Field> fields) throws XmlRpcException {
+        Object[] params = fields == null ? withSecret(gid) : withSecret(gid, keysOf(fields, false));
+
+        return toDownload(mTransport.execute("aria2.tellStatus", params));
+    }
+
+    /**
+     * Reads the files of a download, which the lists leave out. They are kept until the status of
+     * the download in the lists changes, so opening the same download again costs no round trip.
+     */
+    public List<File> getFiles(String gid) throws XmlRpcException {
+        long id = Gid.parse(gid);
+        synchronized (this) {
+            CachedFiles cached = mFiles.get(id);
+            if (cached != null) {
+                Download known = findDownload(id);
+                if (known != null && known.getStatus() == cached.mStatus) {
+                    return cached.mFiles;
+                }
+                mFiles.remove(id);
+            }
+        }
+
+        Object[] result = (Object[]) mTransport.execute("aria2.getFiles", withSecret(gid));
+        List<File> files = new ArrayList<>(result.length);
+        for (Object file :
+                result) {
+            files.add(file instanceof File ? (File) file : new File((Map) file));
+        }
+        files = Collections.unmodifiableList(files);
+
+        synchronized (this) {
+            // Only a download the lists know of can be told to have changed status.
+            Download known = findDownload(id);
+            if (known != null) {
+                mFiles.put(id, new CachedFiles(known.getStatus(), files));
+            }
+        }
+        return files;
+    }
+
+    public List<Download> tellActive(Set<Download.Field> fields) throws XmlRpcException {
+        Object[] params = fields == null ? withSecret() : withSecret((Object) keysOf(fields, true));
+
+        Object[] status = (Object[]) mTransport.execute("aria2.tellActive", params);
+        return completeNames(toDownloadList(status), fields);
+    }
+
+    public List<Download> tellWaiting(int offset, int num, Set<Download.Field> fields) throws XmlRpcException {
+        Object[] params = fields == null ?
+                withSecret(Integer.valueOf(offset), Integer.valueOf(num)) :
+                withSecret(Integer.valueOf(offset), Integer.valueOf(num), keysOf(fields, true));
+
+        Object[] status = (Object[]) mTransport.execute("aria2.tellWaiting", params);
+        return completeNames(toDownloadList(status), fields);
+    }
+
+    public List<Download> tellStopped(int offset, int num, Set<Download.Field> fields) throws XmlRpcException {
+        Object[] params = fields == null ?
+                withSecret(Integer.valueOf(offset), Integer.valueOf(num)) :
+                withSecret(Integer.valueOf(offset), Integer.valueOf(num), keysOf(fields, true));
+
+        Object[] status = (Object[]) mTransport.execute("aria2.tellStopped", params);
+        return completeNames(toDownloadList(status), fields);
+    }
+
+    /**
+     * Translates fields into aria2's {@code keys} parameter. gid and status are always included,
+     * as the lists are reconciled by them.
+     *
+     * When {@code deferFiles} is set and only the name is wanted, {@code files} is left out: it
+     * can hold thousands of entries for a torrent, whose name is in {@code bittorrent} anyway.
+     * {@link #completeNames(List, Set)} then fetches files just for downloads that need them.
+     */
+    private static Object[] keysOf(Set<Download.Field> fields, boolean deferFiles) {
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add("gid");
+        keys.add("status");
+        for (Download.Field field :
+                fields) {
+            keys.addAll(Arrays.asList(field.getKeys()));
+        }
+
+        if (deferFiles && fields.contains(Download.Field.NAME) && !fields.contains(Download.Field.FILES)) {
+            keys.remove("files");
         }
 
-        Object[] status = (Object[]) mClient.execute("aria2.tellStopped", params);
+        return keys.toArray();
+    }
+
+    private List<Download> completeNames(List<Download> downloads, Set<Download.Field> fields)
+            throws XmlRpcException {
+        completeNamesOf(Collections.singletonList(downloads), fields);
+        return downloads;
+    }
+
+    /**
+     * Names the downloads of {@code lists} that came without a name, from the lists or else from
+     * their files. The decoded downloads may be shared with other callers by
+     * {@link CoalescingTransport}, so each one named is replaced in its list by a named copy.
+     */
+    private void completeNamesOf(List<List<Download>> lists, Set<Download.Field> fields)
+            throws XmlRpcException {
+        if (fields == null || !fields.contains(Download.Field.NAME) || fields.contains(Download.Field.FILES)) {
+            return;
+        }
+
+        List<List<Download>> unnamedLists = new ArrayList<>();
+        List<Integer> unnamedIndices = new ArrayList<>();
+        synchronized (this) {
+            for (List<Download> downloads :
+                    lists) {
+                for (int i = 0; i < downloads.size(); i++) {
+                    Download download = downloads.get(i);
+                    if (download.hasField(Download.Field.NAME)) {
+                        continue;
+                    }
+
+                    Download known = findDownload(download.getGID());
+                    if (known != null && known.hasField(Download.Field.NAME)) {
+                        downloads.set(i, namedCopy(download, known));
+                    } else {
+                        unnamedLists.add(downloads);
+                        unnamedIndices.add(i);
+                    }
+                }
+            }
+        }
+
+        if (unnamedLists.isEmpty()) {
+            return;
+        }
+
+        String[] methods = new String[unnamedLists.size()];
+        Object[][] params = new Object[unnamedLists.size()][];
+        for (int i = 0; i < unnamedLists.size(); i++) {
+            Download download = unnamedLists.get(i).get(unnamedIndices.get(i));
+            methods[i] = "aria2.tellStatus";
+            params[i] = withSecret(Gid.toString(download.getGID()), new Object[] {"gid", "dir", "files"});
+        }
+
+        Object[] results = multicall(methods, params);
+        for (int i = 0; i < results.length; i++) {
+            Download named = toDownload(results[i]);
+            if (named.hasField(Download.Field.NAME)) {
+                List<Download> downloads = unnamedLists.get(i);
+                int index = unnamedIndices.get(i);
+                downloads.set(index, namedCopy(downloads.get(index), named));
+            }
+        }
+    }
+
+    private static Download namedCopy(Download download, Download named) {
+        Download copy = new Download(download);
+        copy.setNameFrom(named);
+        return copy;
+    }
+
+    private Download findDownload(long gid) {
+        for (ListType type :
+                ListType.values()) {
+            Download download = getList(type).find(gid);
+            if (download != null) {
+                return download;
+            }
+        }
+
+        return null;
+    }
+
+    private List<Download> toDownloadList(Object[] status) {
         List<Download> result = new ArrayList<>(status.length);
         for (Object object :
                 status) {
-            if (object instanceof Map) {
-                result.add(new Download((Map<String, Object>) object));
+            if (object instanceof Download || object instanceof Map) {
+                result.add(toDownload(object));
             }
         }
 
         return result;
     }
 
+    /**
+     * Status responses over XML-RPC are decoded into downloads by {@link DownloadTransportFactory};
+     * other transports hand over aria2's struct.
+     */
+    private static Download toDownload(Object status) {
+        return status instanceof Download ? (Download) status : new Download((Map<String, Object>) status);
+    }
+
+    private Object[] withSecret(Object... params) {
+        if (mSecret == null) {
+            return params;
+        }
+
+        Object[] result = new Object[params.length + 1];
+        result[0] = mSecret;
+        System.arraycopy(params, 0, result, 1, params.length);
+        return result;
+    }
+
+    /**
+     * Sends the calls in one {@code system.multicall} and returns their results in order. A fault
+     * in any of them is rethrown.
+     */
+    private Object[] multicall(String[] methods, Object[][] params) throws XmlRpcException {
+        Object[] results = multicallResults(methods, params);
+        for (Object result :
+                results) {
+            if (result instanceof XmlRpcException) {
+                throw (XmlRpcException) result;
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Sends the calls in one {@code system.multicall} and returns their results in order, with
+     * an {@link XmlRpcException} in place of the result of each call that failed.
+     */
+    private Object[] multicallResults(String[] methods, Object[][] params) throws XmlRpcException {
+        Object[] calls = new Object[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            Map<String, Object> call = new HashMap<>();
+            call.put("methodName", methods[i]);
+            call.put("params", params[i]);
+            calls[i] = call;
+        }
+
+        Object[] responses = (Object[]) mTransport.execute("system.multicall", new Object[] {calls});
+        Object[] results = new Object[responses.length];
+        for (int i = 0; i < responses.length; i++) {
+            if (responses[i] instanceof Map) {
+                // XML-RPC faults have faultCode/faultString, JSON-RPC errors code/message.
+                Map fault = (Map) responses[i];
+                Object code = fault.containsKey("faultCode") ? fault.get("faultCode") : fault.get("code");
+                Object message = fault.containsKey("faultString") ? fault.get("faultString") : fault.get("message");
+                results[i] = new XmlRpcException(code instanceof Number ? ((Number) code).intValue() : 0,
+                        String.valueOf(message));
+            } else {
+                results[i] = ((Object[]) responses[i])[0];
+            }
+        }
+
+        return results;
+    }
+
     public Map getGlobalStat() throws XmlRpcException {
         Object[] params;
 
@@ -293,7 +1171,7 @@ public class Aria2 {
             params = new Object[] {};
         }
 
-        return (Map) mClient.execute("aria2.getGlobalStat", params);
+        return (Map) mTransport.execute("aria2.getGlobalStat", params);
     }
 
     public int changePosition(int pos) throws XmlRpcException {
@@ -305,12 +1183,12 @@ public class Aria2 {
             params = new Object[] {Integer.valueOf(pos), "POS_SET"};
         }
 
-        return Integer.getInteger((String) mClient.execute("aria2.changePosition", params));
+        return Integer.getInteger((String) mTransport.execute("aria2.changePosition", params));
     }
 
     public List<String> listMethod() throws XmlRpcException {
         Object[] params = new Object[] {};
-        Object[] methodArray = (Object[]) mClient.execute("system.listMethods", params);
+        Object[] methodArray = (Object[]) mTransport.execute("system.listMethods", params);
 
         List<String> methodList = new ArrayList<>(methodArray.length);
 
@@ -332,7 +1210,7 @@ public class Aria2 {
 //                params = new Object[] {};
 //        }
 //
-//        Object versionMap = mClient.execute("aria2.getVersion", params);
+//        Object versionMap = mTransport.execute("aria2.getVersion", params);
 //        if (versionMap instanceof HashMap) {
 //            for (Object key :
 //                    ((HashMap) versionMap).keySet()) {
@@ -348,85 +1226,221 @@ public class Aria2 {
 
     public interface OnAria2ListUpdatedListener {
 
-        void onAria2ListItemChanged(ListType type, int position);
-
-        void onAria2ListItemInserted(ListType type, int position);
-
-        void onAria2ListItemRemoved(ListType type, int position);
-
-        void onAria2ListItemMoved(ListType type, int oldPosition, int newPosition);
+        /**
+         * Called for each new version of a list, on the thread that refreshed it.
+         * {@code changeSet} takes the previous version to {@code list}; it is empty when only
+         * fields that are not reported as changes were filled in.
+         */
+        void onAria2ListUpdated(ListType type, DownloadList list, ChangeSet changeSet);
 
     }
 
-    private void synchroniseList(ListType type, List<Download> targetList) {
+    /**
+     * Publishes the next version of the list, made from {@code targetList}. Must be the only
+     * writer of the lists, hence synchronized; readers go through {@link #getList(ListType)}.
+     *
+     * @return whether the list changed
+     */
+    private synchronized boolean synchroniseList(ListType type, List<Download> targetList) {
 
-        List<Download> sourceList;
+        DownloadList sourceList = getList(type);
+        targetList = withTransitions(targetList);
 
-        switch (type) {
-            case ACTIVE:
-                sourceList = this.mActiveList;
-                break;
-            case WAITING:
-                sourceList = this.mWaitingList;
-                break;
-            case STOPPED:
-                sourceList = this.mStoppedList;
-                break;
-            default:
-                return;
+        long[] sourceGIDs = new long[sourceList.size()];
+        for (int i = 0; i < sourceGIDs.length; i++) {
+            sourceGIDs[i] = sourceList.get(i).getGID();
         }
 
-        for (int newPos = 0; newPos < targetList.size(); newPos++) {
-            Download newObj = targetList.get(newPos);
-            int pos = indexOfObjectWithGID(sourceList, newObj.getGID());
+        // A download that changes state while a list is being read could be reported twice.
+        GidIndex seen = new GidIndex(targetList.size());
+        List<Download> targetDownloads = new ArrayList<>(targetList.size());
+        for (Download download :
+                targetList) {
+            if (seen.putIfAbsent(download.getGID(), targetDownloads.size()) == -1) {
+                targetDownloads.add(download);
+            }
+        }
 
-            if (pos == newPos) {
-                sourceList.get(newPos).updateDataFrom(targetList.get(newPos));
+        long[] targetGIDs = new long[targetDownloads.size()];
+        for (int i = 0; i < targetGIDs.length; i++) {
+            targetGIDs[i] = targetDownloads.get(i).getGID();
+        }
 
-                for (OnAria2ListUpdatedListener listener :
-                        mListenerList) {
-                    listener.onAria2ListItemChanged(type, pos);
-                }
-            } else if (pos == -1) {
-                sourceList.add(newPos, newObj);
+        // Positions in a window of a paged list do not line up with the whole list.
+        if (sourceList.size() != sourceList.getTotal()) {
+            ChangeSet.Builder builder = new ChangeSet.Builder();
+            replace(builder, sourceList.getTotal(), targetDownloads.size(), 0, targetDownloads.size());
+            publish(type, new DownloadList(sourceList.getVersion() + 1, targetDownloads), builder.build());
+            return true;
+        }
 
-                for (OnAria2ListUpdatedListener listener :
-                        mListenerList) {
-                    listener.onAria2ListItemInserted(type, newPos);
-                }
+        ListDiff diff = ListDiff.compute(sourceGIDs, targetGIDs);
+
+        List<Download> resultList = new ArrayList<>(targetDownloads.size());
+        int[] changes = new int[targetDownloads.size()];
+        boolean replaced = false;
+        for (int i = 0; i < targetDownloads.size(); i++) {
+            int sourcePosition = diff.getSourcePosition(i);
+            if (sourcePosition == -1) {
+                resultList.add(targetDownloads.get(i));
             } else {
-                Download obj = sourceList.get(pos);
-                sourceList.remove(obj);
-                sourceList.add(newPos, obj);
-                sourceList.get(newPos).updateDataFrom(targetList.get(newPos));
-
-                for (OnAria2ListUpdatedListener listener :
-                        mListenerList) {
-                    listener.onAria2ListItemMoved(type, pos, newPos);
+                // The published download is left as it is, and replaced by an updated copy.
+                Download download = sourceList.get(sourcePosition);
+                Download updated = new Download(download);
+                changes[i] = updated.updateStateFrom(targetDownloads.get(i));
+                if (changes[i] == 0 && updated.hasSameFields(download)) {
+                    resultList.add(download);
+                } else {
+                    resultList.add(updated);
+                    replaced = true;
                 }
             }
-
         }
 
-        for (int i = targetList.size(); i < sourceList.size(); i++) {
-            sourceList.remove(i);
+        ChangeSet.Builder builder = new ChangeSet.Builder();
+        for (ListDiff.Operation operation :
+                diff.getOperations()) {
+            switch (operation.getType()) {
+                case REMOVE:
+                    builder.remove(operation.getPosition());
+                    break;
+                case INSERT:
+                    builder.insert(operation.getPosition());
+                    break;
+                case MOVE:
+                    builder.move(operation.getPosition(), operation.getToPosition());
+                    break;
+            }
+        }
 
-            for (OnAria2ListUpdatedListener listener :
-                    mListenerList) {
-                listener.onAria2ListItemRemoved(type, i);
+        for (int i = 0; i < resultList.size(); i++) {
+            if (changes[i] != 0) {
+                builder.change(i, changes[i]);
             }
         }
 
+        ChangeSet changeSet = builder.build();
+        if (changeSet.isEmpty() && !replaced) {
+            return false;
+        }
+
+        publish(type, new DownloadList(sourceList.getVersion() + 1, resultList), changeSet);
+        return !changeSet.isEmpty();
     }
 
-    private int indexOfObjectWithGID(List<Download> list, String targetGID) {
-        for (int i = 0; i < list.size(); i++) {
-            String gid = list.get(i).getGID();
-            if (targetGID.contentEquals(gid)) {
-                return i;
+    /**
+     * Publishes {@code targetList} as the window of the stopped list it was read for, out of
+     * {@code total}. Positions in the change set are positions in the whole list, and what lies
+     * outside the window is not known, so:
+     * <ul>
+     * <li>if the downloads of the previous window are still there, only further down, that many
+     * new results were added at the top;</li>
+     * <li>otherwise, as after the window moved, every position that is now in the window is
+     * reported changed, and the list grows or shrinks at the end.</li>
+     * </ul>
+     */
+    private synchronized boolean synchroniseStoppedWindow(StoppedWindow window, int total,
+                                                          List<Download> targetList) {
+        DownloadList sourceList = getList(ListType.STOPPED);
+        targetList = withTransitions(targetList);
+
+        List<Download> resultList = new ArrayList<>(targetList.size());
+        int[] changes = new int[targetList.size()];
+        boolean replaced = false;
+        for (int i = 0; i < targetList.size(); i++) {
+            Download download = sourceList.find(targetList.get(i).getGID());
+            if (download == null) {
+                resultList.add(targetList.get(i));
+                replaced = true;
+                continue;
+            }
+
+            Download updated = new Download(download);
+            changes[i] = updated.updateStateFrom(targetList.get(i));
+            if (changes[i] == 0 && updated.hasSameFields(download)) {
+                resultList.add(download);
+            } else {
+                resultList.add(updated);
+                replaced = true;
             }
         }
 
-        return -1;
+        int shift = sourceList.getOffset() == window.mOffset ? shiftOf(sourceList, targetList) : -1;
+
+        ChangeSet.Builder builder = new ChangeSet.Builder();
+        if (shift >= 0) {
+            builder.insert(0, shift);
+            // The oldest results make way for new ones once there are max-download-result of them.
+            int trimmed = sourceList.getTotal() + shift - total;
+            builder.remove(total, trimmed);
+            builder.insert(total + trimmed, -trimmed);
+            // The rows pushed into the window from above it had not been read.
+            if (window.mOffset > 0) {
+                builder.change(window.mOffset, Math.min(shift, resultList.size()), 0);
+            }
+            for (int i = shift; i < resultList.size(); i++) {
+                if (changes[i] != 0) {
+                    builder.change(window.mOffset + i, changes[i]);
+                }
+            }
+        } else {
+            replace(builder, sourceList.getTotal(), total, window.mOffset, resultList.size());
+        }
+
+        ChangeSet changeSet = builder.build();
+        if (changeSet.isEmpty() && !replaced && sourceList.getOffset() == window.mOffset &&
+                sourceList.size() == resultList.size()) {
+            return false;
+        }
+
+        publish(ListType.STOPPED,
+                new DownloadList(sourceList.getVersion() + 1, resultList, window.mOffset, total), changeSet);
+        return !changeSet.isEmpty();
+    }
+
+    /**
+     * Reports the {@code count} positions from {@code offset} on as replaced, in a list that went
+     * from {@code oldTotal} downloads to {@code total}, growing or shrinking at the end.
+     */
+    private static void replace(ChangeSet.Builder builder, int oldTotal, int total, int offset, int count) {
+        int kept = Math.min(oldTotal, total);
+        builder.change(offset, Math.min(count, kept - offset), 0);
+        builder.remove(total, oldTotal - total);
+        builder.insert(kept, total - kept);
+    }
+
+    private void publish(ListType type, DownloadList list, ChangeSet changeSet) {
+        mLists.get(type).set(list);
+
+        for (OnAria2ListUpdatedListener listener :
+                mListenerList) {
+            listener.onAria2ListUpdated(type, list, changeSet);
+        }
+    }
+
+    /**
+     * @return how far down the downloads of {@code sourceList} have moved in {@code targetList},
+     * or -1 if they are not all there in the same order
+     */
+    private static int shiftOf(DownloadList sourceList, List<Download> targetList) {
+        if (sourceList.isEmpty()) {
+            return targetList.isEmpty() ? 0 : -1;
+        }
+
+        long anchor = sourceList.get(0).getGID();
+        int shift = 0;
+        while (shift < targetList.size() && targetList.get(shift).getGID() != anchor) {
+            shift++;
+        }
+        if (shift == targetList.size()) {
+            return -1;
+        }
+
+        for (int i = 0; i < sourceList.size() && shift + i < targetList.size(); i++) {
+            if (sourceList.get(i).getGID() != targetList.get(shift + i).getGID()) {
+                return -1;
+            }
+        }
+        return shift;
     }
 }
@@ -0,0 +1,300 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking access to an {@link Aria2}. Each call is queued on a small executor of its own and
+ * returns an {@link Aria2Future} straight away.
+ *
+ * The executor is bounded in both threads and queue length: calls beyond that fail at once
+ * rather than piling up behind a slow or unreachable server.
+ */
+public class Aria2Async {
+
+    public static final int DEFAULT_THREADS = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    private static final AtomicInteger sThreadCount = new AtomicInteger();
+
+    private final Aria2 mAria2;
+    private final ThreadPoolExecutor mExecutor;
+
+    public Aria2Async(Aria2 aria2) {
+        this(aria2, DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public Aria2Async(Aria2 aria2, int threads, int queueCapacity) {
+        mAria2 = aria2;
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "aria2-io-" + sThreadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public Aria2 getAria2() {
+        return mAria2;
+    }
+
+    /**
+     * Cancels the calls that have not started and lets the running ones finish.
+     */
+    public void shutdown() {
+        for (Runnable runnable :
+                mExecutor.shutdownNow()) {
+            ((Aria2Future) runnable).cancel(false);
+        }
+    }
+
+    public Aria2Future<String> addUri(final String uri) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws XmlRpcException {
+                return mAria2.addUri(uri);
+            }
+        });
+    }
+
+    /**
+     * Imports the URIs read from {@code reader} with a {@link UriImporter}, closing the reader
+     * when done. Cancelling the import with interruption stops the reading. The import keeps
+     * one of the I/O threads busy until it is done, and sends its requests from threads of its own.
+     */
+    public Aria2Future<UriImporter.Progress> importUris(final Reader reader,
+                                                       final UriImporter.Listener listener) {
+        return submit(new Callable<UriImporter.Progress>() {
+            @Override
+            public UriImporter.Progress call() throws IOException, InterruptedException {
+                try {
+                    return new UriImporter(mAria2).importUris(reader, listener);
+                } finally {
+                    reader.close();
+                }
+            }
+        });
+    }
+
+    public Aria2Future<String> addTorrent(final InputStream torrent, final long length) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws XmlRpcException {
+                return mAria2.addTorrent(torrent, length);
+            }
+        });
+    }
+
+    public Aria2Future<List<String>> addMetalink(final InputStream metalink, final long length) {
+        return submit(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws XmlRpcException {
+                return mAria2.addMetalink(metalink, length);
+            }
+        });
+    }
+
+    public Aria2Future<String> remove(final String gid) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws XmlRpcException {
+                return mAria2.remove(gid);
+            }
+        });
+    }
+
+    public Aria2Future<String> forceRemove(final String gid) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws XmlRpcException {
+                return mAria2.forceRemove(gid);
+            }
+        });
+    }
+
+    public Aria2Future<String> pause(final String gid) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws XmlRpcException {
+                return mAria2.pause(gid);
+            }
+        });
+    }
+
+    public Aria2Future<Void> pauseAll() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws XmlRpcException {
+                mAria2.pauseAll();
+                return null;
+            }
+        });
+    }
+
+    public Aria2Future<String> forcePause(final String gid) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws XmlRpcException {
+                return mAria2.forcePause(gid);
+            }
+        });
+    }
+
+    public Aria2Future<Void> forcePauseAll() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws XmlRpcException {
+                mAria2.forcePauseAll();
+                return null;
+            }
+        });
+    }
+
+    public Aria2Future<String> unpause(final String gid) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws XmlRpcException {
+                return mAria2.unpause(gid);
+            }
+        });
+    }
+
+    public Aria2Future<Void> unpauseAll() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws XmlRpcException {
+                mAria2.unpauseAll();
+                return null;
+            }
+        });
+    }
+
+    public Aria2Future<BatchResult> pause(final Collection<String> gids) {
+        return submit(new Callable<BatchResult>() {
+            @Override
+            public BatchResult call() {
+                return mAria2.pause(gids);
+            }
+        });
+    }
+
+    public Aria2Future<BatchResult> unpause(final Collection<String> gids) {
+        return submit(new Callable<BatchResult>() {
+            @Override
+            public BatchResult call() {
+                return mAria2.unpause(gids);
+            }
+        });
+    }
+
+    public Aria2Future<BatchResult> remove(final Collection<String> gids) {
+        return submit(new Callable<BatchResult>() {
+            @Override
+            public BatchResult call() {
+                return mAria2.remove(gids);
+            }
+        });
+    }
+
+    public Aria2Future<BatchResult> forceRemove(final Collection<String> gids) {
+        return submit(new Callable<BatchResult>() {
+            @Override
+            public BatchResult call() {
+                return mAria2.forceRemove(gids);
+            }
+        });
+    }
+
+    public Aria2Future<BatchResult> removeDownloadResult(final Collection<String> gids) {
+        return submit(new Callable<BatchResult>() {
+            @Override
+            public BatchResult call() {
+                return mAria2.removeDownloadResult(gids);
+            }
+        });
+    }
+
+    public Aria2Future<Download> tellStatus(final String gid, final Set<Download.Field> fields) {
+        return submit(new Callable<Download>() {
+            @Override
+            public Download call() throws XmlRpcException {
+                return mAria2.tellStatus(gid, fields);
+            }
+        });
+    }
+
+    public Aria2Future<List<File>> getFiles(final String gid) {
+        return submit(new Callable<List<File>>() {
+            @Override
+            public List<File> call() throws XmlRpcException {
+                return mAria2.getFiles(gid);
+            }
+        });
+    }
+
+    public Aria2Future<List<Download>> tellActive(final Set<Download.Field> fields) {
+        return submit(new Callable<List<Download>>() {
+            @Override
+            public List<Download> call() throws XmlRpcException {
+                return mAria2.tellActive(fields);
+            }
+        });
+    }
+
+    public Aria2Future<Map> getGlobalStat() {
+        return submit(new Callable<Map>() {
+            @Override
+            public Map call() throws XmlRpcException {
+                return mAria2.getGlobalStat();
+            }
+        });
+    }
+
+    public <V> Aria2Future<V> submit(Callable<V> call) {
+        Aria2Future<V> future = new Aria2Future<>(this, call);
+        execute(future);
+        return future;
+    }
+
+    void execute(Aria2Future<?> future) {
+        try {
+            mExecutor.execute(future);
+        } catch (RejectedExecutionException e) {
+            future.setException(new XmlRpcException(mExecutor.isShutdown() ?
+                    "aria2 client has been shut down" : "Too many aria2 calls pending", e));
+        }
+    }
+}
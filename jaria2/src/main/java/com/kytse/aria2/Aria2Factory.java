@@ -28,10 +28,19 @@ public class Aria2Factory {
     }
 
     public static Aria2 getInstance(String url, String secret) throws MalformedURLException {
+        return getInstance(url, secret, Transport.Protocol.XML_RPC);
+    }
+
+    /**
+     * @param protocol the protocol a new instance talks to aria2 with; an existing instance for
+     *                 {@code url} is returned as it is
+     */
+    public static Aria2 getInstance(String url, String secret, Transport.Protocol protocol)
+            throws MalformedURLException {
         Aria2 aria2 = mMap.get(url);
 
         if (aria2 == null) {
-            aria2 = new Aria2(url, secret);
+            aria2 = new Aria2(url, secret, protocol);
             mMap.put(url, aria2);
         }
 
@@ -39,6 +48,10 @@ public class Aria2Factory {
     }
 
     public static void removeInstance(String url) {
-        mMap.remove(url);
+        Aria2 aria2 = mMap.remove(url);
+
+        if (aria2 != null) {
+            aria2.close();
+        }
     }
 }
@@ -0,0 +1,182 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The pending result of a call made through {@link Aria2Async}.
+ *
+ * Besides blocking on {@link #get()}, callers can register a {@link Callback} to be run on an
+ * executor of their choice (the UI thread, say) when the call finishes, and chain a further call
+ * with {@link #then(Continuation)}. Cancelling a call that has not started yet keeps it from
+ * being sent; callbacks are not run for a cancelled call.
+ */
+public class Aria2Future<V> extends FutureTask<V> {
+
+    public interface Callback<V> {
+
+        void onSuccess(V result);
+
+        void onFailure(XmlRpcException e);
+    }
+
+    /**
+     * A step run on the I/O executor with the result of the previous call.
+     */
+    public interface Continuation<V, U> {
+
+        U then(V result) throws XmlRpcException;
+    }
+
+    private final Aria2Async mAsync;
+
+    // Callbacks waiting for the call to finish, or null once they have been dispatched.
+    private List<Runnable> mListeners = new ArrayList<>();
+
+    Aria2Future(Aria2Async async, Callable<V> callable) {
+        super(callable);
+        mAsync = async;
+    }
+
+    /**
+     * Runs {@code callback} on {@code executor} once the call has finished, or straight away if
+     * it already has.
+     */
+    public Aria2Future<V> addCallback(final Callback<? super V> callback, final Executor executor) {
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (isCancelled()) {
+                    return;
+                }
+
+                final V result;
+                try {
+                    result = get();
+                } catch (final ExecutionException e) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onFailure(toXmlRpcException(e.getCause()));
+                        }
+                    });
+                    return;
+                } catch (InterruptedException | CancellationException e) {
+                    return;
+                }
+
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSuccess(result);
+                    }
+                });
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Queues {@code continuation} on the I/O executor once this call has succeeded. A failure of
+     * this call fails the returned future too, and cancelling the returned future cancels this
+     * call if it is still pending.
+     */
+    public <U> Aria2Future<U> then(final Continuation<? super V, U> continuation) {
+        final Aria2Future<V> previous = this;
+        final Aria2Future<U> next = new Aria2Future<U>(mAsync, new Callable<U>() {
+            @Override
+            public U call() throws Exception {
+                return continuation.then(previous.get());
+            }
+        }) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                previous.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (previous.isCancelled()) {
+                    next.cancel(false);
+                    return;
+                }
+
+                try {
+                    previous.get();
+                } catch (ExecutionException e) {
+                    next.setException(e.getCause());
+                    return;
+                } catch (InterruptedException | CancellationException e) {
+                    next.cancel(false);
+                    return;
+                }
+
+                mAsync.execute(next);
+            }
+        });
+        return next;
+    }
+
+    // Overridden to make it reachable from Aria2Async.
+    @Override
+    protected void setException(Throwable t) {
+        super.setException(t);
+    }
+
+    @Override
+    protected void done() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            listeners = mListeners;
+            mListeners = null;
+        }
+
+        for (Runnable listener :
+                listeners) {
+            listener.run();
+        }
+    }
+
+    private void addListener(Runnable listener) {
+        synchronized (this) {
+            if (mListeners != null) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+
+        listener.run();
+    }
+
+    static XmlRpcException toXmlRpcException(Throwable t) {
+        if (t instanceof XmlRpcException) {
+            return (XmlRpcException) t;
+        }
+        return new XmlRpcException(String.valueOf(t.getMessage()), t);
+    }
+}
@@ -0,0 +1,510 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the lists of an {@link Aria2} up to date for as long as something is subscribed to them.
+ *
+ * There is one poller per server, running on a single thread, so however many screens show a
+ * list, each tick sends one request for just the lists that are due. Ticks never overlap: a tick
+ * that overruns delays the next one instead of running alongside it.
+ *
+ * Each list is polled at its own interval:
+ * <ul>
+ * <li>the active list at the shortest interval while anything is transferring;</li>
+ * <li>any list at the shortest interval right after it changed, then at twice the interval each
+ * time it comes back unchanged, up to the longest interval;</li>
+ * <li>only at the longest interval, as a safety net, for lists that notifications keep up to
+ * date;</li>
+ * <li>after a failure, every list backs off exponentially, with jitter, up to the longest
+ * backoff.</li>
+ * </ul>
+ * With nothing subscribed, that is with no list on screen, polling stops altogether. The
+ * interval chosen and why are available from {@link #getMetrics()}.
+ */
+public class Aria2Poller {
+
+    public static final long DEFAULT_INTERVAL = 1000;
+    public static final long DEFAULT_MAX_INTERVAL = 10000;
+    public static final long DEFAULT_MAX_BACKOFF = 60000;
+
+    public enum Reason {
+
+        /** Nothing is subscribed, so nothing is polled. */
+        SUSPENDED,
+
+        /** Something in the active list is downloading or uploading. */
+        TRANSFERRING,
+
+        /** The list changed the last time it was read. */
+        CHANGED,
+
+        /** The list has not changed for a while. */
+        STABLE,
+
+        /** Notifications keep the list up to date. */
+        NOTIFIED,
+
+        /** The last tick failed. */
+        BACKOFF
+    }
+
+    public interface OnPollListener {
+
+        /**
+         * Called on the poller's thread after each tick that refreshed the subscribed list.
+         */
+        void onPolled(Aria2.ListType type);
+
+        /**
+         * Called on the poller's thread when a tick fails after one that succeeded. Polling goes
+         * on, backing off while the failures last.
+         */
+        void onPollFailed(Aria2.ListType type, XmlRpcException e);
+    }
+
+    public final class Subscription {
+
+        private final Aria2.ListType mType;
+        private final OnPollListener mListener;
+
+        private Subscription(Aria2.ListType type, OnPollListener listener) {
+            mType = type;
+            mListener = listener;
+        }
+
+        public Aria2.ListType getType() {
+            return mType;
+        }
+
+        public void cancel() {
+            unsubscribe(this);
+        }
+    }
+
+    /**
+     * What the poller is doing, for tuning the intervals.
+     */
+    public static final class Metrics {
+
+        private final long mInterval;
+        private final Reason mReason;
+        private final Map<Aria2.ListType, Long> mIntervals;
+        private final long mTickCount;
+        private final int mFailureCount;
+
+        private Metrics(long interval, Reason reason, Map<Aria2.ListType, Long> intervals,
+                        long tickCount, int failureCount) {
+            mInterval = interval;
+            mReason = reason;
+            mIntervals = intervals;
+            mTickCount = tickCount;
+            mFailureCount = failureCount;
+        }
+
+        /**
+         * @return the time in milliseconds until the next tick was due when it was scheduled, or
+         * -1 while suspended
+         */
+        public long getInterval() {
+            return mInterval;
+        }
+
+        /**
+         * @return why the next tick is due when it is
+         */
+        public Reason getReason() {
+            return mReason;
+        }
+
+        /**
+         * @return the interval of each subscribed list
+         */
+        public Map<Aria2.ListType, Long> getIntervals() {
+            return mIntervals;
+        }
+
+        public long getTickCount() {
+            return mTickCount;
+        }
+
+        /**
+         * @return the number of ticks that have failed in a row
+         */
+        public int getFailureCount() {
+            return mFailureCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ms (%s), %s, %d ticks, %d failing", mInterval, mReason, mIntervals,
+                    mTickCount, mFailureCount);
+        }
+    }
+
+    private final Aria2 mAria2;
+    private final long mMinInterval;
+    private final long mMaxInterval;
+    private final long mMaxBackoff;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Random mRandom = new Random();
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
+    private final List<Subscription> mSubscriptions = new ArrayList<>();
+
+    // When each subscribed list is next due, its interval, and why. All guarded by this.
+    private final Map<Aria2.ListType, Long> mDue = new EnumMap<>(Aria2.ListType.class);
+    private final Map<Aria2.ListType, Long> mIntervals = new EnumMap<>(Aria2.ListType.class);
+    private final Map<Aria2.ListType, Reason> mReasons = new EnumMap<>(Aria2.ListType.class);
+
+    private ScheduledFuture<?> mTask;
+    private Metrics mMetrics;
+    private long mTickCount;
+    private int mFailureCount;
+
+    // When to try the WebSocket endpoint again after it failed, and how many times in a row it
+    // has. Only touched on the poller's thread.
+    private long mNotificationRetryAt = Long.MIN_VALUE;
+    private int mNotificationFailureCount;
+
+    public Aria2Poller(Aria2 aria2) {
+        this(aria2, DEFAULT_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_MAX_BACKOFF);
+    }
+
+    /**
+     * @param minInterval the interval of lists that are changing, in milliseconds
+     * @param maxInterval the interval that lists which do not change back off to
+     * @param maxBackoff the interval that failures back off to
+     */
+    public Aria2Poller(Aria2 aria2, long minInterval, long maxInterval, long maxBackoff) {
+        mAria2 = aria2;
+        mMinInterval = minInterval;
+        mMaxInterval = maxInterval;
+        mMaxBackoff = maxBackoff;
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "aria2-poll");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.setKeepAliveTime(mMinInterval * 2, TimeUnit.MILLISECONDS);
+        mExecutor.allowCoreThreadTimeOut(true);
+        mExecutor.setRemoveOnCancelPolicy(true);
+        mMetrics = suspendedMetrics();
+    }
+
+    public Aria2 getAria2() {
+        return mAria2;
+    }
+
+    public synchronized Metrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Starts polling {@code type}, with a first refresh straight away.
+     *
+     * @return the handle to cancel when the list is no longer shown
+     */
+    public synchronized Subscription subscribe(Aria2.ListType type, OnPollListener listener) {
+        Subscription subscription = new Subscription(type, listener);
+        mSubscriptions.add(subscription);
+
+        mDue.put(type, now());
+        mIntervals.put(type, mMinInterval);
+        mReasons.put(type, Reason.CHANGED);
+        schedule();
+
+        return subscription;
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        if (!mSubscriptions.remove(subscription)) {
+            return;
+        }
+
+        if (!typesOf(mSubscriptions).contains(subscription.mType)) {
+            mDue.remove(subscription.mType);
+            mIntervals.remove(subscription.mType);
+            mReasons.remove(subscription.mType);
+        }
+
+        if (!mSubscriptions.isEmpty()) {
+            schedule();
+            return;
+        }
+
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+        mFailureCount = 0;
+        mMetrics = suspendedMetrics();
+        if (!mExecutor.isShutdown()) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    stopNotification();
+                }
+            });
+        }
+    }
+
+    /**
+     * Refreshes every subscribed list as soon as the current tick, if any, is over.
+     */
+    public synchronized void refresh() {
+        long now = now();
+        for (Aria2.ListType type :
+                mDue.keySet()) {
+            mDue.put(type, now);
+        }
+        schedule();
+    }
+
+    /**
+     * Stops polling for good; subscriptions made afterwards are ignored.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            mSubscriptions.clear();
+            mDue.clear();
+            mTask = null;
+            mMetrics = suspendedMetrics();
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private void tick() {
+        List<Subscription> subscriptions;
+        Set<Aria2.ListType> types = EnumSet.noneOf(Aria2.ListType.class);
+        // When each list was due as the tick began, to tell whether refresh() moved it since.
+        Map<Aria2.ListType, Long> due = new EnumMap<>(Aria2.ListType.class);
+        synchronized (this) {
+            if (mSubscriptions.isEmpty()) {
+                return;
+            }
+            subscriptions = new ArrayList<>(mSubscriptions);
+
+            long now = now();
+            for (Map.Entry<Aria2.ListType, Long> entry :
+                    mDue.entrySet()) {
+                if (entry.getValue() <= now) {
+                    types.add(entry.getKey());
+                    due.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (types.isEmpty()) {
+                schedule();
+                return;
+            }
+            mTickCount++;
+        }
+
+        if (!mAria2.isNotificationConnected() && now() >= mNotificationRetryAt) {
+            try {
+                mAria2.connectNotification();
+                mNotificationFailureCount = 0;
+            } catch (XmlRpcException | RuntimeException e) {
+                // Every list is polled until the WebSocket endpoint can be reached again.
+                mNotificationRetryAt = now() + backoffAfter(++mNotificationFailureCount);
+            }
+        }
+
+        // Anything thrown out of here would end polling for good, as the executor keeps it in a
+        // future nobody reads; an unexpected reply is a failed poll like any other.
+        Set<Aria2.ListType> changed;
+        try {
+            changed = mAria2.updateLists(types);
+        } catch (XmlRpcException | RuntimeException e) {
+            onPollFailed(subscriptions, Aria2Future.toXmlRpcException(e));
+            return;
+        }
+
+        boolean transferring = isTransferring();
+        boolean notified = mAria2.isNotificationConnected();
+        synchronized (this) {
+            mFailureCount = 0;
+            for (Aria2.ListType type :
+                    types) {
+                if (!mDue.containsKey(type)) {
+                    continue;
+                }
+
+                long interval;
+                Reason reason;
+                if (type == Aria2.ListType.ACTIVE && transferring) {
+                    interval = mMinInterval;
+                    reason = Reason.TRANSFERRING;
+                } else if (notified && type != Aria2.ListType.ACTIVE) {
+                    interval = mMaxInterval;
+                    reason = Reason.NOTIFIED;
+                } else if (changed.contains(type)) {
+                    interval = mMinInterval;
+                    reason = Reason.CHANGED;
+                } else {
+                    interval = Math.min(mMaxInterval, mIntervals.get(type) * 2);
+                    reason = Reason.STABLE;
+                }
+
+                // Counted from when the tick was due rather than when it ran, so a list polled
+                // at a steady interval does not drift; a tick that overran is not caught up on.
+                long next = Math.max(due.get(type) + interval, now());
+                long current = mDue.get(type);
+                // A refresh() made while the tick ran keeps its earlier due time.
+                mDue.put(type, current == due.get(type) ? next : Math.min(current, next));
+                mIntervals.put(type, interval);
+                mReasons.put(type, reason);
+            }
+            schedule();
+        }
+
+        for (Subscription subscription :
+                subscriptions) {
+            if (types.contains(subscription.mType)) {
+                subscription.mListener.onPolled(subscription.mType);
+            }
+        }
+    }
+
+    /**
+     * Backs off every list and tells the listeners, once per run of failures.
+     */
+    private void onPollFailed(List<Subscription> subscriptions, XmlRpcException e) {
+        boolean report;
+        synchronized (this) {
+            report = mFailureCount++ == 0;
+            long backoff = backoffAfter(mFailureCount);
+            for (Aria2.ListType type :
+                    mDue.keySet()) {
+                mDue.put(type, now() + backoff);
+                mReasons.put(type, Reason.BACKOFF);
+            }
+            schedule();
+        }
+
+        if (report) {
+            for (Subscription subscription :
+                    subscriptions) {
+                subscription.mListener.onPollFailed(subscription.mType, e);
+            }
+        }
+    }
+
+    /**
+     * Schedules the next tick for when the first list is due. Must hold the lock.
+     */
+    private void schedule() {
+        if (mSubscriptions.isEmpty() || mExecutor.isShutdown()) {
+            return;
+        }
+
+        Aria2.ListType next = null;
+        for (Aria2.ListType type :
+                mDue.keySet()) {
+            if (next == null || mDue.get(type) < mDue.get(next)) {
+                next = type;
+            }
+        }
+        long delay = Math.max(0, mDue.get(next) - now());
+
+        if (mTask != null) {
+            mTask.cancel(false);
+        }
+        mTask = mExecutor.schedule(mTick, delay, TimeUnit.MILLISECONDS);
+        mMetrics = new Metrics(delay, mReasons.get(next),
+                Collections.unmodifiableMap(new EnumMap<Aria2.ListType, Long>(mIntervals)), mTickCount,
+                mFailureCount);
+    }
+
+    private boolean isTransferring() {
+        for (Download download :
+                mAria2.getList(Aria2.ListType.ACTIVE)) {
+            if (download.getDownloadSpeed() > 0 || download.getUploadSpeed() > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void stopNotification() {
+        synchronized (this) {
+            if (!mSubscriptions.isEmpty()) {
+                return;
+            }
+        }
+
+        mNotificationRetryAt = Long.MIN_VALUE;
+        mNotificationFailureCount = 0;
+        mAria2.disconnectNotification();
+    }
+
+    /**
+     * @return how long to wait after {@code failures} failures in a row
+     */
+    private long backoffAfter(int failures) {
+        return jitter(Math.min(mMaxBackoff, mMinInterval << Math.min(failures, 16)));
+    }
+
+    // Half the backoff plus a random part of the other half, so that clients which failed
+    // together do not all retry together.
+    private long jitter(long backoff) {
+        long half = backoff / 2;
+        return half + (long) (mRandom.nextDouble() * (backoff - half));
+    }
+
+    private Metrics suspendedMetrics() {
+        return new Metrics(-1, Reason.SUSPENDED, Collections.<Aria2.ListType, Long>emptyMap(),
+                mTickCount, mFailureCount);
+    }
+
+    private static Set<Aria2.ListType> typesOf(List<Subscription> subscriptions) {
+        Set<Aria2.ListType> types = EnumSet.noneOf(Aria2.ListType.class);
+        for (Subscription subscription :
+                subscriptions) {
+            types.add(subscription.mType);
+        }
+        return types;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,106 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+final class Base64 {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(US_ASCII);
+
+    // Whole blocks of 3 bytes, so only the last one read can need padding.
+    private static final int STREAM_BLOCK = 3 * 4096;
+
+    private Base64() {
+    }
+
+    static String encode(byte[] data) {
+        byte[] encoded = new byte[(int) encodedLength(data.length)];
+        encode(data, data.length, encoded);
+        return new String(encoded, US_ASCII);
+    }
+
+    static long encodedLength(long length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * Encodes {@code length} bytes read from {@code input} into {@code output} as they are read,
+     * so only a block of each is ever held in memory.
+     *
+     * @throws EOFException if {@code input} ends before {@code length} bytes
+     */
+    static void encode(InputStream input, long length, OutputStream output) throws IOException {
+        byte[] data = new byte[STREAM_BLOCK];
+        byte[] encoded = new byte[(int) encodedLength(STREAM_BLOCK)];
+
+        long remaining = length;
+        while (remaining > 0) {
+            int count = (int) Math.min(data.length, remaining);
+            int read = 0;
+            while (read < count) {
+                int n = input.read(data, read, count - read);
+                if (n == -1) {
+                    throw new EOFException(String.format("Stream ended after %d of %d bytes",
+                            length - remaining + read, length));
+                }
+                read += n;
+            }
+
+            output.write(encoded, 0, encode(data, count, encoded));
+            remaining -= count;
+        }
+    }
+
+    /**
+     * @return the number of bytes written to {@code encoded}
+     */
+    private static int encode(byte[] data, int length, byte[] encoded) {
+        int i = 0;
+        int j = 0;
+        for (; i + 2 < length; i += 3) {
+            int block = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+            encoded[j++] = ALPHABET[block >>> 18 & 0x3f];
+            encoded[j++] = ALPHABET[block >>> 12 & 0x3f];
+            encoded[j++] = ALPHABET[block >>> 6 & 0x3f];
+            encoded[j++] = ALPHABET[block & 0x3f];
+        }
+
+        int remaining = length - i;
+        if (remaining == 1) {
+            int block = (data[i] & 0xff) << 16;
+            encoded[j++] = ALPHABET[block >>> 18 & 0x3f];
+            encoded[j++] = ALPHABET[block >>> 12 & 0x3f];
+            encoded[j++] = '=';
+            encoded[j++] = '=';
+        } else if (remaining == 2) {
+            int block = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8;
+            encoded[j++] = ALPHABET[block >>> 18 & 0x3f];
+            encoded[j++] = ALPHABET[block >>> 12 & 0x3f];
+            encoded[j++] = ALPHABET[block >>> 6 & 0x3f];
+            encoded[j++] = '=';
+        }
+
+        return j;
+    }
+}
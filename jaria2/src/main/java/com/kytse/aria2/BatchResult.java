@@ -0,0 +1,63 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of one action applied to many downloads: which GIDs it succeeded for, and the
+ * fault or error for each of the others.
+ */
+public final class BatchResult {
+
+    private final List<String> mSucceeded = new ArrayList<>();
+    private final Map<String, XmlRpcException> mFailed = new LinkedHashMap<>();
+
+    BatchResult() {
+    }
+
+    void succeeded(String gid) {
+        mSucceeded.add(gid);
+    }
+
+    void failed(String gid, XmlRpcException e) {
+        mFailed.put(gid, e);
+    }
+
+    /**
+     * @return the GIDs the action succeeded for, in the order they were given
+     */
+    public List<String> getSucceeded() {
+        return Collections.unmodifiableList(mSucceeded);
+    }
+
+    /**
+     * @return the GIDs the action failed for, in the order they were given, with why
+     */
+    public Map<String, XmlRpcException> getFailed() {
+        return Collections.unmodifiableMap(mFailed);
+    }
+
+    public boolean isSuccessful() {
+        return mFailed.isEmpty();
+    }
+}
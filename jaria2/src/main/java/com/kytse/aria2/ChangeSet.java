@@ -0,0 +1,192 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All the changes one refresh made to a download list, in the order they have to be applied.
+ *
+ * Adjacent insertions, removals and changes are merged into ranges, so they map directly onto
+ * RecyclerView's notifyItemRange* calls; a merged change range carries the union of its items'
+ * change flags as payload. A change set is immutable and can be handed to another thread.
+ */
+public final class ChangeSet {
+
+    public static final class Change {
+
+        public enum Type {INSERT, REMOVE, MOVE, CHANGE}
+
+        private final Type mType;
+        private final int mPosition;
+        private final int mCount;
+        private final int mToPosition;
+        private final int mPayload;
+
+        private Change(Type type, int position, int count, int toPosition, int payload) {
+            mType = type;
+            mPosition = position;
+            mCount = count;
+            mToPosition = toPosition;
+            mPayload = payload;
+        }
+
+        public Type getType() {
+            return mType;
+        }
+
+        public int getPosition() {
+            return mPosition;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return the position a moved item ends up at; only meaningful for {@link Type#MOVE}
+         */
+        public int getToPosition() {
+            return mToPosition;
+        }
+
+        /**
+         * @return the {@link Download} CHANGED_* flags of the items in the range, combined, or 0
+         * if they may have been replaced by other downloads altogether; only meaningful for
+         * {@link Type#CHANGE}
+         */
+        public int getPayload() {
+            return mPayload;
+        }
+
+        @Override
+        public String toString() {
+            return mType == Type.MOVE ?
+                    String.format("%s(%d->%d)", mType, mPosition, mToPosition) :
+                    String.format("%s(%d+%d)", mType, mPosition, mCount);
+        }
+    }
+
+    private final List<Change> mChanges;
+
+    private ChangeSet(List<Change> changes) {
+        mChanges = Collections.unmodifiableList(changes);
+    }
+
+    public List<Change> getChanges() {
+        return mChanges;
+    }
+
+    public boolean isEmpty() {
+        return mChanges.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return mChanges.toString();
+    }
+
+    static final class Builder {
+
+        private final List<Change> mChanges = new ArrayList<>();
+
+        // The range being extended; flushed when an operation does not continue it.
+        private Change.Type mType;
+        private int mPosition;
+        private int mCount;
+        private int mPayload;
+
+        Builder insert(int position) {
+            if (mType == Change.Type.INSERT && position == mPosition + mCount) {
+                mCount++;
+            } else {
+                start(Change.Type.INSERT, position);
+            }
+            return this;
+        }
+
+        Builder remove(int position) {
+            if (mType == Change.Type.REMOVE && position == mPosition) {
+                mCount++;
+            } else if (mType == Change.Type.REMOVE && position == mPosition - 1) {
+                mPosition--;
+                mCount++;
+            } else {
+                start(Change.Type.REMOVE, position);
+            }
+            return this;
+        }
+
+        Builder change(int position, int payload) {
+            if (mType == Change.Type.CHANGE && position == mPosition + mCount) {
+                mCount++;
+                mPayload |= payload;
+            } else {
+                start(Change.Type.CHANGE, position);
+                mPayload = payload;
+            }
+            return this;
+        }
+
+        Builder insert(int position, int count) {
+            return add(Change.Type.INSERT, position, count, 0);
+        }
+
+        Builder remove(int position, int count) {
+            return add(Change.Type.REMOVE, position, count, 0);
+        }
+
+        Builder change(int position, int count, int payload) {
+            return add(Change.Type.CHANGE, position, count, payload);
+        }
+
+        Builder move(int fromPosition, int toPosition) {
+            flush();
+            mChanges.add(new Change(Change.Type.MOVE, fromPosition, 1, toPosition, 0));
+            return this;
+        }
+
+        private Builder add(Change.Type type, int position, int count, int payload) {
+            flush();
+            if (count > 0) {
+                mChanges.add(new Change(type, position, count, 0, payload));
+            }
+            return this;
+        }
+
+        ChangeSet build() {
+            flush();
+            return new ChangeSet(new ArrayList<>(mChanges));
+        }
+
+        private void start(Change.Type type, int position) {
+            flush();
+            mType = type;
+            mPosition = position;
+            mCount = 1;
+            mPayload = 0;
+        }
+
+        private void flush() {
+            if (mType != null) {
+                mChanges.add(new Change(mType, mPosition, mCount, mPosition, mPayload));
+                mType = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends identical read-only calls that are made at the same time only once: the callers that
+ * come while a call is in flight wait for it and share its result, or its fault. Results of
+ * chosen methods can also be kept for a short time and handed out again.
+ *
+ * Shared results are the same objects for every caller, so they must not be modified. Any call
+ * that is not read-only empties the cache, as it may change what the reads would return.
+ */
+class CoalescingTransport implements Transport {
+
+    private static final Set<String> READ_METHODS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "aria2.tellStatus",
+            "aria2.tellActive",
+            "aria2.tellWaiting",
+            "aria2.tellStopped",
+            "aria2.getUris",
+            "aria2.getFiles",
+            "aria2.getPeers",
+            "aria2.getServers",
+            "aria2.getOption",
+            "aria2.getGlobalOption",
+            "aria2.getGlobalStat",
+            "aria2.getVersion",
+            "aria2.getSessionInfo",
+            "system.listMethods")));
+
+    /**
+     * Compares parameters by value, including the structs and arrays nested in multicalls, which
+     * {@link Arrays#deepEquals(Object[], Object[])} would compare by identity inside a Map.
+     */
+    private static final class Key {
+
+        private final String mMethod;
+        private final Object[] mParams;
+        private final int mHash;
+
+        Key(String method, Object[] params) {
+            mMethod = method;
+            mParams = params.clone();
+            mHash = 31 * method.hashCode() + hashOf(mParams);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return mHash == key.mHash && mMethod.equals(key.mMethod) && equal(mParams, key.mParams);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        private static int hashOf(Object value) {
+            if (value instanceof Object[]) {
+                int hash = 1;
+                for (Object element :
+                        (Object[]) value) {
+                    hash = 31 * hash + hashOf(element);
+                }
+                return hash;
+            } else if (value instanceof Map) {
+                int hash = 0;
+                for (Object entry :
+                        ((Map) value).entrySet()) {
+                    hash += hashOf(((Map.Entry) entry).getKey()) ^ hashOf(((Map.Entry) entry).getValue());
+                }
+                return hash;
+            }
+
+            return value == null ? 0 : value.hashCode();
+        }
+
+        private static boolean equal(Object a, Object b) {
+            if (a instanceof Object[] && b instanceof Object[]) {
+                Object[] arrayA = (Object[]) a;
+                Object[] arrayB = (Object[]) b;
+                if (arrayA.length != arrayB.length) {
+                    return false;
+                }
+                for (int i = 0; i < arrayA.length; i++) {
+                    if (!equal(arrayA[i], arrayB[i])) {
+                        return false;
+                    }
+                }
+                return true;
+            } else if (a instanceof Map && b instanceof Map) {
+                Map mapA = (Map) a;
+                Map mapB = (Map) b;
+                if (mapA.size() != mapB.size()) {
+                    return false;
+                }
+                for (Object key :
+                        mapA.keySet()) {
+                    if (!mapB.containsKey(key) || !equal(mapA.get(key), mapB.get(key))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private static final class CachedResult {
+
+        private final Object mResult;
+        private final long mExpiry;
+
+        CachedResult(Object result, long expiry) {
+            mResult = result;
+            mExpiry = expiry;
+        }
+    }
+
+    private final Transport mTransport;
+
+    private final ConcurrentHashMap<Key, FutureTask<Object>> mInFlight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, CachedResult> mCache = new ConcurrentHashMap<>();
+    private final Map<String, Long> mTtls = new ConcurrentHashMap<>();
+
+    // Bumped by clearCache, so a read that was in flight across it does not cache what it read.
+    private final AtomicLong mGeneration = new AtomicLong();
+
+    private final AtomicLong mSharedCount = new AtomicLong();
+    private final AtomicLong mCacheHitCount = new AtomicLong();
+
+    CoalescingTransport(Transport transport) {
+        mTransport = transport;
+    }
+
+    /**
+     * Keeps the results of {@code method} for {@code ttl} milliseconds, or stops keeping them when
+     * {@code ttl} is 0. Only read-only methods can be cached.
+     */
+    void setCacheTtl(String method, long ttl) {
+        if (!isReadOnly(method, null)) {
+            throw new IllegalArgumentException(String.format("%s is not read-only", method));
+        }
+
+        if (ttl > 0) {
+            mTtls.put(method, ttl);
+        } else {
+            mTtls.remove(method);
+        }
+        clearCache();
+    }
+
+    void clearCache() {
+        mGeneration.incrementAndGet();
+        mCache.clear();
+    }
+
+    /**
+     * @return the number of calls that were answered by a call already in flight
+     */
+    long getSharedCount() {
+        return mSharedCount.get();
+    }
+
+    /**
+     * @return the number of calls that were answered from the cache
+     */
+    long getCacheHitCount() {
+        return mCacheHitCount.get();
+    }
+
+    @Override
+    public Object execute(final String method, final Object[] params) throws XmlRpcException {
+        if (!isReadOnly(method, params)) {
+            try {
+                return mTransport.execute(method, params);
+            } finally {
+                clearCache();
+            }
+        }
+
+        Key key = new Key(method, params);
+        Long ttl = mTtls.get(method);
+
+        if (ttl != null) {
+            CachedResult cached = mCache.get(key);
+            if (cached != null && cached.mExpiry - now() > 0) {
+                mCacheHitCount.incrementAndGet();
+                return cached.mResult;
+            }
+        }
+
+        FutureTask<Object> call = new FutureTask<>(new Callable<Object>() {
+            @Override
+            public Object call() throws XmlRpcException {
+                return mTransport.execute(method, params);
+            }
+        });
+        FutureTask<Object> inFlight = mInFlight.putIfAbsent(key, call);
+
+        if (inFlight == null) {
+            long start = now();
+            long generation = mGeneration.get();
+            try {
+                call.run();
+            } finally {
+                mInFlight.remove(key, call);
+            }
+
+            Object result = resultOf(call);
+            if (ttl != null && mGeneration.get() == generation) {
+                CachedResult cached = new CachedResult(result, start + ttl);
+                mCache.put(key, cached);
+                // A clear may have come between the check and the put.
+                if (mGeneration.get() != generation) {
+                    mCache.remove(key, cached);
+                }
+            }
+            return result;
+        }
+
+        mSharedCount.incrementAndGet();
+        return resultOf(inFlight);
+    }
+
+    private static Object resultOf(FutureTask<Object> call) throws XmlRpcException {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            throw Aria2Future.toXmlRpcException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XmlRpcException("Interrupted while waiting for a shared call", e);
+        }
+    }
+
+    /**
+     * A multicall is read-only when every call in it is.
+     */
+    static boolean isReadOnly(String method, Object[] params) {
+        if (!"system.multicall".equals(method)) {
+            return READ_METHODS.contains(method);
+        }
+
+        if (params == null || params.length != 1 || !(params[0] instanceof Object[])) {
+            return false;
+        }
+
+        for (Object call :
+                (Object[]) params[0]) {
+            Object methodName = call instanceof Map ? ((Map) call).get("methodName") : null;
+            if (!READ_METHODS.contains(methodName)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -16,153 +16,539 @@
 package com.kytse.aria2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class Download {
 
-    public enum Status {ACTIVE, WAITING, PAUSED, ERROR, COMPLETE, REMOVED}
+    public enum Status {
+        ACTIVE("active"),
+        WAITING("waiting"),
+        PAUSED("paused"),
+        ERROR("error"),
+        COMPLETE("complete"),
+        REMOVED("removed");
+
+        private static final Map<String, Status> sStatuses = new HashMap<>();
+
+        static {
+            for (Status status :
+                    values()) {
+                sStatuses.put(status.mKey, status);
+            }
+        }
+
+        private final String mKey;
+
+        Status(String key) {
+            mKey = key;
+        }
+
+        /**
+         * @return the status aria2 reports as {@code key}, or {@code null} if it is unknown
+         */
+        public static Status fromKey(String key) {
+            return key == null ? null : sStatuses.get(key);
+        }
+    }
+
+    // Flags returned by updateDataFrom, grouped by what a list item displays.
+    public static final int CHANGED_STATUS = 1;
+    public static final int CHANGED_PROGRESS = 1 << 1;
+    public static final int CHANGED_SPEED = 1 << 2;
+    public static final int CHANGED_NAME = 1 << 3;
+    public static final int CHANGED_FILES = 1 << 4;
+    public static final int CHANGED_OTHER = 1 << 5;
+
+    /**
+     * The parts of a download's status that can be requested from aria2. Each field lists the
+     * keys of aria2's status struct it is built from.
+     */
+    public enum Field {
+        GID("gid"),
+        STATUS("status"),
+        TOTAL_LENGTH("totalLength"),
+        COMPLETED_LENGTH("completedLength"),
+        UPLOAD_LENGTH("uploadLength"),
+        BITFIELD("bitfield"),
+        DOWNLOAD_SPEED("downloadSpeed"),
+        UPLOAD_SPEED("uploadSpeed"),
+        INFO_HASH("infoHash"),
+        NUM_SEEDERS("numSeeders"),
+        SEEDER("seeder"),
+        PIECE_LENGTH("pieceLength"),
+        NUM_PIECES("numPieces"),
+        CONNECTIONS("connections"),
+        ERROR_CODE("errorCode"),
+        ERROR_MESSAGE("errorMessage"),
+        FOLLOWED_BY("followedBy"),
+        FOLLOWING("following"),
+        BELONGS_TO("belongsTo"),
+        DIR("dir"),
+        FILES("files"),
+        NAME("bittorrent", "files", "dir");
+
+        private static final Map<String, Field> sFields = new HashMap<>();
+
+        static {
+            for (Field field :
+                    values()) {
+                if (field != NAME) {
+                    sFields.put(field.mKeys[0], field);
+                }
+            }
+        }
+
+        private final String[] mKeys;
+
+        Field(String... keys) {
+            mKeys = keys;
+        }
+
+        /**
+         * @return the field built from the status member {@code key} alone, or {@code null}
+         */
+        static Field fromKey(String key) {
+            return sFields.get(key);
+        }
+
+        public String[] getKeys() {
+            return mKeys.clone();
+        }
+    }
 
     private boolean mChangingStatus;
 
-    private String mGID;
+    private final Set<Field> mFields = EnumSet.noneOf(Field.class);
+
+    private long mGID;
     private Status mStatus;
-    private int mTotalLength;
-    private int mCompletedLength;
-    private String mUploadLength;
+    private long mTotalLength;
+    private long mCompletedLength;
+    private long mUploadLength;
     private String mBitfield;
-    private String mDownloadSpeed;
-    private String mUploadSpeed;
+    private long mDownloadSpeed;
+    private long mUploadSpeed;
     private String mInfoHash;
-    private String mNumSeeders;
-    private String mSeeder;
-    private String mPieceLength;
-    private String mNumPieces;
-    private String mConnections;
-    private String mErrorCode;
+    private int mNumSeeders;
+    private boolean mSeeder;
+    private long mPieceLength;
+    private int mNumPieces;
+    private int mConnections;
+    private int mErrorCode;
     private String mErrorMessage;
-    private List<String> mFollowedBy;
-    private String mFollowing;
-    private String mBelongsTo;
+    private long[] mFollowedBy;
+    private long mFollowing;
+    private long mBelongsTo;
     private String mDir;
     private List<File> mFiles;
 
     private String mName;
+    private int mNumFiles;
 
+    /**
+     * Builds a download from aria2's status struct. The struct may have been trimmed with the
+     * {@code keys} parameter; fields that are absent stay unset and {@link #hasField(Field)}
+     * reports them as such.
+     */
     public Download(Map<String, Object> object) {
         if (object instanceof HashMap) {
-            mGID = (String) object.get("gid");
-
-            if (((String) object.get("status")).contentEquals("active")) {
-                mStatus = Status.ACTIVE;
-            } else if (((String) object.get("status")).contentEquals("waiting")) {
-                mStatus = Status.WAITING;
-            } else if (((String) object.get("status")).contentEquals("paused")) {
-                mStatus = Status.PAUSED;
-            } else if (((String) object.get("status")).contentEquals("error")) {
-                mStatus = Status.ERROR;
-            } else if (((String) object.get("status")).contentEquals("complete")) {
-                mStatus = Status.COMPLETE;
-            } else if (((String) object.get("status")).contentEquals("removed")) {
-                mStatus = Status.REMOVED;
+            for (Map.Entry<String, Object> entry :
+                    object.entrySet()) {
+                put(entry.getKey(), entry.getValue());
             }
 
-            mTotalLength = Integer.parseInt((String) object.get("totalLength"));
-            mCompletedLength = Integer.parseInt((String) object.get("completedLength"));
-            mUploadLength = (String) object.get("uploadLength");
-            mBitfield = (String) object.get("bitfield");
-            mDownloadSpeed = (String) object.get("downloadSpeed");
-            mUploadSpeed = (String) object.get("uploadSpeed");
-            mInfoHash = (String) object.get("infoHash");
-            mNumSeeders = (String) object.get("numSeeders");
-            mSeeder = (String) object.get("seeder");
-            mPieceLength = (String) object.get("pieceLength");
-            mNumPieces = (String) object.get("numPieces");
-            mConnections = (String) object.get("connections");
-            mErrorCode = (String) object.get("errorCode");
-            mErrorMessage = (String) object.get("errorMessage");
-
-            Object[] followBy = (Object[]) object.get("followedBy");
-            if (followBy != null) {
-                mFollowedBy = new ArrayList<>(followBy.length);
-                for (Object gid :
-                        followBy) {
-                    mFollowedBy.add((String) gid);
+            completeName(object.get("bittorrent"));
+        }
+    }
+
+    /**
+     * Creates an empty download for {@link DownloadResponseParser} to fill in with
+     * {@link #put(String, Object)} and {@link #completeName(Object)}.
+     */
+    Download() {
+    }
+
+    /**
+     * Rebuilds a download from the fields {@link SnapshotCache} keeps of it.
+     */
+    static Download fromSnapshot(long gid, Status status, long totalLength, long completedLength, String name) {
+        Download download = new Download();
+        download.mGID = gid;
+        download.mTotalLength = totalLength;
+        download.mCompletedLength = completedLength;
+        download.mFields.add(Field.GID);
+        download.mFields.add(Field.TOTAL_LENGTH);
+        download.mFields.add(Field.COMPLETED_LENGTH);
+        if (status != null) {
+            download.mStatus = status;
+            download.mFields.add(Field.STATUS);
+        }
+        if (name != null) {
+            download.mName = name;
+            download.mFields.add(Field.NAME);
+        }
+        return download;
+    }
+
+    /**
+     * Copies every field of {@code download}.
+     */
+    Download(Download download) {
+        mGID = download.mGID;
+        updateDataFrom(download);
+        mChangingStatus = download.mChangingStatus;
+    }
+
+    /**
+     * Sets the field decoded from one member of aria2's status struct. Members that are not
+     * fields of their own, such as {@code bittorrent}, are ignored.
+     */
+    void put(String key, Object value) {
+        Field field = Field.fromKey(key);
+        if (field == null) {
+            return;
+        }
+
+        switch (field) {
+            case GID:
+                mGID = Gid.parse((String) value);
+                break;
+            case STATUS:
+                mStatus = Status.fromKey((String) value);
+                break;
+            case TOTAL_LENGTH:
+                mTotalLength = parseLong(value);
+                break;
+            case COMPLETED_LENGTH:
+                mCompletedLength = parseLong(value);
+                break;
+            case UPLOAD_LENGTH:
+                mUploadLength = parseLong(value);
+                break;
+            case BITFIELD:
+                mBitfield = (String) value;
+                break;
+            case DOWNLOAD_SPEED:
+                mDownloadSpeed = parseLong(value);
+                break;
+            case UPLOAD_SPEED:
+                mUploadSpeed = parseLong(value);
+                break;
+            case INFO_HASH:
+                mInfoHash = (String) value;
+                break;
+            case NUM_SEEDERS:
+                mNumSeeders = (int) parseLong(value);
+                break;
+            case SEEDER:
+                mSeeder = "true".equals(value);
+                break;
+            case PIECE_LENGTH:
+                mPieceLength = parseLong(value);
+                break;
+            case NUM_PIECES:
+                mNumPieces = (int) parseLong(value);
+                break;
+            case CONNECTIONS:
+                mConnections = (int) parseLong(value);
+                break;
+            case ERROR_CODE:
+                mErrorCode = (int) parseLong(value);
+                break;
+            case ERROR_MESSAGE:
+                mErrorMessage = (String) value;
+                break;
+            case FOLLOWED_BY:
+                if (value instanceof Object[]) {
+                    mFollowedBy = new long[((Object[]) value).length];
+                    for (int i = 0; i < mFollowedBy.length; i++) {
+                        mFollowedBy[i] = Gid.parse((String) ((Object[]) value)[i]);
+                    }
                 }
-            }
+                break;
+            case FOLLOWING:
+                mFollowing = Gid.parse((String) value);
+                break;
+            case BELONGS_TO:
+                mBelongsTo = Gid.parse((String) value);
+                break;
+            case DIR:
+                mDir = (String) value;
+                break;
+            case FILES:
+                if (value instanceof Object[]) {
+                    mFiles = new ArrayList<>(((Object[]) value).length);
+                    mNumFiles = ((Object[]) value).length;
+                    for (Object file :
+                            (Object[]) value) {
+                        mFiles.add(file instanceof File ? (File) file : new File((Map) file));
+                    }
+                    mFiles = Collections.unmodifiableList(mFiles);
+                }
+                break;
+            default:
+                return;
+        }
 
-            mFollowing = (String) object.get("following");
-            mBelongsTo = (String) object.get("belongsTo");
-            mDir = (String) object.get("dir");
+        mFields.add(field);
+    }
 
-            Object[] files = (Object[]) object.get("files");
-            if (files != null) {
-                mFiles = new ArrayList<>(files.length);
-                for (Object file :
-                        files) {
-                    mFiles.add(new File((Map) file));
+    /**
+     * Works out the name once all the other members have been put, as it may come from the
+     * files and dir.
+     */
+    void completeName(Object bittorrent) {
+        mName = nameOf(bittorrent, mFiles, mDir);
+        if (mName != null) {
+            mFields.add(Field.NAME);
+        }
+    }
+
+    private static String nameOf(Object bittorrent, List<File> files, String dir) {
+        if (bittorrent instanceof HashMap) {
+            Object info = ((HashMap) bittorrent).get("info");
+            if (info instanceof HashMap) {
+                return (String) ((HashMap) info).get("name");
+            }
+            if (files != null && files.size() == 1) {
+                return files.get(0).getPath();
+            }
+        } else if (files != null) {
+            if (files.size() == 1) {
+                String path = files.get(0).getPath();
+                if (path.contentEquals("[METADATA]") || dir == null || !path.startsWith(dir)) {
+                    return path;
                 }
+                return path.substring(dir.length() + 1);
             }
+            return "Multiple Files";
+        }
+
+        return null;
+    }
+
+    /**
+     * aria2 sends every number as a string; the JSON-RPC decoder may also hand over a Number.
+     */
+    static long parseLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return value == null ? 0 : Long.parseLong((String) value);
+    }
 
-            Object bittorrent = object.get("bittorrent");
-            if (bittorrent instanceof HashMap) {
-                Object info = ((HashMap) bittorrent).get("info");
-                if (info instanceof HashMap) {
-                    mName = (String) ((HashMap) info).get("name");
-                } else {
-                    if (mFiles.size() == 1) {
-                        mName = mFiles.get(0).getPath();
+    /**
+     * Copies the fields that are present in {@code download}; fields it was not built with are
+     * left untouched.
+     *
+     * @return the CHANGED_* flags of the values that differed, or 0 if nothing changed
+     */
+    int updateDataFrom(Download download) {
+
+        int changed = 0;
+
+        for (Field field :
+                download.mFields) {
+            switch (field) {
+                case GID:
+                    break;
+                case STATUS:
+                    if (mStatus != download.getStatus()) {
+                        mStatus = download.getStatus();
+                        changed |= CHANGED_STATUS;
                     }
-                }
-            } else {
-                if (mFiles.size() == 1) {
-                    String path = mFiles.get(0).getPath();
-                    if (path.contentEquals("[METADATA]")) {
-                        mName = path;
-                    } else {
-                        mName = path.substring(mDir.length() + 1);
-                    }
-                } else {
-                    mName = "Multiple Files";
-                }
+                    break;
+                case TOTAL_LENGTH:
+                    if (mTotalLength != download.getTotalLength()) {
+                        mTotalLength = download.getTotalLength();
+                        changed |= CHANGED_PROGRESS;
+                    }
+                    break;
+                case COMPLETED_LENGTH:
+                    if (mCompletedLength != download.getCompletedLength()) {
+                        mCompletedLength = download.getCompletedLength();
+                        changed |= CHANGED_PROGRESS;
+                    }
+                    break;
+                case UPLOAD_LENGTH:
+                    if (mUploadLength != download.getUploadLength()) {
+                        mUploadLength = download.getUploadLength();
+                        changed |= CHANGED_PROGRESS;
+                    }
+                    break;
+                case BITFIELD:
+                    if (!equals(mBitfield, download.getBitfield())) {
+                        mBitfield = download.getBitfield();
+                        changed |= CHANGED_OTHER;
+                    }
+                    break;
+                case DOWNLOAD_SPEED:
+                    if (mDownloadSpeed != download.getDownloadSpeed()) {
+                        mDownloadSpeed = download.getDownloadSpeed();
+                        changed |= CHANGED_SPEED;
+                    }
+                    break;
+                case UPLOAD_SPEED:
+                    if (mUploadSpeed != download.getUploadSpeed()) {
+                        mUploadSpeed = download.getUploadSpeed();
+                        changed |= CHANGED_SPEED;
+                    }
+                    break;
+                case INFO_HASH:
+                    if (!equals(mInfoHash, download.getInfoHash())) {
+                        mInfoHash = download.getInfoHash();
+                        changed |= CHANGED_OTHER;
+                    }
+                    break;
+                case NUM_SEEDERS:
+                    if (mNumSeeders != download.getNumSeeders()) {
+                        mNumSeeders = download.getNumSeeders();
+                        changed |= CHANGED_OTHER;
+                    }
+                    break;
+                case SEEDER:
+                    if (mSeeder != download.isSeeder()) {
+                        mSeeder = download.isSeeder();
+                        changed |= CHANGED_OTHER;
+                    }
+                    break;
+                case PIECE_LENGTH:
+                    if (mPieceLength != download.getPieceLength()) {
+                        mPieceLength = download.getPieceLength();
+                        changed |= CHANGED_OTHER;
+                    }
+                    break;
+                case NUM_PIECES:
+                    if (mNumPieces != download.getNumPieces()) {
+                        mNumPieces = download.getNumPieces();
+                        changed |= CHANGED_OTHER;
+                    }
+                    break;
+                case CONNECTIONS:
+                    if (mConnections != download.getConnections()) {
+                        mConnections = download.getConnections();
+                        changed |= CHANGED_OTHER;
+                    }
+                    break;
+                case ERROR_CODE:
+                    if (mErrorCode != download.getErrorCode()) {
+                        mErrorCode = download.getErrorCode();
+                        changed |= CHANGED_STATUS;
+                    }
+                    break;
+                case ERROR_MESSAGE:
+                    if (!equals(mErrorMessage, download.getErrorMessage())) {
+                        mErrorMessage = download.getErrorMessage();
+                        changed |= CHANGED_STATUS;
+                    }
+                    break;
+                case FOLLOWED_BY:
+                    if (!Arrays.equals(mFollowedBy, download.mFollowedBy)) {
+                        mFollowedBy = download.mFollowedBy;
+                        changed |= CHANGED_OTHER;
+                    }
+                    break;
+                case FOLLOWING:
+                    if (mFollowing != download.getFollowing()) {
+                        mFollowing = download.getFollowing();
+                        changed |= CHANGED_OTHER;
+                    }
+                    break;
+                case BELONGS_TO:
+                    if (mBelongsTo != download.getBelongsTo()) {
+                        mBelongsTo = download.getBelongsTo();
+                        changed |= CHANGED_OTHER;
+                    }
+                    break;
+                case DIR:
+                    if (!equals(mDir, download.getDir())) {
+                        mDir = download.getDir();
+                        changed |= CHANGED_FILES;
+                    }
+                    break;
+                case FILES:
+                    if (!File.sameFiles(mFiles, download.getFiles())) {
+                        changed |= CHANGED_FILES;
+                    }
+                    mFiles = download.getFiles();
+                    mNumFiles = download.mNumFiles;
+                    break;
+                case NAME:
+                    if (!equals(mName, download.getName())) {
+                        mName = download.getName();
+                        changed |= CHANGED_NAME;
+                    }
+                    if (download.mNumFiles != 0) {
+                        mNumFiles = download.mNumFiles;
+                    }
+                    break;
             }
         }
+
+        mFields.addAll(download.mFields);
+
+        return changed;
     }
 
-    public void updateDataFrom(Download download) {
+    /**
+     * Like {@link #updateDataFrom(Download)}, and also takes over whether the status is changing.
+     */
+    int updateStateFrom(Download download) {
+        int changed = updateDataFrom(download);
+        if (mChangingStatus != download.mChangingStatus) {
+            mChangingStatus = download.mChangingStatus;
+            changed |= CHANGED_STATUS;
+        }
+        return changed;
+    }
 
-        mStatus = download.getStatus();
-        mTotalLength = download.getTotalLength();
-        mCompletedLength = download.getCompletedLength();
-        mUploadLength = download.getUploadLength();
-        mBitfield = download.getBitfield();
-        mDownloadSpeed = download.getDownloadSpeed();
-        mUploadSpeed = download.getUploadSpeed();
-        mInfoHash = download.getInfoHash();
-        mNumSeeders = download.getNumSeeders();
-        mSeeder = download.getSeeder();
-        mPieceLength = download.getPieceLength();
-        mNumPieces = download.getNumPieces();
-        mConnections = download.getConnections();
-        mErrorCode = download.getErrorCode();
-        mErrorMessage = download.getErrorCode();
-        mFollowedBy = download.getFollowedBy();
-        mFollowing = download.getFollowing();
-        mBelongsTo = download.getBelongsTo();
-        mDir = download.getDir();
-        mFiles = download.getFiles();
+    /**
+     * @return a copy that shows {@code status}, as one that is changing to it or as one that is in it
+     */
+    Download withStatus(Status status, boolean changingStatus) {
+        Download download = new Download(this);
+        download.mStatus = status;
+        download.mFields.add(Field.STATUS);
+        download.mChangingStatus = changingStatus;
+        return download;
     }
 
-    public boolean isChangingStatus() {
-        return mChangingStatus;
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    boolean hasSameFields(Download download) {
+        return mFields.equals(download.mFields);
     }
 
-    public void setChangingStatus(boolean changingStatus) {
-        mChangingStatus = changingStatus;
+    public boolean hasField(Field field) {
+        return mFields.contains(field);
     }
 
-    public String getGID() {
+    /**
+     * Takes over the name and file count of {@code download}, but not its files, so a list keeps
+     * no {@link File} objects for downloads it only shows the name of.
+     */
+    void setNameFrom(Download download) {
+        mName = download.mName;
+        mNumFiles = download.mNumFiles;
+        mFields.add(Field.NAME);
+    }
+
+    public boolean isChangingStatus() {
+        return mChangingStatus;
+    }
+
+    /**
+     * @return the GID, which {@link Gid#toString(long)} turns back into the form aria2 takes
+     */
+    public long getGID() {
         return mGID;
     }
 
@@ -170,15 +556,15 @@ public class Download {
         return mStatus;
     }
 
-    public int getTotalLength() {
+    public long getTotalLength() {
         return mTotalLength;
     }
 
-    public int getCompletedLength() {
+    public long getCompletedLength() {
         return mCompletedLength;
     }
 
-    public String getUploadLength() {
+    public long getUploadLength() {
         return mUploadLength;
     }
 
@@ -186,11 +572,11 @@ public class Download {
         return mBitfield;
     }
 
-    public String getDownloadSpeed() {
+    public long getDownloadSpeed() {
         return mDownloadSpeed;
     }
 
-    public String getUploadSpeed() {
+    public long getUploadSpeed() {
         return mUploadSpeed;
     }
 
@@ -198,27 +584,27 @@ public class Download {
         return mInfoHash;
     }
 
-    public String getNumSeeders() {
+    public int getNumSeeders() {
         return mNumSeeders;
     }
 
-    public String getSeeder() {
+    public boolean isSeeder() {
         return mSeeder;
     }
 
-    public String getPieceLength() {
+    public long getPieceLength() {
         return mPieceLength;
     }
 
-    public String getNumPieces() {
+    public int getNumPieces() {
         return mNumPieces;
     }
 
-    public String getConnections() {
+    public int getConnections() {
         return mConnections;
     }
 
-    public String getErrorCode() {
+    public int getErrorCode() {
         return mErrorCode;
     }
 
@@ -226,15 +612,21 @@ public class Download {
         return mErrorMessage;
     }
 
-    public List<String> getFollowedBy() {
-        return mFollowedBy;
+    public long[] getFollowedBy() {
+        return mFollowedBy == null ? null : mFollowedBy.clone();
     }
 
-    public String getFollowing() {
+    /**
+     * @return the GID of the download this one follows, or 0 if there is none
+     */
+    public long getFollowing() {
         return mFollowing;
     }
 
-    public String getBelongsTo() {
+    /**
+     * @return the GID of the download this one belongs to, or 0 if there is none
+     */
+    public long getBelongsTo() {
         return mBelongsTo;
     }
 
@@ -242,10 +634,23 @@ public class Download {
         return mDir;
     }
 
+    /**
+     * @return the files, if the download was built with {@link Field#FILES}; lists fetched with
+     * just the name leave them out, see {@link Aria2#getFiles(String)}. The list is read-only, as
+     * the download may be shared between callers
+     */
     public List<File> getFiles() {
         return mFiles;
     }
 
+    /**
+     * @return how many files the download has, or 0 if it was built without them and named from
+     * its torrent
+     */
+    public int getNumFiles() {
+        return mNumFiles;
+    }
+
     public String getName() {
         return mName;
     }
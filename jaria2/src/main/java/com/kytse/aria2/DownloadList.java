@@ -0,0 +1,108 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * One version of a download list. A version never changes once published: a refresh that changes
+ * the list publishes a new version, with new {@link Download} objects for the downloads that
+ * changed, so a reader on any thread sees either all of a refresh or none of it, without locking.
+ *
+ * Versions of a list are numbered consecutively, so a reader can tell whether a
+ * {@link ChangeSet} takes it from the version it holds to the one that came with it.
+ *
+ * A version may hold just a window of a longer list, as the stopped list does when it is paged:
+ * the downloads from {@link #getOffset()} on, out of {@link #getTotal()}. Positions in its change
+ * sets are then positions in the whole list.
+ */
+public final class DownloadList extends AbstractList<Download> implements RandomAccess {
+
+    static final DownloadList EMPTY = new DownloadList(0, Collections.<Download>emptyList());
+
+    private final long mVersion;
+    private final Download[] mDownloads;
+    private final GidIndex mIndex;
+    private final int mOffset;
+    private final int mTotal;
+
+    DownloadList(long version, List<Download> downloads) {
+        this(version, downloads, 0, downloads.size());
+    }
+
+    DownloadList(long version, List<Download> downloads, int offset, int total) {
+        mVersion = version;
+        mOffset = offset;
+        mTotal = total;
+        mDownloads = downloads.toArray(new Download[downloads.size()]);
+        mIndex = new GidIndex(mDownloads.length);
+        for (int i = 0; i < mDownloads.length; i++) {
+            mIndex.putIfAbsent(mDownloads[i].getGID(), i);
+        }
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the position in the whole list of the first download in this window
+     */
+    public int getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * @return the number of downloads in the whole list, of which this window holds {@link #size()}
+     */
+    public int getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * @return the download at {@code position} in the whole list, or {@code null} if it is
+     * outside this window
+     */
+    public Download findAt(int position) {
+        int index = position - mOffset;
+        return index >= 0 && index < mDownloads.length ? mDownloads[index] : null;
+    }
+
+    @Override
+    public Download get(int index) {
+        return mDownloads[index];
+    }
+
+    @Override
+    public int size() {
+        return mDownloads.length;
+    }
+
+    /**
+     * @return the download with {@code gid} in this version, or {@code null} if there is none
+     */
+    public Download find(long gid) {
+        int index = mIndex.get(gid);
+        return index == -1 ? null : mDownloads[index];
+    }
+
+    public boolean contains(long gid) {
+        return mIndex.get(gid) != -1;
+    }
+}
@@ -0,0 +1,432 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes an XML-RPC response as it is read, building {@link Download} and {@link File} objects
+ * straight from the status structs instead of going through a HashMap per struct first. Members
+ * that neither class keeps are skipped without being decoded.
+ *
+ * What is expected where is given by a {@link Shape}; anything else in the response is decoded
+ * into the usual HashMap, Object[], String and Integer values, so faults and unexpected replies
+ * still come out as Apache's parser would give them.
+ */
+final class DownloadResponseParser extends DefaultHandler {
+
+    static final class Shape {
+
+        private enum Kind {ANY, DOWNLOAD, FILE, TORRENT, TORRENT_INFO, ARRAY, CALLS}
+
+        static final Shape ANY = new Shape(Kind.ANY, null, null);
+        static final Shape DOWNLOAD = new Shape(Kind.DOWNLOAD, null, null);
+        static final Shape DOWNLOADS = arrayOf(DOWNLOAD);
+
+        private static final Shape FILES = arrayOf(new Shape(Kind.FILE, null, null));
+        private static final Shape TORRENT = new Shape(Kind.TORRENT, null, null);
+        private static final Shape TORRENT_INFO = new Shape(Kind.TORRENT_INFO, null, null);
+
+        private final Kind mKind;
+        private final Shape mElement;
+        private final Shape[] mCalls;
+
+        private Shape(Kind kind, Shape element, Shape[] calls) {
+            mKind = kind;
+            mElement = element;
+            mCalls = calls;
+        }
+
+        static Shape arrayOf(Shape element) {
+            return new Shape(Kind.ARRAY, element, null);
+        }
+
+        /**
+         * The result of {@code system.multicall}: one single-element array per call, holding a
+         * value of the call's shape, or a fault struct.
+         */
+        static Shape callsOf(Shape[] calls) {
+            return new Shape(Kind.CALLS, null, calls.clone());
+        }
+
+        /**
+         * @return what the response to {@code request} holds, or {@code null} if it has no
+         * downloads in it
+         */
+        static Shape of(XmlRpcRequest request) {
+            if (!"system.multicall".equals(request.getMethodName())) {
+                return of(request.getMethodName());
+            }
+
+            if (request.getParameterCount() != 1 || !(request.getParameter(0) instanceof Object[])) {
+                return null;
+            }
+
+            Object[] calls = (Object[]) request.getParameter(0);
+            Shape[] shapes = new Shape[calls.length];
+            boolean hasDownloads = false;
+            for (int i = 0; i < calls.length; i++) {
+                Object methodName = calls[i] instanceof Map ? ((Map) calls[i]).get("methodName") : null;
+                shapes[i] = methodName instanceof String ? of((String) methodName) : null;
+                if (shapes[i] == null) {
+                    shapes[i] = ANY;
+                } else {
+                    hasDownloads = true;
+                }
+            }
+
+            return hasDownloads ? callsOf(shapes) : null;
+        }
+
+        private static Shape of(String methodName) {
+            switch (methodName) {
+                case "aria2.tellStatus":
+                    return DOWNLOAD;
+                case "aria2.tellActive":
+                case "aria2.tellWaiting":
+                case "aria2.tellStopped":
+                    return DOWNLOADS;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * An array or struct being decoded.
+     */
+    private abstract static class Frame {
+
+        // The name of the struct member whose value is being read.
+        String mMember;
+
+        /**
+         * @return the shape of the next value, or {@code null} to skip it
+         */
+        abstract Shape shapeOf(String member);
+
+        abstract void add(String member, Object value);
+
+        abstract Object finish();
+    }
+
+    private static final class ArrayFrame extends Frame {
+
+        private final Shape mShape;
+        private final List<Object> mValues = new ArrayList<>();
+
+        ArrayFrame(Shape shape) {
+            mShape = shape;
+        }
+
+        @Override
+        Shape shapeOf(String member) {
+            switch (mShape.mKind) {
+                case ARRAY:
+                    return mShape.mElement;
+                case CALLS:
+                    return mValues.size() < mShape.mCalls.length ?
+                            Shape.arrayOf(mShape.mCalls[mValues.size()]) : Shape.ANY;
+                default:
+                    return Shape.ANY;
+            }
+        }
+
+        @Override
+        void add(String member, Object value) {
+            mValues.add(value);
+        }
+
+        @Override
+        Object finish() {
+            return mValues.toArray();
+        }
+    }
+
+    private static final class MapFrame extends Frame {
+
+        private final Shape mShape;
+        private final Map<String, Object> mValues = new HashMap<>();
+
+        MapFrame(Shape shape) {
+            mShape = shape;
+        }
+
+        @Override
+        Shape shapeOf(String member) {
+            switch (mShape.mKind) {
+                case TORRENT:
+                    return "info".equals(member) ? Shape.TORRENT_INFO : null;
+                case TORRENT_INFO:
+                    return "name".equals(member) ? Shape.ANY : null;
+                default:
+                    return Shape.ANY;
+            }
+        }
+
+        @Override
+        void add(String member, Object value) {
+            mValues.put(member, value);
+        }
+
+        @Override
+        Object finish() {
+            return mValues;
+        }
+    }
+
+    private static final class DownloadFrame extends Frame {
+
+        private final Download mDownload = new Download();
+        private Object mBittorrent;
+
+        @Override
+        Shape shapeOf(String member) {
+            switch (member) {
+                case "bittorrent":
+                    return Shape.TORRENT;
+                case "files":
+                    return Shape.FILES;
+                default:
+                    return Download.Field.fromKey(member) != null ? Shape.ANY : null;
+            }
+        }
+
+        @Override
+        void add(String member, Object value) {
+            if ("bittorrent".equals(member)) {
+                mBittorrent = value;
+            } else {
+                mDownload.put(member, value);
+            }
+        }
+
+        @Override
+        Object finish() {
+            mDownload.completeName(mBittorrent);
+            return mDownload;
+        }
+    }
+
+    private static final class FileFrame extends Frame {
+
+        private final File mFile = new File();
+
+        @Override
+        Shape shapeOf(String member) {
+            return File.isKey(member) ? Shape.ANY : null;
+        }
+
+        @Override
+        void add(String member, Object value) {
+            mFile.put(member, value);
+        }
+
+        @Override
+        Object finish() {
+            return mFile;
+        }
+    }
+
+    private Shape mShape;
+
+    private final List<Frame> mFrames = new ArrayList<>();
+    private final StringBuilder mText = new StringBuilder();
+
+    // The innermost value being read, and its scalar type and text if it has them.
+    private Shape mValueShape;
+    private String mType;
+    private String mScalar;
+
+    // Set when an array or struct has just been closed, as the content of the enclosing value.
+    private Object mContainer;
+    private boolean mHasContainer;
+
+    // Depth inside a struct member that is being skipped, or -1 when not skipping.
+    private int mSkipDepth = -1;
+
+    private boolean mFault;
+    private Object mResult;
+
+    DownloadResponseParser(Shape shape) {
+        mShape = shape;
+    }
+
+    /**
+     * @return the decoded result of the call
+     * @throws XmlRpcException if the server returned a fault
+     */
+    Object getResult() throws XmlRpcException {
+        if (mFault) {
+            Map fault = mResult instanceof Map ? (Map) mResult : new HashMap();
+            Object faultCode = fault.get("faultCode");
+            throw new XmlRpcException(faultCode instanceof Number ? ((Number) faultCode).intValue() : 0,
+                    (String) fault.get("faultString"));
+        }
+
+        return mResult;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+            throws SAXException {
+        if (mSkipDepth >= 0) {
+            mSkipDepth++;
+            return;
+        }
+
+        switch (nameOf(localName, qName)) {
+            case "value":
+                mValueShape = mFrames.isEmpty() ? mShape : top().shapeOf(top().mMember);
+                mType = null;
+                mScalar = null;
+                mHasContainer = false;
+                mText.setLength(0);
+                break;
+            case "array":
+                mFrames.add(new ArrayFrame(mValueShape));
+                break;
+            case "struct":
+                mFrames.add(newStructFrame(mValueShape));
+                break;
+            case "name":
+                mText.setLength(0);
+                break;
+            case "fault":
+                mFault = true;
+                mShape = Shape.ANY;
+                break;
+            case "methodResponse":
+            case "params":
+            case "param":
+            case "data":
+            case "member":
+                break;
+            default:
+                mType = nameOf(localName, qName);
+                mText.setLength(0);
+                break;
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (mSkipDepth > 0) {
+            mSkipDepth--;
+            return;
+        } else if (mSkipDepth == 0) {
+            // The </member> of the skipped member.
+            mSkipDepth = -1;
+            return;
+        }
+
+        switch (nameOf(localName, qName)) {
+            case "name":
+                top().mMember = mText.toString();
+                if (top().shapeOf(top().mMember) == null) {
+                    mSkipDepth = 0;
+                }
+                break;
+            case "array":
+            case "struct":
+                Frame frame = mFrames.remove(mFrames.size() - 1);
+                mContainer = frame.finish();
+                mHasContainer = true;
+                break;
+            case "value":
+                Object value = mHasContainer ? mContainer :
+                        scalarOf(mType, mType == null ? mText.toString() : mScalar);
+                mHasContainer = false;
+                mContainer = null;
+                if (mFrames.isEmpty()) {
+                    mResult = value;
+                } else {
+                    top().add(top().mMember, value);
+                }
+                break;
+            case "methodResponse":
+            case "params":
+            case "param":
+            case "data":
+            case "member":
+            case "fault":
+                break;
+            default:
+                mScalar = mText.toString();
+                break;
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (mSkipDepth < 0) {
+            mText.append(ch, start, length);
+        }
+    }
+
+    private Frame top() {
+        return mFrames.get(mFrames.size() - 1);
+    }
+
+    private static Frame newStructFrame(Shape shape) {
+        switch (shape.mKind) {
+            case DOWNLOAD:
+                return new DownloadFrame();
+            case FILE:
+                return new FileFrame();
+            default:
+                return new MapFrame(shape);
+        }
+    }
+
+    private static String nameOf(String localName, String qName) {
+        return localName == null || localName.isEmpty() ? qName : localName;
+    }
+
+    private static Object scalarOf(String type, String text) throws SAXException {
+        if (type == null) {
+            return text;
+        }
+
+        try {
+            switch (type) {
+                case "i4":
+                case "int":
+                    return Integer.valueOf(text.trim());
+                case "boolean":
+                    return "1".equals(text.trim());
+                case "double":
+                    return Double.valueOf(text.trim());
+                case "nil":
+                case "ex:nil":
+                    return null;
+                default:
+                    return text;
+            }
+        } catch (NumberFormatException e) {
+            throw new SAXException(String.format("Invalid %s value: %s", type, text), e);
+        }
+    }
+}
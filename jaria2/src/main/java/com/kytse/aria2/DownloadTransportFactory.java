@@ -0,0 +1,160 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.apache.xmlrpc.client.XmlRpcHttpTransport;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
+import org.apache.xmlrpc.client.XmlRpcTransport;
+import org.apache.xmlrpc.client.XmlRpcTransportFactoryImpl;
+import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes the client send its requests over an {@link HttpConnectionPool} and decode status
+ * responses with {@link DownloadResponseParser}, so lists arrive as {@link Download} objects.
+ * Other responses go through Apache's parser as before.
+ */
+class DownloadTransportFactory extends XmlRpcTransportFactoryImpl {
+
+    private final HttpConnectionPool mPool;
+    private final String mPath;
+
+    DownloadTransportFactory(XmlRpcClient client, HttpConnectionPool pool, String path) {
+        super(client);
+        mPool = pool;
+        mPath = path;
+    }
+
+    @Override
+    public XmlRpcTransport getTransport() {
+        return new Transport(getClient(), mPool, mPath);
+    }
+
+    // A transport is created for each request, so it can hold on to the request being sent.
+    private static class Transport extends XmlRpcHttpTransport {
+
+        private final HttpConnectionPool mPool;
+        private final String mPath;
+        private final Map<String, String> mHeaders = new LinkedHashMap<>();
+
+        private DownloadResponseParser.Shape mShape;
+        private List<Upload> mUploads;
+        private boolean mReadOnly;
+        private HttpConnectionPool.Response mResponse;
+
+        Transport(XmlRpcClient client, HttpConnectionPool pool, String path) {
+            super(client, USER_AGENT);
+            mPool = pool;
+            mPath = path;
+        }
+
+        @Override
+        public Object sendRequest(XmlRpcRequest request) throws XmlRpcException {
+            mShape = DownloadResponseParser.Shape.of(request);
+
+            Object[] params = new Object[request.getParameterCount()];
+            for (int i = 0; i < params.length; i++) {
+                params[i] = request.getParameter(i);
+            }
+            mUploads = Upload.find(params);
+            mReadOnly = CoalescingTransport.isReadOnly(request.getMethodName(), params);
+            return super.sendRequest(request);
+        }
+
+        @Override
+        protected Object readResponse(XmlRpcStreamRequestConfig config, InputStream stream)
+                throws XmlRpcException {
+            if (mShape == null) {
+                return super.readResponse(config, stream);
+            }
+
+            DownloadResponseParser parser = new DownloadResponseParser(mShape);
+            try {
+                XMLReader reader = newXMLReader();
+                reader.setContentHandler(parser);
+                reader.parse(new InputSource(stream));
+            } catch (SAXException e) {
+                throw new XmlRpcClientException("Failed to parse server's response: " + e.getMessage(), e);
+            } catch (IOException e) {
+                throw new XmlRpcClientException("Failed to read server's response: " + e.getMessage(), e);
+            }
+
+            return parser.getResult();
+        }
+
+        @Override
+        protected void setRequestHeader(String header, String value) {
+            // The pool sets the length and asks for gzip itself.
+            if (!"Content-Length".equalsIgnoreCase(header) && !"Accept-Encoding".equalsIgnoreCase(header)) {
+                mHeaders.put(header, value);
+            }
+        }
+
+        @Override
+        protected void writeRequest(ReqWriter writer) throws XmlRpcException, IOException, SAXException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            writer.write(body);
+
+            mResponse = mUploads.isEmpty() ?
+                    mPool.post(mPath, mHeaders, body.toByteArray(), mReadOnly) :
+                    mPool.post(mPath, mHeaders, Upload.splice(body.toByteArray(), mUploads), false);
+            int status = mResponse.getStatus();
+            if (status < 200 || status > 299) {
+                close();
+                throw new XmlRpcHttpTransportException(status, "HTTP server returned unexpected status");
+            }
+        }
+
+        @Override
+        protected InputStream getInputStream() throws XmlRpcException {
+            return mResponse.getBody();
+        }
+
+        @Override
+        protected boolean isResponseGzipCompressed(XmlRpcStreamRequestConfig config) {
+            // Already inflated by the pool.
+            return false;
+        }
+
+        @Override
+        protected void close() throws XmlRpcClientException {
+            if (mResponse == null) {
+                return;
+            }
+
+            try {
+                mResponse.getBody().close();
+            } catch (IOException e) {
+                throw new XmlRpcClientException("Failed to close response", e);
+            } finally {
+                mResponse = null;
+            }
+        }
+    }
+}
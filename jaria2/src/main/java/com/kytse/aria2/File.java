@@ -16,37 +16,111 @@
 package com.kytse.aria2;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class File {
 
-    private String mIndex;
+    private int mIndex;
     private String mPath;
-    private String mLength;
-    private String mCompleteLength;
-    private String mSelected;
+    private long mLength;
+    private long mCompleteLength;
+    private boolean mSelected;
     private Map<String, Object> mUrls;
 
     public File(Map object) {
         if (object instanceof HashMap) {
-            mIndex = (String) object.get("index");
-            mPath = (String) object.get("path");
-            mLength = (String) object.get("length");
-            mCompleteLength = (String) object.get("completedLength");
-            mSelected = (String) object.get("selected");
-
-            Object urls = object.get("urls");
-            if (urls instanceof HashMap) {
-                mUrls = new HashMap<>(((HashMap) urls).size());
-                for (Object key :
-                        ((HashMap) urls).keySet()) {
-                    mUrls.put((String) key, ((HashMap) urls).get(key));
+            for (Object key :
+                    object.keySet()) {
+                put((String) key, object.get(key));
+            }
+        }
+    }
+
+    /**
+     * Creates an empty file for {@link DownloadResponseParser} to fill in with
+     * {@link #put(String, Object)}.
+     */
+    File() {
+    }
+
+    /**
+     * @return whether {@link #put(String, Object)} keeps the member {@code key}
+     */
+    static boolean isKey(String key) {
+        switch (key) {
+            case "index":
+            case "path":
+            case "length":
+            case "completedLength":
+            case "selected":
+            case "urls":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    void put(String key, Object value) {
+        switch (key) {
+            case "index":
+                mIndex = (int) Download.parseLong(value);
+                break;
+            case "path":
+                mPath = (String) value;
+                break;
+            case "length":
+                mLength = Download.parseLong(value);
+                break;
+            case "completedLength":
+                mCompleteLength = Download.parseLong(value);
+                break;
+            case "selected":
+                mSelected = "true".equals(value);
+                break;
+            case "urls":
+                if (value instanceof HashMap) {
+                    mUrls = new HashMap<>(((HashMap) value).size());
+                    for (Object url :
+                            ((HashMap) value).keySet()) {
+                        mUrls.put((String) url, ((HashMap) value).get(url));
+                    }
                 }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Compares the file lists by the values aria2 reports for each file, ignoring their URIs.
+     */
+    static boolean sameFiles(List<File> a, List<File> b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.size() != b.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < a.size(); i++) {
+            File x = a.get(i);
+            File y = b.get(i);
+            if (x.mIndex != y.mIndex || !equals(x.mPath, y.mPath) ||
+                    x.mLength != y.mLength || x.mCompleteLength != y.mCompleteLength ||
+                    x.mSelected != y.mSelected) {
+                return false;
             }
         }
+
+        return true;
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
     }
 
-    public String getIndex() {
+    public int getIndex() {
         return mIndex;
     }
 
@@ -54,15 +128,15 @@ public class File {
         return mPath;
     }
 
-    public String getLength() {
+    public long getLength() {
         return mLength;
     }
 
-    public String getCompleteLength() {
+    public long getCompleteLength() {
         return mCompleteLength;
     }
 
-    public String getSelected() {
+    public boolean isSelected() {
         return mSelected;
     }
 }
\ No newline at end of file
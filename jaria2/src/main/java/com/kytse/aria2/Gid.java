@@ -0,0 +1,80 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2;
+
+/**
+ * Converts GIDs between the 16 hex digits aria2 sends and the 64-bit values they stand for.
+ * Downloads keep their GIDs as longs; strings are only made where a GID goes back to aria2.
+ */
+public final class Gid {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final int LENGTH = 16;
+
+    /**
+     * The first of {@link #RESERVED_COUNT} values that {@link #parse(String)} refuses, so a client
+     * can key things of its own alongside GIDs, such as rows standing in for downloads it has not
+     * read yet. aria2 draws GIDs at random and lands in the range by a 1 in 2^32 chance, or when a
+     * user picks such a GID; the download is then taken as malformed.
+     */
+    public static final long RESERVED_FIRST = Long.MIN_VALUE;
+    public static final long RESERVED_COUNT = 1L << 32;
+
+    private Gid() {
+    }
+
+    /**
+     * @throws NumberFormatException if {@code gid} is not 16 hex digits, or is
+     * {@link #isReserved(long) reserved}
+     */
+    public static long parse(String gid) {
+        if (gid == null || gid.length() != LENGTH) {
+            throw new NumberFormatException(String.format("Invalid GID %s", gid));
+        }
+
+        long value = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            int digit = Character.digit(gid.charAt(i), 16);
+            if (digit < 0) {
+                throw new NumberFormatException(String.format("Invalid GID %s", gid));
+            }
+            value = value << 4 | digit;
+        }
+        if (isReserved(value)) {
+            throw new NumberFormatException(String.format("Reserved GID %s", gid));
+        }
+        return value;
+    }
+
+    /**
+     * @return whether {@code value} is in the range starting at {@link #RESERVED_FIRST}
+     */
+    public static boolean isReserved(long value) {
+        long offset = value - RESERVED_FIRST;
+        return offset >= 0 && offset < RESERVED_COUNT;
+    }
+
+    public static String toString(long gid) {
+        char[] chars = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = DIGITS[(int) gid & 0xf];
+            gid >>>= 4;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,78 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2;
+
+/**
+ * Maps GIDs to positions in an open-addressing table of primitives, so a lookup neither boxes the
+ * GID nor allocates. Entries can only be added, which is all an immutable list or a single diff
+ * needs.
+ */
+final class GidIndex {
+
+    private final long[] mKeys;
+    // position + 1, so that 0 marks an empty slot whatever the GID is.
+    private final int[] mValues;
+    private final int mMask;
+
+    /**
+     * @param capacity the most entries that will be put
+     */
+    GidIndex(int capacity) {
+        int slots = 2;
+        while (slots < capacity * 2) {
+            slots <<= 1;
+        }
+        mKeys = new long[slots];
+        mValues = new int[slots];
+        mMask = slots - 1;
+    }
+
+    /**
+     * Maps {@code gid} to {@code position}, unless it is already mapped.
+     *
+     * @return the position {@code gid} was already mapped to, or -1 if it was not
+     */
+    int putIfAbsent(long gid, int position) {
+        int i = slotOf(gid);
+        if (mValues[i] != 0) {
+            return mValues[i] - 1;
+        }
+
+        mKeys[i] = gid;
+        mValues[i] = position + 1;
+        return -1;
+    }
+
+    /**
+     * @return the position {@code gid} is mapped to, or -1 if it is not
+     */
+    int get(long gid) {
+        return mValues[slotOf(gid)] - 1;
+    }
+
+    /**
+     * @return the slot holding {@code gid}, or the empty slot it would go in
+     */
+    private int slotOf(long gid) {
+        long hash = gid * 0x9e3779b97f4a7c15L;
+        int i = (int) (hash >>> 32) & mMask;
+        while (mValues[i] != 0 && mKeys[i] != gid) {
+            i = (i + 1) & mMask;
+        }
+        return i;
+    }
+}
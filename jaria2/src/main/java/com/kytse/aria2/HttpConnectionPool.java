@@ -0,0 +1,659 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Persistent HTTP/1.1 connections to one aria2 server, shared by the RPC transports.
+ *
+ * Polling sends a request every second or so; keeping the connection open saves a TCP (and TLS)
+ * handshake on each of them. Responses are requested gzip-compressed and inflated transparently.
+ * A connection goes back to the pool when its response body is closed, and a request that fails
+ * on a reused connection which the server has meanwhile dropped is retried once on a new one.
+ */
+public class HttpConnectionPool {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    // aria2 itself does not time out idle RPC connections, but proxies and NATs on the way do.
+    private static final long IDLE_TIMEOUT = 30000;
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * What a connection has been used for so far.
+     */
+    public static final class ConnectionStats {
+
+        private final int mId;
+        private final int mRequestCount;
+        private final long mCreatedAt;
+        private final long mLastUsedAt;
+        private final boolean mIdle;
+
+        private ConnectionStats(Connection connection, boolean idle) {
+            mId = connection.mId;
+            mRequestCount = connection.mRequestCount;
+            mCreatedAt = connection.mCreatedAt;
+            mLastUsedAt = connection.mLastUsedAt;
+            mIdle = idle;
+        }
+
+        public int getId() {
+            return mId;
+        }
+
+        /**
+         * @return the number of requests answered on the connection; all but the first reused it
+         */
+        public int getRequestCount() {
+            return mRequestCount;
+        }
+
+        public long getCreatedAt() {
+            return mCreatedAt;
+        }
+
+        public long getLastUsedAt() {
+            return mLastUsedAt;
+        }
+
+        public boolean isIdle() {
+            return mIdle;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "#%d: %d requests%s", mId, mRequestCount, mIdle ? ", idle" : "");
+        }
+    }
+
+    public static final class Response {
+
+        private final int mStatus;
+        private final Map<String, String> mHeaders;
+        private final InputStream mBody;
+
+        private Response(int status, Map<String, String> headers, InputStream body) {
+            mStatus = status;
+            mHeaders = headers;
+            mBody = body;
+        }
+
+        public int getStatus() {
+            return mStatus;
+        }
+
+        /**
+         * @param name a header name, in lower case
+         */
+        public String getHeader(String name) {
+            return mHeaders.get(name);
+        }
+
+        /**
+         * @return the body, already inflated if it was compressed. Closing it hands the
+         * connection back to the pool.
+         */
+        public InputStream getBody() {
+            return mBody;
+        }
+    }
+
+    private final String mHost;
+    private final int mPort;
+    private final boolean mSecure;
+
+    private volatile int mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int mReadTimeout = DEFAULT_READ_TIMEOUT;
+
+    private final Deque<Connection> mIdle = new ArrayDeque<>();
+    private final Set<Connection> mBusy = new LinkedHashSet<>();
+
+    private int mNextId;
+    private int mConnectionsOpened;
+    private int mRequests;
+
+    HttpConnectionPool(URL url) {
+        mHost = url.getHost();
+        mSecure = "https".equalsIgnoreCase(url.getProtocol());
+        mPort = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        mConnectTimeout = connectTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return mConnectTimeout;
+    }
+
+    /**
+     * @param readTimeout how long to wait for the server to start or continue a response; 0 waits
+     *                    forever
+     */
+    public void setReadTimeout(int readTimeout) {
+        mReadTimeout = readTimeout;
+    }
+
+    public int getReadTimeout() {
+        return mReadTimeout;
+    }
+
+    /**
+     * @return the open connections, idle or in use
+     */
+    public synchronized List<ConnectionStats> getConnectionStats() {
+        List<ConnectionStats> stats = new ArrayList<>(mIdle.size() + mBusy.size());
+        for (Connection connection :
+                mBusy) {
+            stats.add(new ConnectionStats(connection, false));
+        }
+        for (Connection connection :
+                mIdle) {
+            stats.add(new ConnectionStats(connection, true));
+        }
+        return Collections.unmodifiableList(stats);
+    }
+
+    public synchronized int getConnectionsOpened() {
+        return mConnectionsOpened;
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequests;
+    }
+
+    /**
+     * @return the number of requests that were sent on an already open connection
+     */
+    public synchronized int getReuseCount() {
+        return mRequests - mConnectionsOpened;
+    }
+
+    /**
+     * Closes the idle connections. Connections in use are closed when their response is.
+     */
+    public synchronized void evictAll() {
+        for (Connection connection :
+                mIdle) {
+            connection.close();
+        }
+        mIdle.clear();
+    }
+
+    /**
+     * The body of a request, written straight to the connection.
+     */
+    abstract static class RequestBody {
+
+        abstract long length();
+
+        /**
+         * @return whether the body can be written again, when an idle connection turns out to
+         * have been closed by the server
+         */
+        abstract boolean isRepeatable();
+
+        abstract void writeTo(OutputStream output) throws IOException;
+    }
+
+    /**
+     * Sends a POST request and reads the response head. The caller must close the body.
+     *
+     * @param idempotent whether the request can be sent again after a reused connection dropped
+     *                   before answering, when the server may have run it already
+     */
+    public Response post(String path, Map<String, String> headers, final byte[] body, boolean idempotent)
+            throws IOException {
+        return post(path, headers, new RequestBody() {
+            @Override
+            long length() {
+                return body.length;
+            }
+
+            @Override
+            boolean isRepeatable() {
+                return true;
+            }
+
+            @Override
+            void writeTo(OutputStream output) throws IOException {
+                output.write(body);
+            }
+        }, idempotent);
+    }
+
+    /**
+     * Sends a POST request and reads the response head. A body that is not repeatable is sent on
+     * a new connection, as there would be no second chance if an idle one had gone stale.
+     */
+    Response post(String path, Map<String, String> headers, RequestBody body, boolean idempotent)
+            throws IOException {
+        // A request that must not run twice gets no retry once it is sent, so the idle connection
+        // is checked beforehand instead.
+        Connection connection = body.isRepeatable() ? acquire(!idempotent) : newConnection();
+        try {
+            return connection.post(path, headers, body);
+        } catch (StaleConnectionException e) {
+            release(connection, false);
+            if (e.mSent && !idempotent) {
+                // The server may have read and run the request before dropping the connection.
+                throw (IOException) e.getCause();
+            }
+        } catch (IOException e) {
+            release(connection, false);
+            throw e;
+        }
+
+        connection = newConnection();
+        try {
+            return connection.post(path, headers, body);
+        } catch (IOException e) {
+            release(connection, false);
+            throw e;
+        }
+    }
+
+    /**
+     * @param probe whether to check that the server has not closed an idle connection, at the
+     *              cost of a millisecond
+     */
+    private Connection acquire(boolean probe) throws IOException {
+        while (true) {
+            Connection connection;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                while ((connection = mIdle.pollFirst()) != null) {
+                    if (now - connection.mLastUsedAt < IDLE_TIMEOUT && !connection.mSocket.isInputShutdown()) {
+                        mBusy.add(connection);
+                        break;
+                    }
+                    connection.close();
+                }
+            }
+            if (connection == null) {
+                return newConnection();
+            }
+            if (!probe || connection.isOpen()) {
+                return connection;
+            }
+            release(connection, false);
+        }
+    }
+
+    private Connection newConnection() throws IOException {
+        Socket socket = mSecure ? SSLSocketFactory.getDefault().createSocket() : new Socket();
+        try {
+            socket.connect(new InetSocketAddress(mHost, mPort), mConnectTimeout);
+            socket.setTcpNoDelay(true);
+            if (mSecure) {
+                SSLSocket sslSocket = (SSLSocket) socket;
+                sslSocket.startHandshake();
+                if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(mHost, sslSocket.getSession())) {
+                    throw new IOException(String.format("Certificate is not valid for %s", mHost));
+                }
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+
+        synchronized (this) {
+            Connection connection = new Connection(++mNextId, socket);
+            mConnectionsOpened++;
+            mBusy.add(connection);
+            return connection;
+        }
+    }
+
+    private void release(Connection connection, boolean reusable) {
+        synchronized (this) {
+            mBusy.remove(connection);
+            if (reusable) {
+                connection.mLastUsedAt = System.currentTimeMillis();
+                mIdle.addFirst(connection);
+                while (mIdle.size() > MAX_IDLE_CONNECTIONS) {
+                    mIdle.pollLast().close();
+                }
+                return;
+            }
+        }
+
+        connection.close();
+    }
+
+    private synchronized void countRequest(Connection connection) {
+        connection.mRequestCount++;
+        mRequests++;
+    }
+
+    private class Connection {
+
+        private final int mId;
+        private final Socket mSocket;
+        private final InputStream mInput;
+        private final OutputStream mOutput;
+        private final long mCreatedAt = System.currentTimeMillis();
+
+        private int mRequestCount;
+        private long mLastUsedAt = mCreatedAt;
+
+        Connection(int id, Socket socket) throws IOException {
+            mId = id;
+            mSocket = socket;
+            mInput = new BufferedInputStream(socket.getInputStream());
+            mOutput = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        Response post(String path, Map<String, String> headers, RequestBody body) throws IOException {
+            mSocket.setSoTimeout(mReadTimeout);
+
+            StringBuilder request = new StringBuilder()
+                    .append("POST ").append(path).append(" HTTP/1.1\r\n")
+                    .append("Host: ").append(mHost).append(':').append(mPort).append("\r\n")
+                    .append("Accept-Encoding: gzip\r\n")
+                    .append("Content-Length: ").append(body.length()).append("\r\n");
+            for (Map.Entry<String, String> header :
+                    headers.entrySet()) {
+                request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            request.append("\r\n");
+
+            boolean reused = mRequestCount > 0;
+
+            try {
+                mOutput.write(request.toString().getBytes(US_ASCII));
+                body.writeTo(mOutput);
+                mOutput.flush();
+            } catch (EOFException | SocketException e) {
+                if (reused) {
+                    throw new StaleConnectionException(e, false);
+                }
+                throw e;
+            }
+
+            String statusLine;
+            try {
+                statusLine = HttpLines.readLine(mInput);
+            } catch (EOFException | SocketException e) {
+                if (reused) {
+                    throw new StaleConnectionException(e, true);
+                }
+                throw e;
+            }
+            countRequest(this);
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/1.")) {
+                throw new IOException(String.format("Invalid status line: %s", statusLine));
+            }
+            int status;
+            try {
+                status = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException(String.format("Invalid status line: %s", statusLine));
+            }
+
+            Map<String, String> responseHeaders = new HashMap<>();
+            String line;
+            while (!(line = HttpLines.readLine(mInput)).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    responseHeaders.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                            line.substring(colon + 1).trim());
+                }
+            }
+
+            boolean keepAlive = !"close".equalsIgnoreCase(responseHeaders.get("connection")) &&
+                    !parts[0].equals("HTTP/1.0");
+
+            String contentLength = responseHeaders.get("content-length");
+            InputStream content;
+            if ("chunked".equalsIgnoreCase(responseHeaders.get("transfer-encoding"))) {
+                content = new ChunkedBody(this, keepAlive);
+            } else if (contentLength != null) {
+                content = new FixedLengthBody(this, Long.parseLong(contentLength), keepAlive);
+            } else {
+                // Delimited by the server closing the connection.
+                content = new FixedLengthBody(this, Long.MAX_VALUE, false);
+            }
+
+            if ("gzip".equalsIgnoreCase(responseHeaders.get("content-encoding"))) {
+                content = new GZIPInputStream(content);
+            }
+
+            return new Response(status, responseHeaders, content);
+        }
+
+        /**
+         * @return whether an idle connection can still take a request: the server has neither
+         * closed it nor sent anything unasked
+         */
+        boolean isOpen() {
+            try {
+                mSocket.setSoTimeout(1);
+                mInput.read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                mSocket.close();
+            } catch (IOException ignored) {
+                // Nothing left to do with it.
+            }
+        }
+    }
+
+    /**
+     * A reused connection that turned out to have been closed by the server.
+     */
+    private static class StaleConnectionException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        // Whether the whole request had been written, so the server may have run it.
+        private final boolean mSent;
+
+        StaleConnectionException(IOException cause, boolean sent) {
+            super(cause);
+            mSent = sent;
+        }
+    }
+
+    /**
+     * A response body, handing its connection back once it has been read to the end and closed.
+     */
+    private abstract class Body extends InputStream {
+
+        final Connection mConnection;
+        private final boolean mKeepAlive;
+        private boolean mFailed;
+        private boolean mClosed;
+
+        Body(Connection connection, boolean keepAlive) {
+            mConnection = connection;
+            mKeepAlive = keepAlive;
+        }
+
+        abstract boolean isExhausted();
+
+        abstract int readBody(byte[] b, int off, int len) throws IOException;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return readBody(b, off, len);
+            } catch (IOException e) {
+                mFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+
+            // Draining a short remainder is cheaper than a new connection; a long one is not.
+            boolean reusable = mKeepAlive && !mFailed;
+            byte[] buffer = new byte[8192];
+            long drained = 0;
+            try {
+                while (reusable && !isExhausted()) {
+                    int read = read(buffer, 0, buffer.length);
+                    if (read == -1) {
+                        break;
+                    }
+                    drained += read;
+                    reusable = drained < 64 * 1024;
+                }
+            } catch (IOException e) {
+                reusable = false;
+            }
+
+            release(mConnection, reusable && isExhausted());
+        }
+    }
+
+    private class FixedLengthBody extends Body {
+
+        private long mRemaining;
+
+        FixedLengthBody(Connection connection, long length, boolean keepAlive) {
+            super(connection, keepAlive);
+            mRemaining = length;
+        }
+
+        @Override
+        boolean isExhausted() {
+            return mRemaining == 0;
+        }
+
+        @Override
+        int readBody(byte[] b, int off, int len) throws IOException {
+            if (mRemaining == 0) {
+                return -1;
+            }
+
+            int read = mConnection.mInput.read(b, off, (int) Math.min(len, mRemaining));
+            if (read == -1) {
+                if (mRemaining != Long.MAX_VALUE) {
+                    throw new EOFException("Connection closed before the end of the response");
+                }
+                mRemaining = 0;
+                return -1;
+            }
+            if (mRemaining != Long.MAX_VALUE) {
+                mRemaining -= read;
+            }
+            return read;
+        }
+    }
+
+    private class ChunkedBody extends Body {
+
+        private long mChunkRemaining;
+        private boolean mDone;
+
+        ChunkedBody(Connection connection, boolean keepAlive) {
+            super(connection, keepAlive);
+        }
+
+        @Override
+        boolean isExhausted() {
+            return mDone;
+        }
+
+        @Override
+        int readBody(byte[] b, int off, int len) throws IOException {
+            if (mDone) {
+                return -1;
+            }
+
+            if (mChunkRemaining == 0) {
+                String size = HttpLines.readLine(mConnection.mInput);
+                int extension = size.indexOf(';');
+                try {
+                    mChunkRemaining = Long.parseLong((extension >= 0 ? size.substring(0, extension) : size).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format("Invalid chunk size: %s", size));
+                }
+
+                if (mChunkRemaining == 0) {
+                    // Trailers, up to the blank line that ends the body.
+                    while (!HttpLines.readLine(mConnection.mInput).isEmpty()) {
+                        continue;
+                    }
+                    mDone = true;
+                    return -1;
+                }
+            }
+
+            int read = mConnection.mInput.read(b, off, (int) Math.min(len, mChunkRemaining));
+            if (read == -1) {
+                throw new EOFException("Connection closed before the end of the response");
+            }
+            mChunkRemaining -= read;
+            if (mChunkRemaining == 0) {
+                HttpLines.readLine(mConnection.mInput);
+            }
+            return read;
+        }
+    }
+}
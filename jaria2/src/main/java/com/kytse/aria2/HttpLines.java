@@ -0,0 +1,53 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the CRLF-terminated lines of HTTP heads, for the pooled RPC connections and the WebSocket
+ * handshake alike.
+ */
+final class HttpLines {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private HttpLines() {
+    }
+
+    /**
+     * @return the next line, without its line ending
+     * @throws EOFException if the stream ends before the line does
+     */
+    static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = input.read()) != '\n') {
+            if (c == -1) {
+                throw new EOFException();
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return new String(line.toByteArray(), UTF_8);
+    }
+}
@@ -0,0 +1,302 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON codec for aria2's JSON-RPC interface.
+ *
+ * Values are decoded into the same shapes the XML-RPC client produces (HashMap for objects,
+ * Object[] for arrays, String for strings), so {@link Download} and {@link File} can be built
+ * from either protocol.
+ */
+final class Json {
+
+    private final String mText;
+    private int mPos;
+
+    private Json(String text) {
+        mText = text;
+    }
+
+    static String encode(Object value) {
+        StringBuilder builder = new StringBuilder();
+        encode(builder, value);
+        return builder.toString();
+    }
+
+    static Object decode(String text) throws IllegalArgumentException {
+        Json json = new Json(text);
+        Object value = json.readValue();
+        json.skipWhitespace();
+        if (json.mPos != text.length()) {
+            throw json.error("Trailing characters");
+        }
+        return value;
+    }
+
+    private static void encode(StringBuilder builder, Object value) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof String) {
+            encodeString(builder, (String) value);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            builder.append(value.toString());
+        } else if (value instanceof Map) {
+            builder.append('{');
+            boolean first = true;
+            for (Object entry :
+                    ((Map) value).entrySet()) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                encodeString(builder, String.valueOf(((Map.Entry) entry).getKey()));
+                builder.append(':');
+                encode(builder, ((Map.Entry) entry).getValue());
+            }
+            builder.append('}');
+        } else if (value instanceof Object[]) {
+            builder.append('[');
+            Object[] array = (Object[]) value;
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                encode(builder, array[i]);
+            }
+            builder.append(']');
+        } else if (value instanceof List) {
+            encode(builder, ((List) value).toArray());
+        } else {
+            encodeString(builder, value.toString());
+        }
+    }
+
+    private static void encodeString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (mPos >= mText.length()) {
+            throw error("Unexpected end of input");
+        }
+
+        char c = mText.charAt(mPos);
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                expect("true");
+                return Boolean.TRUE;
+            case 'f':
+                expect("false");
+                return Boolean.FALSE;
+            case 'n':
+                expect("null");
+                return null;
+            default:
+                return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> map = new HashMap<>();
+        mPos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            mPos++;
+            return map;
+        }
+
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected member name");
+            }
+            String key = readString();
+            skipWhitespace();
+            if (peek() != ':') {
+                throw error("Expected ':'");
+            }
+            mPos++;
+            map.put(key, readValue());
+            skipWhitespace();
+
+            char c = peek();
+            mPos++;
+            if (c == '}') {
+                return map;
+            } else if (c != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private Object[] readArray() {
+        List<Object> list = new ArrayList<>();
+        mPos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            mPos++;
+            return list.toArray();
+        }
+
+        while (true) {
+            list.add(readValue());
+            skipWhitespace();
+
+            char c = peek();
+            mPos++;
+            if (c == ']') {
+                return list.toArray();
+            } else if (c != ',') {
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private String readString() {
+        StringBuilder builder = new StringBuilder();
+        mPos++;
+
+        while (true) {
+            if (mPos >= mText.length()) {
+                throw error("Unterminated string");
+            }
+
+            char c = mText.charAt(mPos++);
+            if (c == '"') {
+                return builder.toString();
+            } else if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+
+            if (mPos >= mText.length()) {
+                throw error("Unterminated escape");
+            }
+            c = mText.charAt(mPos++);
+            switch (c) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (mPos + 4 > mText.length()) {
+                        throw error("Invalid unicode escape");
+                    }
+                    builder.append((char) Integer.parseInt(mText.substring(mPos, mPos + 4), 16));
+                    mPos += 4;
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+    }
+
+    private Number readNumber() {
+        int start = mPos;
+        boolean decimal = false;
+        while (mPos < mText.length()) {
+            char c = mText.charAt(mPos);
+            if (c == '.' || c == 'e' || c == 'E') {
+                decimal = true;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            mPos++;
+        }
+
+        if (start == mPos) {
+            throw error("Unexpected character");
+        }
+
+        String number = mText.substring(start, mPos);
+        return decimal ? (Number) Double.valueOf(number) : (Number) Long.valueOf(number);
+    }
+
+    private void expect(String literal) {
+        if (!mText.startsWith(literal, mPos)) {
+            throw error("Unexpected token");
+        }
+        mPos += literal.length();
+    }
+
+    private char peek() {
+        if (mPos >= mText.length()) {
+            throw error("Unexpected end of input");
+        }
+        return mText.charAt(mPos);
+    }
+
+    private void skipWhitespace() {
+        while (mPos < mText.length() && Character.isWhitespace(mText.charAt(mPos))) {
+            mPos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(String.format("%s at offset %d", message, mPos));
+    }
+}
@@ -0,0 +1,120 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JSON-RPC over HTTP, at aria2's {@code /jsonrpc} endpoint. The bodies are a fraction of the size
+ * of the XML-RPC ones and quicker to decode.
+ */
+class JsonRpcHttpTransport implements Transport {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Map<String, String> HEADERS =
+            Collections.singletonMap("Content-Type", "application/json-rpc");
+
+    private final URL mUrl;
+    private final HttpConnectionPool mPool;
+    private final AtomicInteger mNextId = new AtomicInteger();
+
+    JsonRpcHttpTransport(URL url, HttpConnectionPool pool) {
+        mUrl = url;
+        mPool = pool;
+    }
+
+    @Override
+    public Object execute(String method, Object[] params) throws XmlRpcException {
+        byte[] body = Json.encode(requestOf(Integer.toString(mNextId.incrementAndGet()), method, params))
+                .getBytes(UTF_8);
+
+        String response;
+        try {
+            // aria2 answers errors with a 400 status and the error object in the body.
+            List<Upload> uploads = Upload.find(params);
+            HttpConnectionPool.Response httpResponse = uploads.isEmpty() ?
+                    mPool.post(mUrl.getFile(), HEADERS, body, CoalescingTransport.isReadOnly(method, params)) :
+                    mPool.post(mUrl.getFile(), HEADERS, Upload.splice(body, uploads), false);
+            InputStream input = httpResponse.getBody();
+            try {
+                response = readFully(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new XmlRpcException(String.format("Failed to call %s", method), e);
+        }
+
+        Object decoded;
+        try {
+            decoded = Json.decode(response);
+        } catch (IllegalArgumentException e) {
+            throw new XmlRpcException(String.format("Invalid response to %s", method), e);
+        }
+        if (!(decoded instanceof Map)) {
+            throw new XmlRpcException(String.format("Invalid response to %s", method));
+        }
+
+        return resultOf((Map) decoded);
+    }
+
+    static Map<String, Object> requestOf(String id, String method, Object[] params) {
+        Map<String, Object> request = new HashMap<>();
+        request.put("jsonrpc", "2.0");
+        request.put("id", id);
+        request.put("method", method);
+        request.put("params", params);
+        return request;
+    }
+
+    /**
+     * @return the result of a JSON-RPC response
+     * @throws XmlRpcException carrying aria2's error code and message if the call failed
+     */
+    static Object resultOf(Map response) throws XmlRpcException {
+        Object error = response.get("error");
+        if (error instanceof Map) {
+            Object code = ((Map) error).get("code");
+            Object message = ((Map) error).get("message");
+            throw new XmlRpcException(code instanceof Number ? ((Number) code).intValue() : 0,
+                    String.valueOf(message));
+        }
+
+        return response.get("result");
+    }
+
+    private static String readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return new String(buffer.toByteArray(), UTF_8);
+    }
+}
@@ -0,0 +1,276 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the edit script that turns one list of unique keys into another.
+ *
+ * The operations are meant to be applied one after another, each position referring to the list
+ * as left by the previous operation, which is what RecyclerView's notifyItem* calls expect:
+ * removals come first (back to front), then moves and insertions in target order.
+ *
+ * Insertions and removals are exactly the keys that appear on one side only. Moves are minimal:
+ * the survivors along a longest increasing subsequence of their target positions stay put and
+ * every other survivor moves once. Keys are matched through a hash map and positions are tracked
+ * with a Fenwick tree, so the whole diff is O(n log n) rather than the O(n&sup2;) of searching and
+ * shifting an ArrayList.
+ */
+public final class ListDiff {
+
+    public static final class Operation {
+
+        public enum Type {INSERT, REMOVE, MOVE}
+
+        private final Type mType;
+        private final int mPosition;
+        private final int mToPosition;
+
+        Operation(Type type, int position, int toPosition) {
+            mType = type;
+            mPosition = position;
+            mToPosition = toPosition;
+        }
+
+        public Type getType() {
+            return mType;
+        }
+
+        public int getPosition() {
+            return mPosition;
+        }
+
+        /**
+         * @return the position a moved item ends up at; only meaningful for {@link Type#MOVE}
+         */
+        public int getToPosition() {
+            return mToPosition;
+        }
+
+        @Override
+        public String toString() {
+            return mType == Type.MOVE ?
+                    String.format("%s(%d->%d)", mType, mPosition, mToPosition) :
+                    String.format("%s(%d)", mType, mPosition);
+        }
+    }
+
+    private final List<Operation> mOperations;
+    private final int[] mSourcePositions;
+
+    private ListDiff(List<Operation> operations, int[] sourcePositions) {
+        mOperations = operations;
+        mSourcePositions = sourcePositions;
+    }
+
+    public List<Operation> getOperations() {
+        return mOperations;
+    }
+
+    /**
+     * @return the position in the source list of the item at {@code targetPosition}, or -1 if it
+     * was inserted
+     */
+    public int getSourcePosition(int targetPosition) {
+        return mSourcePositions[targetPosition];
+    }
+
+    public static <K> ListDiff compute(List<K> source, List<K> target) {
+        Map<K, Integer> targetPositions = new HashMap<>(target.size() * 2);
+        for (int i = 0; i < target.size(); i++) {
+            if (targetPositions.put(target.get(i), i) != null) {
+                throw new IllegalArgumentException(String.format("Duplicate key %s", target.get(i)));
+            }
+        }
+
+        int[] targetPositionOf = new int[source.size()];
+        for (int i = 0; i < source.size(); i++) {
+            Integer targetPosition = targetPositions.get(source.get(i));
+            targetPositionOf[i] = targetPosition == null ? -1 : targetPosition;
+        }
+
+        return compute(targetPositionOf, target.size());
+    }
+
+    /**
+     * Diffs lists of GIDs, matching them through a {@link GidIndex} so that no key is boxed.
+     */
+    static ListDiff compute(long[] source, long[] target) {
+        GidIndex targetPositions = new GidIndex(target.length);
+        for (int i = 0; i < target.length; i++) {
+            if (targetPositions.putIfAbsent(target[i], i) != -1) {
+                throw new IllegalArgumentException(String.format("Duplicate key %s", Gid.toString(target[i])));
+            }
+        }
+
+        int[] targetPositionOf = new int[source.length];
+        for (int i = 0; i < source.length; i++) {
+            targetPositionOf[i] = targetPositions.get(source[i]);
+        }
+
+        return compute(targetPositionOf, target.length);
+    }
+
+    /**
+     * @param targetPositionOf the target position of each source item, or -1 if it is removed
+     */
+    private static ListDiff compute(int[] targetPositionOf, int targetSize) {
+        List<Operation> operations = new ArrayList<>();
+        int[] sourcePositions = new int[targetSize];
+        Arrays.fill(sourcePositions, -1);
+
+        // Removals, back to front so earlier positions stay valid.
+        for (int i = targetPositionOf.length - 1; i >= 0; i--) {
+            if (targetPositionOf[i] == -1) {
+                operations.add(new Operation(Operation.Type.REMOVE, i, i));
+            }
+        }
+
+        int[] survivorTargets = new int[targetPositionOf.length];
+        int survivorCount = 0;
+        for (int i = 0; i < targetPositionOf.length; i++) {
+            int targetPosition = targetPositionOf[i];
+            if (targetPosition != -1) {
+                sourcePositions[targetPosition] = i;
+                survivorTargets[survivorCount++] = targetPosition;
+            }
+        }
+
+        boolean[] stays = longestIncreasingSubsequence(survivorTargets, survivorCount);
+
+        // Which survivor, if any, each target position holds.
+        int[] survivorAt = new int[targetSize];
+        Arrays.fill(survivorAt, -1);
+        for (int i = 0; i < survivorCount; i++) {
+            survivorAt[survivorTargets[i]] = i;
+        }
+
+        // Lay out slots so that the survivors' current slots read in source order and the final
+        // slots read in target order: the items placed before the first staying survivor, then
+        // each survivor's current slot, with the items that follow a staying survivor in the
+        // target list right after it. Occupied slots always spell out the working list, so the
+        // position of a slot is the number of occupied slots before it.
+        int[] finalSlots = new int[targetSize];
+        int[] currentSlots = new int[survivorCount];
+        int slot = 0;
+
+        for (int t = 0; t < targetSize && !staysAt(t, survivorAt, stays); t++) {
+            finalSlots[t] = slot++;
+        }
+        for (int i = 0; i < survivorCount; i++) {
+            currentSlots[i] = slot++;
+            if (stays[i]) {
+                int t = survivorTargets[i];
+                finalSlots[t] = currentSlots[i];
+                for (t++; t < targetSize && !staysAt(t, survivorAt, stays); t++) {
+                    finalSlots[t] = slot++;
+                }
+            }
+        }
+
+        FenwickTree occupied = new FenwickTree(slot);
+        for (int i = 0; i < survivorCount; i++) {
+            occupied.add(currentSlots[i], 1);
+        }
+
+        for (int t = 0; t < targetSize; t++) {
+            int survivor = survivorAt[t];
+            if (survivor == -1) {
+                occupied.add(finalSlots[t], 1);
+                int position = occupied.prefixSum(finalSlots[t]);
+                operations.add(new Operation(Operation.Type.INSERT, position, position));
+            } else if (!stays[survivor]) {
+                int from = occupied.prefixSum(currentSlots[survivor]);
+                occupied.add(currentSlots[survivor], -1);
+                occupied.add(finalSlots[t], 1);
+                int to = occupied.prefixSum(finalSlots[t]);
+                operations.add(new Operation(Operation.Type.MOVE, from, to));
+            }
+        }
+
+        return new ListDiff(operations, sourcePositions);
+    }
+
+    private static boolean staysAt(int targetPosition, int[] survivorAt, boolean[] stays) {
+        int survivor = survivorAt[targetPosition];
+        return survivor != -1 && stays[survivor];
+    }
+
+    /**
+     * Patience sorting over distinct values; marks the members of one longest strictly increasing
+     * subsequence.
+     */
+    private static boolean[] longestIncreasingSubsequence(int[] values, int length) {
+        int[] tailIndices = new int[length];
+        int[] predecessors = new int[length];
+        int tails = 0;
+
+        for (int i = 0; i < length; i++) {
+            int low = 0;
+            int high = tails;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[tailIndices[middle]] < values[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            predecessors[i] = low > 0 ? tailIndices[low - 1] : -1;
+            tailIndices[low] = i;
+            if (low == tails) {
+                tails++;
+            }
+        }
+
+        boolean[] members = new boolean[length];
+        for (int i = tails > 0 ? tailIndices[tails - 1] : -1; i != -1; i = predecessors[i]) {
+            members[i] = true;
+        }
+        return members;
+    }
+
+    private static final class FenwickTree {
+
+        private final int[] mTree;
+
+        FenwickTree(int size) {
+            mTree = new int[size + 1];
+        }
+
+        void add(int index, int delta) {
+            for (int i = index + 1; i < mTree.length; i += i & -i) {
+                mTree[i] += delta;
+            }
+        }
+
+        /**
+         * @return the sum of the entries before {@code index}
+         */
+        int prefixSum(int index) {
+            int sum = 0;
+            for (int i = index; i > 0; i -= i & -i) {
+                sum += mTree[i];
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last lists read from each server on disk, so a client made at startup has something
+ * to show before its first refresh comes back.
+ * <p>
+ * Only what a row needs is kept: the GID, status, lengths and name of each download. A snapshot
+ * is written whole to a temporary file which then replaces the old one, and is read back through
+ * a read-only mapping of the file.
+ */
+public class SnapshotCache {
+
+    private static final int MAGIC = 0x41325343; // "A2SC"
+    private static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    private final File mDirectory;
+
+    public SnapshotCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Writes the lists {@code aria2} holds for {@code server} over its last snapshot.
+     */
+    public void save(String server, Aria2 aria2) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer = putString(buffer, server);
+
+        for (Aria2.ListType type :
+                Aria2.ListType.values()) {
+            DownloadList list = aria2.getList(type);
+            buffer = ensure(buffer, 3 * 4);
+            buffer.putInt(list.getOffset());
+            buffer.putInt(list.getTotal());
+            buffer.putInt(list.size());
+
+            for (int i = 0; i < list.size(); i++) {
+                Download download = list.get(i);
+                Download.Status status = download.getStatus();
+                buffer = ensure(buffer, 8 + 1 + 8 + 8);
+                buffer.putLong(download.getGID());
+                buffer.put(status == null ? -1 : (byte) status.ordinal());
+                buffer.putLong(download.getTotalLength());
+                buffer.putLong(download.getCompletedLength());
+                buffer = putString(buffer, download.getName());
+            }
+        }
+        buffer.flip();
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException(String.format("Cannot create %s", mDirectory));
+        }
+        File file = fileOf(server);
+        File temporary = new File(mDirectory, file.getName() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        try {
+            FileChannel channel = stream.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            stream.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException(String.format("Cannot replace %s", file));
+        }
+    }
+
+    /**
+     * Publishes the last snapshot of {@code server} to the lists of {@code aria2} that have not
+     * been read yet.
+     *
+     * @return whether there was a snapshot of {@code server}
+     * @throws IOException if the snapshot cannot be read or is not one this class wrote
+     */
+    public boolean restore(String server, Aria2 aria2) throws IOException {
+        File file = fileOf(server);
+        if (!file.isFile()) {
+            return false;
+        }
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try {
+            buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        } finally {
+            // The mapping stays valid once the file is closed.
+            input.close();
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(String.format("%s is not a snapshot", file));
+            }
+            if (!server.equals(getString(buffer))) {
+                return false;
+            }
+
+            Download.Status[] statuses = Download.Status.values();
+            Aria2.ListType[] types = Aria2.ListType.values();
+            List<List<Download>> lists = new ArrayList<>(types.length);
+            int[] offsets = new int[types.length];
+            int[] totals = new int[types.length];
+            for (int i = 0; i < types.length; i++) {
+                offsets[i] = buffer.getInt();
+                totals[i] = buffer.getInt();
+                int count = buffer.getInt();
+                if (offsets[i] < 0 || count < 0 || offsets[i] + count > totals[i]) {
+                    throw new IOException(String.format("%s is corrupt", file));
+                }
+
+                List<Download> downloads = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) {
+                    long gid = buffer.getLong();
+                    int status = buffer.get();
+                    if (status >= statuses.length) {
+                        throw new IOException(String.format("%s is corrupt", file));
+                    }
+                    long totalLength = buffer.getLong();
+                    long completedLength = buffer.getLong();
+                    downloads.add(Download.fromSnapshot(gid, status < 0 ? null : statuses[status],
+                            totalLength, completedLength, getString(buffer)));
+                }
+                lists.add(downloads);
+            }
+
+            // Only publish once the whole file has been read, so a corrupt one shows nothing.
+            for (int i = 0; i < types.length; i++) {
+                aria2.restoreList(types[i], lists.get(i), offsets[i], totals[i]);
+            }
+            return true;
+        } catch (BufferUnderflowException e) {
+            throw new IOException(String.format("%s is truncated", file), e);
+        }
+    }
+
+    /**
+     * Forgets the snapshot of {@code server}, if there is one.
+     */
+    public void delete(String server) {
+        fileOf(server).delete();
+    }
+
+    private File fileOf(String server) {
+        // The server is written in the file too, so two servers sharing a hash never mix.
+        return new File(mDirectory, String.format("%08x.snapshot", server.hashCode()));
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int length) {
+        if (buffer.remaining() >= length) {
+            return buffer;
+        }
+
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private static ByteBuffer putString(ByteBuffer buffer, String string) {
+        if (string == null) {
+            buffer = ensure(buffer, 4);
+            buffer.putInt(-1);
+            return buffer;
+        }
+
+        byte[] bytes = string.getBytes(UTF_8);
+        buffer = ensure(buffer, 4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,105 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A change of status that was asked of aria2 and is shown in the lists before aria2 reports it.
+ * It lasts until a list read after aria2 accepted the command has the download out of its old
+ * status, and is given up if that takes too long.
+ */
+final class StatusTransition {
+
+    // Stands for a command that repeats one still on its way, and so is not sent again.
+    static final StatusTransition REPEATED = new StatusTransition(0, null, null, 0);
+
+    // How long aria2 may go on reporting the old status once it accepted the command, as an
+    // active download takes a moment to stop.
+    static final long SETTLE_TIME = 3000;
+
+    // How long a command may go unanswered before its transition is given up.
+    static final long TIMEOUT = 30000;
+
+    final long mGid;
+    final Download.Status mFrom;
+    final Download.Status mTo;
+
+    private final long mStartedAt;
+    private long mSettledAt = -1;
+
+    StatusTransition(long gid, Download.Status from, Download.Status to, long startedAt) {
+        mGid = gid;
+        mFrom = from;
+        mTo = to;
+        mStartedAt = startedAt;
+    }
+
+    /**
+     * @return the status {@code method} takes a download in {@code from} to, or {@code null} if
+     * it does not apply to such a download or does not change its status
+     */
+    static Download.Status targetOf(String method, Download.Status from) {
+        if (from == null) {
+            return null;
+        }
+
+        switch (method) {
+            case "aria2.pause":
+            case "aria2.forcePause":
+                return from == Download.Status.ACTIVE || from == Download.Status.WAITING ?
+                        Download.Status.PAUSED : null;
+            case "aria2.unpause":
+                return from == Download.Status.PAUSED ? Download.Status.WAITING : null;
+            case "aria2.remove":
+            case "aria2.forceRemove":
+                return from == Download.Status.ACTIVE || from == Download.Status.WAITING ||
+                        from == Download.Status.PAUSED ? Download.Status.REMOVED : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Records that aria2 accepted the command.
+     */
+    void settle(long now) {
+        mSettledAt = now;
+    }
+
+    /**
+     * @return whether a download aria2 reports in {@code status} has no need of this transition
+     * any more
+     */
+    boolean isOver(Download.Status status, long now) {
+        if (now - mStartedAt > TIMEOUT) {
+            return true;
+        }
+        return mSettledAt != -1 && (status != mFrom || now - mSettledAt > SETTLE_TIME);
+    }
+
+    /**
+     * @return whether this transition is over whatever aria2 reports
+     */
+    boolean isExpired(long now) {
+        return isOver(mFrom, now);
+    }
+
+    static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
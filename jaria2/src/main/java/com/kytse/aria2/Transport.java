@@ -0,0 +1,33 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * Carries aria2 RPC calls to the server. {@link Aria2} speaks to aria2 only through this, so the
+ * protocol underneath can be chosen per instance.
+ *
+ * Results come back as aria2 describes them: structs as {@link java.util.Map}, arrays as
+ * {@code Object[]}, and status structs possibly already decoded as {@link Download}. Faults and
+ * I/O errors are thrown as {@link XmlRpcException} whatever the protocol.
+ */
+public interface Transport {
+
+    enum Protocol {XML_RPC, JSON_RPC}
+
+    Object execute(String method, Object[] params) throws XmlRpcException;
+}
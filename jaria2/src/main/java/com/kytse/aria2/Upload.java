@@ -0,0 +1,141 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Binary content passed as a parameter, such as a torrent file, that is sent Base64 encoded as
+ * it is read from its stream instead of being held in memory.
+ *
+ * Transports encode requests as usual with a placeholder standing in for each upload, then send
+ * the encoded request through {@link #splice(byte[], List)}, which streams the content in place
+ * of the placeholders. The stream is read only once, so such a request cannot be resent.
+ */
+final class Upload {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final InputStream mInput;
+    private final long mLength;
+    private final String mPlaceholder = "upload-" + UUID.randomUUID();
+
+    Upload(InputStream input, long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative");
+        }
+
+        mInput = input;
+        mLength = length;
+    }
+
+    /**
+     * @return the placeholder for the content in an encoded request, which needs no escaping
+     * in either XML or JSON
+     */
+    String getPlaceholder() {
+        return mPlaceholder;
+    }
+
+    @Override
+    public String toString() {
+        return mPlaceholder;
+    }
+
+    /**
+     * @return the uploads among {@code params}, including those in nested arrays
+     */
+    static List<Upload> find(Object[] params) {
+        List<Upload> uploads = new ArrayList<>();
+        collect(params, uploads);
+        return uploads;
+    }
+
+    private static void collect(Object[] params, List<Upload> uploads) {
+        for (Object param :
+                params) {
+            if (param instanceof Upload) {
+                uploads.add((Upload) param);
+            } else if (param instanceof Object[]) {
+                collect((Object[]) param, uploads);
+            }
+        }
+    }
+
+    /**
+     * @return a body sending {@code encoded}, with the content of each of {@code uploads} in place
+     * of its placeholder
+     */
+    static HttpConnectionPool.RequestBody splice(final byte[] encoded, final List<Upload> uploads) {
+        final int[] offsets = new int[uploads.size()];
+        long length = encoded.length;
+        int from = 0;
+        for (int i = 0; i < uploads.size(); i++) {
+            Upload upload = uploads.get(i);
+            byte[] placeholder = upload.mPlaceholder.getBytes(US_ASCII);
+            offsets[i] = indexOf(encoded, placeholder, from);
+            if (offsets[i] == -1) {
+                throw new IllegalStateException("Upload is missing from the encoded request");
+            }
+            from = offsets[i] + placeholder.length;
+            length += Base64.encodedLength(upload.mLength) - placeholder.length;
+        }
+
+        final long contentLength = length;
+        return new HttpConnectionPool.RequestBody() {
+            @Override
+            long length() {
+                return contentLength;
+            }
+
+            @Override
+            boolean isRepeatable() {
+                return false;
+            }
+
+            @Override
+            void writeTo(OutputStream output) throws IOException {
+                int from = 0;
+                for (int i = 0; i < uploads.size(); i++) {
+                    Upload upload = uploads.get(i);
+                    output.write(encoded, from, offsets[i] - from);
+                    Base64.encode(upload.mInput, upload.mLength, output);
+                    from = offsets[i] + upload.mPlaceholder.length();
+                }
+                output.write(encoded, from, encoded.length - from);
+            }
+        };
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,92 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import java.nio.charset.Charset;
+
+/**
+ * The URIs seen so far, kept as 64-bit fingerprints in an open-addressing table, so telling
+ * duplicates apart costs 8 to 16 bytes per distinct URI however long the URIs are. Two different
+ * URIs are taken for the same one only if their fingerprints collide, which for the number of
+ * URIs a single import can hold is vanishingly unlikely.
+ */
+class UriFingerprints {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 0 marks an empty slot, so a fingerprint of 0 is stored as 1.
+    private long[] mSlots = new long[1024];
+    private int mSize;
+
+    /**
+     * @return whether {@code uri} had not been added before
+     */
+    boolean add(String uri) {
+        long fingerprint = fingerprintOf(uri);
+        if (insert(mSlots, fingerprint)) {
+            if (++mSize * 2 > mSlots.length) {
+                grow();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    private void grow() {
+        long[] slots = new long[mSlots.length * 2];
+        for (long fingerprint :
+                mSlots) {
+            if (fingerprint != 0) {
+                insert(slots, fingerprint);
+            }
+        }
+        mSlots = slots;
+    }
+
+    private static boolean insert(long[] slots, long fingerprint) {
+        int mask = slots.length - 1;
+        int i = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        while (slots[i] != 0) {
+            if (slots[i] == fingerprint) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = fingerprint;
+        return true;
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes, finished with a 64-bit mix so nearby URIs spread out.
+     */
+    private static long fingerprintOf(String uri) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b :
+                uri.getBytes(UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+}
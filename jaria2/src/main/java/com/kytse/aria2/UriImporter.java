@@ -0,0 +1,235 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adds a download for every URI read from a text, one URI to a line, however long the text is.
+ *
+ * Lines are read as they are needed, blank lines and lines starting with {@code #} are skipped,
+ * and a URI that has already been read is added only once. URIs are sent
+ * {@link Aria2#BATCH_SIZE} to a {@code system.multicall}, with at most a few requests in flight:
+ * reading waits for a request to finish before filling another one, so only those chunks are
+ * ever held in memory, along with the fingerprints used to spot duplicates.
+ */
+public class UriImporter {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+    private static final AtomicInteger sThreadCount = new AtomicInteger();
+
+    /**
+     * Called from the threads that send the URIs, one call at a time.
+     */
+    public interface Listener {
+
+        void onProgress(Progress progress);
+
+        void onUriFailed(String uri, XmlRpcException e);
+    }
+
+    public static final class Progress {
+
+        private final int mRead;
+        private final int mDuplicates;
+        private final int mAdded;
+        private final int mFailed;
+
+        Progress(int read, int duplicates, int added, int failed) {
+            mRead = read;
+            mDuplicates = duplicates;
+            mAdded = added;
+            mFailed = failed;
+        }
+
+        /**
+         * @return the number of URIs read so far, duplicates included
+         */
+        public int getRead() {
+            return mRead;
+        }
+
+        public int getDuplicates() {
+            return mDuplicates;
+        }
+
+        public int getAdded() {
+            return mAdded;
+        }
+
+        public int getFailed() {
+            return mFailed;
+        }
+    }
+
+    private final Aria2 mAria2;
+    private final int mBatchSize;
+    private final int mMaxInFlight;
+
+    public UriImporter(Aria2 aria2) {
+        this(aria2, Aria2.BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public UriImporter(Aria2 aria2, int batchSize, int maxInFlight) {
+        if (batchSize < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("batchSize and maxInFlight must be positive");
+        }
+
+        mAria2 = aria2;
+        mBatchSize = batchSize;
+        mMaxInFlight = maxInFlight;
+    }
+
+    /**
+     * Reads {@code reader} to the end and adds its URIs, returning once every request has been
+     * answered. Being interrupted stops the reading; requests already sent are not taken back.
+     */
+    public Progress importUris(Reader reader, Listener listener) throws IOException, InterruptedException {
+        Import run = new Import(listener);
+        ExecutorService executor = Executors.newFixedThreadPool(mMaxInFlight, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "aria2-import-" + sThreadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            BufferedReader lines = new BufferedReader(reader);
+            UriFingerprints seen = new UriFingerprints();
+            List<String> chunk = new ArrayList<>(mBatchSize);
+
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                String uri = line.trim();
+                if (uri.isEmpty() || uri.startsWith("#")) {
+                    continue;
+                }
+
+                boolean isNew = seen.add(uri);
+                run.read(isNew);
+                if (!isNew) {
+                    continue;
+                }
+
+                chunk.add(uri);
+                if (chunk.size() == mBatchSize) {
+                    run.send(executor, chunk);
+                    chunk = new ArrayList<>(mBatchSize);
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                run.send(executor, chunk);
+            }
+            run.awaitSent();
+        } catch (IOException e) {
+            run.awaitSent();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return run.getProgress();
+    }
+
+    private class Import {
+
+        private final Listener mListener;
+        private final Semaphore mPermits = new Semaphore(mMaxInFlight);
+
+        private int mRead;
+        private int mDuplicates;
+        private int mAdded;
+        private int mFailed;
+
+        Import(Listener listener) {
+            mListener = listener;
+        }
+
+        synchronized void read(boolean isNew) {
+            mRead++;
+            if (!isNew) {
+                mDuplicates++;
+            }
+        }
+
+        synchronized Progress getProgress() {
+            return new Progress(mRead, mDuplicates, mAdded, mFailed);
+        }
+
+        /**
+         * Waits for a request to finish if {@link #mMaxInFlight} are in flight already, then
+         * sends {@code chunk}.
+         */
+        void send(ExecutorService executor, final List<String> chunk) throws InterruptedException {
+            mPermits.acquire();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Object[] results;
+                        try {
+                            results = mAria2.addUris(chunk);
+                        } catch (XmlRpcException e) {
+                            results = new Object[chunk.size()];
+                            for (int i = 0; i < results.length; i++) {
+                                results[i] = e;
+                            }
+                        }
+                        finished(chunk, results);
+                    } finally {
+                        mPermits.release();
+                    }
+                }
+            });
+        }
+
+        void awaitSent() throws InterruptedException {
+            mPermits.acquire(mMaxInFlight);
+            mPermits.release(mMaxInFlight);
+        }
+
+        private synchronized void finished(List<String> chunk, Object[] results) {
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] instanceof XmlRpcException) {
+                    mFailed++;
+                    mListener.onUriFailed(chunk.get(i), (XmlRpcException) results[i]);
+                } else {
+                    mAdded++;
+                }
+            }
+            mListener.onProgress(getProgress());
+        }
+    }
+}
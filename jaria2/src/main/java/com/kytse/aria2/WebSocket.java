@@ -0,0 +1,346 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A small RFC 6455 client, just enough to talk to aria2's text-only JSON-RPC endpoint.
+ *
+ * Frames are read on a dedicated daemon thread and complete text messages are handed to the
+ * {@link Listener} on that thread.
+ */
+class WebSocket {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xa;
+
+    interface Listener {
+
+        void onWebSocketMessage(String message);
+
+        void onWebSocketClosed(IOException cause);
+    }
+
+    private final Socket mSocket;
+    private final InputStream mInput;
+    private final OutputStream mOutput;
+    private final Listener mListener;
+    private final SecureRandom mRandom = new SecureRandom();
+
+    private volatile boolean mOpen;
+
+    private WebSocket(Socket socket, InputStream input, Listener listener) throws IOException {
+        mSocket = socket;
+        mInput = input;
+        mOutput = socket.getOutputStream();
+        mListener = listener;
+    }
+
+    static WebSocket connect(URI uri, int timeout, Listener listener) throws IOException {
+        boolean secure = "wss".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+
+        Socket socket = secure ? SSLSocketFactory.getDefault().createSocket() : new Socket();
+        try {
+            socket.connect(new InetSocketAddress(uri.getHost(), port), timeout);
+            socket.setSoTimeout(timeout);
+            socket.setTcpNoDelay(true);
+            if (secure) {
+                // The secret goes over this socket, so the certificate must be for this host.
+                SSLSocket sslSocket = (SSLSocket) socket;
+                sslSocket.startHandshake();
+                if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(uri.getHost(), sslSocket.getSession())) {
+                    throw new IOException(String.format("Certificate is not valid for %s", uri.getHost()));
+                }
+            }
+
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            handshake(uri, port, socket.getOutputStream(), input);
+            socket.setSoTimeout(0);
+
+            WebSocket webSocket = new WebSocket(socket, input, listener);
+            webSocket.mOpen = true;
+            webSocket.startReader();
+            return webSocket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    boolean isOpen() {
+        return mOpen;
+    }
+
+    void send(String message) throws IOException {
+        sendFrame(OPCODE_TEXT, message.getBytes(UTF_8));
+    }
+
+    void close() {
+        if (!mOpen) {
+            return;
+        }
+
+        try {
+            sendFrame(OPCODE_CLOSE, new byte[0]);
+        } catch (IOException ignored) {
+            // The socket is torn down below regardless.
+        }
+        shutdown(null);
+    }
+
+    private static void handshake(URI uri, int port, OutputStream output, InputStream input)
+            throws IOException {
+        byte[] nonce = new byte[16];
+        new SecureRandom().nextBytes(nonce);
+        String key = Base64.encode(nonce);
+
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path = path + "?" + uri.getRawQuery();
+        }
+
+        String request = "GET " + path + " HTTP/1.1\r\n" +
+                "Host: " + uri.getHost() + ":" + port + "\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: " + key + "\r\n" +
+                "Sec-WebSocket-Version: 13\r\n" +
+                "\r\n";
+        output.write(request.getBytes(UTF_8));
+        output.flush();
+
+        String statusLine = HttpLines.readLine(input);
+        if (!statusLine.startsWith("HTTP/1.1 101")) {
+            throw new IOException(String.format("WebSocket upgrade rejected: %s", statusLine));
+        }
+
+        String accept = null;
+        String line;
+        while (!(line = HttpLines.readLine(input)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().toLowerCase(Locale.US)
+                    .equals("sec-websocket-accept")) {
+                accept = line.substring(colon + 1).trim();
+            }
+        }
+
+        if (!expectedAccept(key).equals(accept)) {
+            throw new IOException("Invalid Sec-WebSocket-Accept");
+        }
+    }
+
+    static String expectedAccept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.encode(sha1.digest((key + ACCEPT_GUID).getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void startReader() {
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "aria2-websocket");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Adds the payload of a frame to the message being read, and hands the message over once the
+     * final frame is in.
+     *
+     * @return the opcode of the message still being read, or -1 if it is complete
+     */
+    private int appendFragment(ByteArrayOutputStream message, int messageOpcode, byte[] payload, boolean fin)
+            throws IOException {
+        message.write(payload);
+        if (!fin) {
+            return messageOpcode;
+        }
+
+        if (messageOpcode == OPCODE_TEXT) {
+            mListener.onWebSocketMessage(new String(message.toByteArray(), UTF_8));
+        }
+        message.reset();
+        return -1;
+    }
+
+    private void readLoop() {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        int messageOpcode = -1;
+
+        try {
+            while (mOpen) {
+                int b0 = readByte();
+                int b1 = readByte();
+                boolean fin = (b0 & 0x80) != 0;
+                int opcode = b0 & 0x0f;
+                boolean masked = (b1 & 0x80) != 0;
+
+                long length = b1 & 0x7f;
+                if (length == 126) {
+                    length = (readByte() << 8) | readByte();
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | readByte();
+                    }
+                }
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("WebSocket frame too large");
+                }
+
+                byte[] mask = null;
+                if (masked) {
+                    mask = new byte[4];
+                    readFully(mask);
+                }
+
+                byte[] payload = new byte[(int) length];
+                readFully(payload);
+                if (mask != null) {
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i & 3];
+                    }
+                }
+
+                switch (opcode) {
+                    case OPCODE_PING:
+                        sendFrame(OPCODE_PONG, payload);
+                        break;
+                    case OPCODE_PONG:
+                        break;
+                    case OPCODE_CLOSE:
+                        shutdown(null);
+                        return;
+                    case OPCODE_TEXT:
+                    case OPCODE_BINARY:
+                        message.reset();
+                        messageOpcode = appendFragment(message, opcode, payload, fin);
+                        break;
+                    case OPCODE_CONTINUATION:
+                        messageOpcode = appendFragment(message, messageOpcode, payload, fin);
+                        break;
+                    default:
+                        throw new IOException(String.format("Unknown WebSocket opcode %d", opcode));
+                }
+            }
+        } catch (IOException e) {
+            shutdown(mOpen ? e : null);
+        }
+    }
+
+    private int readByte() throws IOException {
+        int b = mInput.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = mInput.read(buffer, offset, buffer.length - offset);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+
+    private synchronized void sendFrame(int opcode, byte[] payload) throws IOException {
+        if (!mOpen) {
+            throw new IOException("WebSocket is closed");
+        }
+
+        int headerLength = 2 + 4 + (payload.length > 0xffff ? 8 : payload.length > 125 ? 2 : 0);
+        byte[] frame = new byte[headerLength + payload.length];
+        int pos = 0;
+
+        frame[pos++] = (byte) (0x80 | opcode);
+        if (payload.length > 0xffff) {
+            frame[pos++] = (byte) (0x80 | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                frame[pos++] = (byte) (((long) payload.length) >>> shift);
+            }
+        } else if (payload.length > 125) {
+            frame[pos++] = (byte) (0x80 | 126);
+            frame[pos++] = (byte) (payload.length >>> 8);
+            frame[pos++] = (byte) payload.length;
+        } else {
+            frame[pos++] = (byte) (0x80 | payload.length);
+        }
+
+        byte[] mask = new byte[4];
+        mRandom.nextBytes(mask);
+        System.arraycopy(mask, 0, frame, pos, 4);
+        pos += 4;
+
+        for (int i = 0; i < payload.length; i++) {
+            frame[pos + i] = (byte) (payload[i] ^ mask[i & 3]);
+        }
+
+        mOutput.write(frame);
+        mOutput.flush();
+    }
+
+    private void shutdown(IOException cause) {
+        synchronized (this) {
+            if (!mOpen) {
+                return;
+            }
+            mOpen = false;
+        }
+
+        try {
+            mSocket.close();
+        } catch (IOException ignored) {
+            // Nothing left to release.
+        }
+        mListener.onWebSocketClosed(cause);
+    }
+}
@@ -0,0 +1,181 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JSON-RPC client on top of aria2's WebSocket endpoint ({@code ws://host:port/jsonrpc}).
+ *
+ * Besides request/response calls, the socket carries aria2's event notifications
+ * ({@code aria2.onDownloadStart} and friends), which are forwarded to an
+ * {@link OnNotificationListener}. Errors are reported as {@link XmlRpcException} so callers can
+ * treat both protocols alike.
+ */
+class WebSocketTransport implements Transport, WebSocket.Listener {
+
+    static final int DEFAULT_TIMEOUT = 10000;
+
+    interface OnNotificationListener {
+
+        void onNotification(String method, String gid);
+
+        void onDisconnected();
+    }
+
+    private final AtomicInteger mNextId = new AtomicInteger();
+    private final Map<String, PendingCall> mPendingCalls = new ConcurrentHashMap<>();
+    private final OnNotificationListener mListener;
+    private final int mTimeout;
+
+    private WebSocket mWebSocket;
+
+    WebSocketTransport(OnNotificationListener listener, int timeout) {
+        mListener = listener;
+        mTimeout = timeout;
+    }
+
+    void connect(URI uri) throws XmlRpcException {
+        try {
+            mWebSocket = WebSocket.connect(uri, mTimeout, this);
+        } catch (IOException e) {
+            throw new XmlRpcException(String.format("Failed to connect to %s", uri), e);
+        }
+    }
+
+    boolean isConnected() {
+        return mWebSocket != null && mWebSocket.isOpen();
+    }
+
+    void close() {
+        if (mWebSocket != null) {
+            mWebSocket.close();
+        }
+    }
+
+    @Override
+    public Object execute(String method, Object[] params) throws XmlRpcException {
+        if (!isConnected()) {
+            throw new XmlRpcException("WebSocket is not connected");
+        }
+
+        String id = Integer.toString(mNextId.incrementAndGet());
+        Map<String, Object> request = JsonRpcHttpTransport.requestOf(id, method, params);
+
+        PendingCall call = new PendingCall();
+        mPendingCalls.put(id, call);
+        try {
+            mWebSocket.send(Json.encode(request));
+            return call.await(mTimeout);
+        } catch (IOException e) {
+            throw new XmlRpcException(String.format("Failed to call %s", method), e);
+        } finally {
+            mPendingCalls.remove(id);
+        }
+    }
+
+    @Override
+    public void onWebSocketMessage(String message) {
+        Object decoded;
+        try {
+            decoded = Json.decode(message);
+        } catch (IllegalArgumentException ignored) {
+            // Not JSON, so neither a response nor a notification of ours.
+            return;
+        }
+
+        if (!(decoded instanceof Map)) {
+            return;
+        }
+        Map response = (Map) decoded;
+
+        Object id = response.get("id");
+        if (id != null) {
+            PendingCall call = mPendingCalls.get(String.valueOf(id));
+            if (call != null) {
+                call.complete(response);
+            }
+            return;
+        }
+
+        Object method = response.get("method");
+        Object params = response.get("params");
+        if (method instanceof String && params instanceof Object[]) {
+            for (Object event :
+                    (Object[]) params) {
+                if (event instanceof Map && ((Map) event).get("gid") instanceof String) {
+                    mListener.onNotification((String) method, (String) ((Map) event).get("gid"));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onWebSocketClosed(IOException cause) {
+        for (PendingCall call :
+                mPendingCalls.values()) {
+            call.fail(new XmlRpcException("WebSocket closed", cause));
+        }
+        mListener.onDisconnected();
+    }
+
+    private static class PendingCall {
+
+        private Map mResponse;
+        private XmlRpcException mException;
+        private boolean mDone;
+
+        synchronized void complete(Map response) {
+            mResponse = response;
+            mDone = true;
+            notifyAll();
+        }
+
+        synchronized void fail(XmlRpcException exception) {
+            mException = exception;
+            mDone = true;
+            notifyAll();
+        }
+
+        synchronized Object await(long timeout) throws XmlRpcException {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (!mDone) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new XmlRpcException("Timed out waiting for aria2");
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new XmlRpcException("Interrupted waiting for aria2", e);
+                }
+            }
+
+            if (mException != null) {
+                throw mException;
+            }
+
+            return JsonRpcHttpTransport.resultOf(mResponse);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.common.TypeFactoryImpl;
+import org.apache.xmlrpc.common.XmlRpcStreamConfig;
+import org.apache.xmlrpc.serializer.TypeSerializer;
+import org.apache.xmlrpc.serializer.TypeSerializerImpl;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.net.URL;
+
+/**
+ * XML-RPC over HTTP, at aria2's {@code /rpc} endpoint.
+ */
+class XmlRpcClientTransport implements Transport {
+
+    // Writes the placeholder of an upload as a base64 value, for the transport to splice in.
+    private static final TypeSerializer UPLOAD_SERIALIZER = new TypeSerializerImpl() {
+        @Override
+        public void write(ContentHandler handler, Object object) throws SAXException {
+            write(handler, "base64", ((Upload) object).getPlaceholder());
+        }
+    };
+
+    private final XmlRpcClient mClient;
+
+    XmlRpcClientTransport(URL url, HttpConnectionPool pool) {
+        XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
+        config.setServerURL(url);
+        mClient = new XmlRpcClient();
+        mClient.setConfig(config);
+        mClient.setTypeFactory(new TypeFactoryImpl(mClient) {
+            @Override
+            public TypeSerializer getSerializer(XmlRpcStreamConfig config, Object object) throws SAXException {
+                if (object instanceof Upload) {
+                    return UPLOAD_SERIALIZER;
+                }
+                return super.getSerializer(config, object);
+            }
+        });
+        mClient.setTransportFactory(new DownloadTransportFactory(mClient, pool, url.getFile()));
+    }
+
+    @Override
+    public Object execute(String method, Object[] params) throws XmlRpcException {
+        return mClient.execute(method, params);
+    }
+}
@@ -0,0 +1,167 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Aria2AsyncTest {
+
+    private static final String GID = "2089b05ecca3d829";
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final AtomicInteger mCalls = new AtomicInteger();
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private volatile boolean mBlocking;
+
+    private FakeHttpServer mServer;
+    private Aria2Async mAsync;
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mAsync.shutdown();
+        mServer.close();
+    }
+
+    @Test
+    public void callsCanBeChained() throws Exception {
+        start(2, 8);
+
+        final AtomicReference<Download> added = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        mAsync.addUri("http://example.com/file.iso")
+                .then(new Aria2Future.Continuation<String, Download>() {
+                    @Override
+                    public Download then(String gid) throws XmlRpcException {
+                        return mAsync.getAria2().tellStatus(gid);
+                    }
+                })
+                .addCallback(new Aria2Future.Callback<Download>() {
+                    @Override
+                    public void onSuccess(Download result) {
+                        added.set(result);
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(XmlRpcException e) {
+                        done.countDown();
+                    }
+                }, DIRECT);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Gid.parse(GID), added.get().getGID());
+        assertEquals(2, mCalls.get());
+    }
+
+    @Test
+    public void failureReachesTheCallback() throws Exception {
+        start(2, 8);
+
+        final AtomicReference<XmlRpcException> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        mAsync.pause("unknown").addCallback(new Aria2Future.Callback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(XmlRpcException e) {
+                failure.set(e);
+                done.countDown();
+            }
+        }, DIRECT);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, failure.get().code);
+    }
+
+    @Test
+    public void queueIsBoundedAndCancelledCallsAreNotSent() throws Exception {
+        start(1, 1);
+        mBlocking = true;
+
+        Aria2Future<String> running = mAsync.addUri("http://example.com/1");
+        Aria2Future<String> queued = mAsync.addUri("http://example.com/2");
+        Aria2Future<String> rejected = mAsync.addUri("http://example.com/3");
+
+        try {
+            rejected.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof XmlRpcException);
+        }
+
+        assertTrue(queued.cancel(false));
+        mRelease.countDown();
+
+        assertEquals(GID, running.get(5, TimeUnit.SECONDS));
+        mAsync.shutdown();
+        assertEquals(1, mCalls.get());
+    }
+
+    private void start(int threads, int queueCapacity) throws Exception {
+        mServer = new FakeHttpServer(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) throws XmlRpcException {
+                mCalls.incrementAndGet();
+                if (mBlocking) {
+                    try {
+                        mRelease.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                switch (method) {
+                    case "aria2.addUri":
+                        return GID;
+                    case "aria2.tellStatus":
+                        Map<String, Object> status = new HashMap<>();
+                        status.put("gid", params[0]);
+                        status.put("status", "waiting");
+                        return status;
+                    default:
+                        throw new XmlRpcException(1, String.format("GID %s is not found", params[0]));
+                }
+            }
+        });
+        mAsync = new Aria2Async(new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC),
+                threads, queueCapacity);
+    }
+}
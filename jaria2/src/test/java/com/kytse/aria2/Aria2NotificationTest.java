@@ -0,0 +1,157 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Aria2NotificationTest {
+
+    private static final String GID = "2089b05ecca3d829";
+
+    private FakeWebSocketServer mServer;
+    private Aria2 mAria2;
+
+    private volatile String mStatus = "active";
+    private final List<String> mCalls = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FakeWebSocketServer(new FakeWebSocketServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) {
+                synchronized (mCalls) {
+                    mCalls.add(method + " " + params[0] + " " + params[1]);
+                }
+                return status(mStatus);
+            }
+        });
+        mAria2 = new Aria2(mServer.getUrl(), "secret");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mAria2.close();
+        mServer.close();
+    }
+
+    @Test
+    public void notificationFetchesOnlyTheAffectedDownload() throws Exception {
+        mAria2.connectNotification();
+        assertTrue(mAria2.isNotificationConnected());
+
+        mServer.push(notification("aria2.onDownloadStart"));
+        waitForListSize(Aria2.ListType.ACTIVE, 1);
+
+        assertEquals(Gid.parse(GID), mAria2.getList(Aria2.ListType.ACTIVE).get(0).getGID());
+        synchronized (mCalls) {
+            assertEquals(1, mCalls.size());
+            assertEquals("aria2.tellStatus token:secret " + GID, mCalls.get(0));
+        }
+    }
+
+    @Test
+    public void notificationMovesDownloadBetweenLists() throws Exception {
+        mAria2.connectNotification();
+
+        mServer.push(notification("aria2.onDownloadStart"));
+        waitForListSize(Aria2.ListType.ACTIVE, 1);
+
+        mStatus = "complete";
+        mServer.push(notification("aria2.onDownloadComplete"));
+        waitForListSize(Aria2.ListType.STOPPED, 1);
+
+        assertEquals(0, mAria2.getList(Aria2.ListType.ACTIVE).size());
+        assertEquals(Download.Status.COMPLETE,
+                mAria2.getList(Aria2.ListType.STOPPED).get(0).getStatus());
+    }
+
+    @Test
+    public void disconnectStopsNotification() throws Exception {
+        mAria2.connectNotification();
+        mAria2.disconnectNotification();
+
+        assertFalse(mAria2.isNotificationConnected());
+    }
+
+    @Test
+    public void closeStopsTheNotificationThread() throws Exception {
+        mAria2.connectNotification();
+        mServer.push(notification("aria2.onDownloadStart"));
+        waitForListSize(Aria2.ListType.ACTIVE, 1);
+
+        mAria2.close();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hasNotificationThread() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(hasNotificationThread());
+    }
+
+    private static boolean hasNotificationThread() {
+        for (Thread thread :
+                Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("aria2-notification")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void waitForListSize(Aria2.ListType type, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mAria2.getList(type).size() != size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, mAria2.getList(type).size());
+    }
+
+    private static String notification(String method) {
+        return String.format("{\"jsonrpc\":\"2.0\",\"method\":\"%s\",\"params\":[{\"gid\":\"%s\"}]}",
+                method, GID);
+    }
+
+    private static Map<String, Object> status(String status) {
+        Map<String, Object> file = new HashMap<>();
+        file.put("index", "1");
+        file.put("path", "/downloads/file.iso");
+        file.put("length", "1024");
+        file.put("completedLength", "512");
+        file.put("selected", "true");
+
+        Map<String, Object> download = new HashMap<>();
+        download.put("gid", GID);
+        download.put("status", status);
+        download.put("totalLength", "1024");
+        download.put("completedLength", "512");
+        download.put("downloadSpeed", "100");
+        download.put("uploadSpeed", "0");
+        download.put("dir", "/downloads");
+        download.put("files", new Object[] {file});
+        return download;
+    }
+}
@@ -0,0 +1,217 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Aria2PollerTest {
+
+    private final List<String> mMethods = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger mRunning = new AtomicInteger();
+    private final AtomicInteger mMaxRunning = new AtomicInteger();
+    private volatile long mDelay;
+    private volatile Object mActiveList = new Object[0];
+    private volatile boolean mFailing;
+
+    private FakeHttpServer mServer;
+    private Aria2Poller mPoller;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FakeHttpServer(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) throws XmlRpcException {
+                int running = mRunning.incrementAndGet();
+                mMaxRunning.set(Math.max(mMaxRunning.get(), running));
+                try {
+                    Thread.sleep(mDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                mRunning.decrementAndGet();
+
+                if (mFailing) {
+                    throw new XmlRpcException(1, "Unauthorized");
+                }
+
+                if (!"system.multicall".equals(method)) {
+                    mMethods.add(method);
+                    return resultOf(method);
+                }
+
+                Object[] calls = (Object[]) params[0];
+                Object[] results = new Object[calls.length];
+                for (int i = 0; i < calls.length; i++) {
+                    String methodName = (String) ((Map) calls[i]).get("methodName");
+                    mMethods.add(methodName);
+                    results[i] = new Object[] {resultOf(methodName)};
+                }
+                return results;
+            }
+        });
+        mPoller = new Aria2Poller(new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC), 50, 400, 800);
+    }
+
+    @After
+    public void tearDown() {
+        mPoller.shutdown();
+        mServer.close();
+    }
+
+    @Test
+    public void onlySubscribedListsArePolled() throws Exception {
+        Listener active = new Listener(3);
+        Listener stopped = new Listener(3);
+        Aria2Poller.Subscription first = mPoller.subscribe(Aria2.ListType.ACTIVE, active);
+        Aria2Poller.Subscription second = mPoller.subscribe(Aria2.ListType.STOPPED, stopped);
+
+        assertTrue(active.mPolled.await(5, TimeUnit.SECONDS));
+        assertTrue(stopped.mPolled.await(5, TimeUnit.SECONDS));
+        assertTrue(mMethods.contains("aria2.tellActive"));
+        assertTrue(mMethods.contains("aria2.tellStopped"));
+        assertFalse(mMethods.contains("aria2.tellWaiting"));
+
+        first.cancel();
+        second.cancel();
+    }
+
+    @Test
+    public void ticksDoNotOverlap() throws Exception {
+        mDelay = 120;
+        Listener listener = new Listener(4);
+        mPoller.subscribe(Aria2.ListType.ACTIVE, listener);
+        mPoller.refresh();
+        mPoller.refresh();
+
+        assertTrue(listener.mPolled.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mMaxRunning.get());
+    }
+
+    @Test
+    public void pollingStopsWithTheLastSubscription() throws Exception {
+        Listener listener = new Listener(2);
+        Aria2Poller.Subscription subscription = mPoller.subscribe(Aria2.ListType.WAITING, listener);
+        assertTrue(listener.mPolled.await(5, TimeUnit.SECONDS));
+
+        subscription.cancel();
+        Thread.sleep(100);
+        int calls = mMethods.size();
+        Thread.sleep(200);
+        assertEquals(calls, mMethods.size());
+    }
+
+    @Test
+    public void stableListsBackOff() throws Exception {
+        Listener listener = new Listener(3);
+        mPoller.subscribe(Aria2.ListType.STOPPED, listener);
+        assertTrue(listener.mPolled.await(5, TimeUnit.SECONDS));
+
+        Aria2Poller.Metrics metrics = mPoller.getMetrics();
+        assertEquals(Aria2Poller.Reason.STABLE, metrics.getReason());
+        assertTrue(metrics.getIntervals().get(Aria2.ListType.STOPPED) > 50);
+    }
+
+    @Test
+    public void transferringListsArePolledFast() throws Exception {
+        Map<String, Object> download = new HashMap<>();
+        download.put("gid", "2089b05ecca3d829");
+        download.put("status", "active");
+        download.put("downloadSpeed", "1024");
+        mActiveList = new Object[] {download};
+
+        Listener listener = new Listener(4);
+        mPoller.subscribe(Aria2.ListType.ACTIVE, listener);
+        assertTrue(listener.mPolled.await(5, TimeUnit.SECONDS));
+
+        Aria2Poller.Metrics metrics = mPoller.getMetrics();
+        assertEquals(Aria2Poller.Reason.TRANSFERRING, metrics.getReason());
+        assertEquals(Long.valueOf(50), metrics.getIntervals().get(Aria2.ListType.ACTIVE));
+    }
+
+    @Test
+    public void failuresBackOffAndAreReportedOnce() throws Exception {
+        mFailing = true;
+        Listener listener = new Listener(1);
+        Aria2Poller.Subscription subscription = mPoller.subscribe(Aria2.ListType.ACTIVE, listener);
+
+        Thread.sleep(500);
+        Aria2Poller.Metrics metrics = mPoller.getMetrics();
+        assertEquals(Aria2Poller.Reason.BACKOFF, metrics.getReason());
+        assertTrue(metrics.getFailureCount() >= 2);
+        assertTrue(metrics.getInterval() > 50);
+        assertEquals(1, listener.mFailures.get());
+
+        subscription.cancel();
+        assertEquals(Aria2Poller.Reason.SUSPENDED, mPoller.getMetrics().getReason());
+    }
+
+    @Test
+    public void unexpectedRepliesFailThePollWithoutStoppingIt() throws Exception {
+        mActiveList = "unexpected";
+        Listener listener = new Listener(2);
+        mPoller.subscribe(Aria2.ListType.ACTIVE, listener);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.mFailures.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, listener.mFailures.get());
+        assertEquals(Aria2Poller.Reason.BACKOFF, mPoller.getMetrics().getReason());
+
+        mActiveList = new Object[0];
+        assertTrue(listener.mPolled.await(5, TimeUnit.SECONDS));
+    }
+
+    private Object resultOf(String method) {
+        return "aria2.tellActive".equals(method) ? mActiveList : new Object[0];
+    }
+
+    private static class Listener implements Aria2Poller.OnPollListener {
+
+        private final CountDownLatch mPolled;
+        private final AtomicInteger mFailures = new AtomicInteger();
+
+        Listener(int ticks) {
+            mPolled = new CountDownLatch(ticks);
+        }
+
+        @Override
+        public void onPolled(Aria2.ListType type) {
+            mPolled.countDown();
+        }
+
+        @Override
+        public void onPollFailed(Aria2.ListType type, XmlRpcException e) {
+            mFailures.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchResultTest {
+
+    private static final String UNKNOWN = "ffffffffffffffff";
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final List<Integer> mChunkSizes = new ArrayList<>();
+    private volatile boolean mDown;
+
+    private FakeHttpServer mServer;
+    private Aria2 mAria2;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FakeHttpServer(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) throws XmlRpcException {
+                mRequests.incrementAndGet();
+                if (mDown) {
+                    throw new XmlRpcException(1, "Unauthorized");
+                }
+
+                Object[] calls = (Object[]) params[0];
+                mChunkSizes.add(calls.length);
+                Object[] results = new Object[calls.length];
+                for (int i = 0; i < calls.length; i++) {
+                    Object gid = ((Object[]) ((Map) calls[i]).get("params"))[0];
+                    if (UNKNOWN.equals(gid)) {
+                        Map<String, Object> fault = new HashMap<>();
+                        fault.put("code", 1);
+                        fault.put("message", String.format("GID %s is not found", gid));
+                        results[i] = fault;
+                    } else {
+                        results[i] = new Object[] {gid};
+                    }
+                }
+                return results;
+            }
+        });
+        mAria2 = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void actionsAreSentInChunksWithAResultPerGid() throws Exception {
+        List<String> gids = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            gids.add(String.format("%016x", i));
+        }
+        gids.add(120, UNKNOWN);
+
+        BatchResult result = mAria2.pause(gids);
+
+        assertEquals(3, mRequests.get());
+        assertEquals(Integer.valueOf(Aria2.BATCH_SIZE), mChunkSizes.get(0));
+        assertFalse(result.isSuccessful());
+        assertEquals(250, result.getSucceeded().size());
+        assertEquals(gids.get(0), result.getSucceeded().get(0));
+        assertEquals(1, result.getFailed().size());
+        assertEquals(1, result.getFailed().get(UNKNOWN).code);
+    }
+
+    @Test
+    public void failedRequestFailsItsChunk() throws Exception {
+        mDown = true;
+        List<String> gids = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            gids.add(String.format("%016x", i));
+        }
+
+        BatchResult result = mAria2.remove(gids);
+
+        assertEquals(2, mRequests.get());
+        assertEquals(150, result.getFailed().size());
+        assertTrue(result.getSucceeded().isEmpty());
+    }
+}
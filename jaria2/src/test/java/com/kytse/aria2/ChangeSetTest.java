@@ -0,0 +1,46 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeSetTest {
+
+    @Test
+    public void coalescesAdjacentOperations() {
+        ChangeSet changeSet = new ChangeSet.Builder()
+                .remove(9).remove(8).remove(7)
+                .remove(2).remove(2)
+                .insert(0).insert(1).insert(2)
+                .move(5, 1)
+                .insert(4)
+                .change(0, 1).change(1, 2).change(2, 2).change(4, 4)
+                .build();
+
+        assertEquals("[REMOVE(7+3), REMOVE(2+2), INSERT(0+3), MOVE(5->1), INSERT(4+1), CHANGE(0+3), CHANGE(4+1)]",
+                changeSet.toString());
+        assertEquals(3, changeSet.getChanges().get(5).getPayload());
+        assertEquals(4, changeSet.getChanges().get(6).getPayload());
+    }
+
+    @Test
+    public void emptyBuilderGivesEmptyChangeSet() {
+        assertTrue(new ChangeSet.Builder().build().isEmpty());
+    }
+}
@@ -0,0 +1,183 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoalescingTransportTest {
+
+    private final AtomicInteger mCalls = new AtomicInteger();
+    private final CountDownLatch mStarted = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private volatile boolean mFailing;
+
+    private final CoalescingTransport mTransport = new CoalescingTransport(new Transport() {
+        @Override
+        public Object execute(String method, Object[] params) throws XmlRpcException {
+            mCalls.incrementAndGet();
+            mStarted.countDown();
+            try {
+                mRelease.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new XmlRpcException("Interrupted", e);
+            }
+
+            if (mFailing) {
+                throw new XmlRpcException(1, "Unauthorized");
+            }
+            return new HashMap<String, Object>();
+        }
+    });
+
+    @Test
+    public void concurrentIdenticalReadsAreSentOnce() throws Exception {
+        List<Future<Object>> results = callConcurrently(4, "aria2.tellStatus", "2089b05ecca3d829");
+        Future<Object> other = callConcurrently(1, "aria2.tellStatus", "d2a3f4e5b6c7a8b9").get(0);
+        mRelease.countDown();
+
+        Object first = results.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<Object> result :
+                results) {
+            assertSame(first, result.get(5, TimeUnit.SECONDS));
+        }
+        other.get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, mCalls.get());
+        assertEquals(3, mTransport.getSharedCount());
+    }
+
+    @Test
+    public void faultIsShared() throws Exception {
+        mFailing = true;
+        List<Future<Object>> results = callConcurrently(3, "aria2.getGlobalStat");
+        mRelease.countDown();
+
+        for (Future<Object> result :
+                results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals(1, ((XmlRpcException) e.getCause()).code);
+            }
+        }
+        assertEquals(1, mCalls.get());
+    }
+
+    @Test
+    public void identicalMulticallsAreSentOnce() throws Exception {
+        List<Future<Object>> results = new ArrayList<>();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        for (int i = 0; i < 2; i++) {
+            results.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws XmlRpcException {
+                    Map<String, Object> call = new HashMap<>();
+                    call.put("methodName", "aria2.tellActive");
+                    call.put("params", new Object[] {new Object[] {"gid", "status"}});
+                    return mTransport.execute("system.multicall", new Object[] {new Object[] {call}});
+                }
+            }));
+        }
+        assertTrue(mStarted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        mRelease.countDown();
+
+        assertSame(results.get(0).get(5, TimeUnit.SECONDS), results.get(1).get(5, TimeUnit.SECONDS));
+        assertEquals(1, mCalls.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void cachedResultsExpireAndWritesClearThem() throws Exception {
+        mRelease.countDown();
+        mTransport.setCacheTtl("aria2.getGlobalStat", 10000);
+
+        Object first = mTransport.execute("aria2.getGlobalStat", new Object[0]);
+        assertSame(first, mTransport.execute("aria2.getGlobalStat", new Object[0]));
+        assertEquals(1, mCalls.get());
+        assertEquals(1, mTransport.getCacheHitCount());
+
+        mTransport.execute("aria2.pauseAll", new Object[0]);
+        mTransport.execute("aria2.getGlobalStat", new Object[0]);
+        assertEquals(3, mCalls.get());
+
+        mTransport.setCacheTtl("aria2.getGlobalStat", 1);
+        mTransport.execute("aria2.getGlobalStat", new Object[0]);
+        Thread.sleep(10);
+        mTransport.execute("aria2.getGlobalStat", new Object[0]);
+        assertEquals(5, mCalls.get());
+    }
+
+    @Test
+    public void readInFlightAcrossAWriteIsNotCached() throws Exception {
+        mTransport.setCacheTtl("aria2.getGlobalStat", 10000);
+
+        Future<Object> read = callConcurrently(1, "aria2.getGlobalStat").get(0);
+        // What a write does once it is done, while the read is still waiting for its answer.
+        mTransport.clearCache();
+        mRelease.countDown();
+        read.get(5, TimeUnit.SECONDS);
+
+        mTransport.execute("aria2.getGlobalStat", new Object[0]);
+        assertEquals(2, mCalls.get());
+        assertEquals(0, mTransport.getCacheHitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writesCannotBeCached() {
+        mTransport.setCacheTtl("aria2.addUri", 1000);
+    }
+
+    // Starts the calls and returns once the first has reached the server and the rest are
+    // waiting on it.
+    private List<Future<Object>> callConcurrently(int count, final String method, final Object... params)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        List<Future<Object>> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            results.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws XmlRpcException {
+                    return mTransport.execute(method, params);
+                }
+            }));
+        }
+        assertTrue(mStarted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        executor.shutdown();
+        return results;
+    }
+}
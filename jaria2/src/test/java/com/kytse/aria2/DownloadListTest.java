@@ -0,0 +1,104 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadListTest {
+
+    private static final String GID = "2089b05ecca3d829";
+
+    private volatile String mCompletedLength = "1024";
+
+    private FakeHttpServer mServer;
+    private Aria2 mAria2;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FakeHttpServer(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) throws XmlRpcException {
+                Map<String, Object> status = new HashMap<>();
+                status.put("gid", GID);
+                status.put("status", "active");
+                status.put("totalLength", "4096");
+                status.put("completedLength", mCompletedLength);
+                return new Object[] {status};
+            }
+        });
+        mAria2 = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void publishedVersionsAreNotModified() throws Exception {
+        assertTrue(mAria2.updateList(Aria2.ListType.ACTIVE));
+        DownloadList first = mAria2.getList(Aria2.ListType.ACTIVE);
+        assertEquals(1, first.getVersion());
+
+        mCompletedLength = "2048";
+        assertTrue(mAria2.updateList(Aria2.ListType.ACTIVE));
+        DownloadList second = mAria2.getList(Aria2.ListType.ACTIVE);
+
+        assertEquals(2, second.getVersion());
+        assertEquals(1024, first.get(0).getCompletedLength());
+        assertEquals(2048, second.find(Gid.parse(GID)).getCompletedLength());
+        assertNotSame(first.get(0), second.get(0));
+    }
+
+    @Test
+    public void unchangedRefreshKeepsTheVersion() throws Exception {
+        mAria2.updateList(Aria2.ListType.ACTIVE);
+        DownloadList first = mAria2.getList(Aria2.ListType.ACTIVE);
+
+        assertFalse(mAria2.updateList(Aria2.ListType.ACTIVE));
+        assertSame(first, mAria2.getList(Aria2.ListType.ACTIVE));
+    }
+
+    @Test
+    public void listenersCanBeRemovedWhileNotified() throws Exception {
+        final int[] calls = new int[1];
+        Aria2.OnAria2ListUpdatedListener listener = new Aria2.OnAria2ListUpdatedListener() {
+            @Override
+            public void onAria2ListUpdated(Aria2.ListType type, DownloadList list, ChangeSet changeSet) {
+                calls[0]++;
+                assertEquals(1, changeSet.getChanges().size());
+                mAria2.removeListener(this);
+            }
+        };
+        mAria2.addListener(listener);
+        mAria2.addListener(listener);
+
+        mAria2.updateList(Aria2.ListType.ACTIVE);
+        assertEquals(2, calls[0]);
+    }
+}
@@ -0,0 +1,133 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.util.SAXParsers;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadResponseParserTest {
+
+    private static final String TORRENT = "<struct>"
+            + member("gid", "2089b05ecca3d829")
+            + member("status", "active")
+            + member("totalLength", "5368709120")
+            + member("completedLength", "1024")
+            + member("verifiedLength", "0")
+            + "<member><name>bittorrent</name><value><struct>"
+            + "<member><name>announceList</name><value><array><data>"
+            + "<value><array><data><value><string>http://tracker/announce</string></value></data></array></value>"
+            + "</data></array></value></member>"
+            + "<member><name>info</name><value><struct>" + member("name", "ubuntu.iso") + "</struct></value></member>"
+            + "</struct></value></member>"
+            + "</struct>";
+
+    private static final String HTTP = "<struct>"
+            + member("gid", "d2a3f4e5b6c7a8b9")
+            + member("status", "active")
+            + member("dir", "/downloads")
+            + "<member><name>files</name><value><array><data><value><struct>"
+            + member("index", "1")
+            + member("path", "/downloads/file.zip")
+            + member("length", "2048")
+            + "<member><name>uris</name><value><array><data><value><struct>"
+            + member("uri", "http://example.com/file.zip")
+            + "</struct></value></data></array></value></member>"
+            + "</struct></value></data></array></value></member>"
+            + "</struct>";
+
+    @Test
+    public void decodesListIntoDownloads() throws Exception {
+        Object result = parse(DownloadResponseParser.Shape.DOWNLOADS,
+                response("<array><data><value>" + TORRENT + "</value><value>" + HTTP + "</value></data></array>"));
+
+        Object[] downloads = (Object[]) result;
+        assertEquals(2, downloads.length);
+
+        Download torrent = (Download) downloads[0];
+        assertEquals(Gid.parse("2089b05ecca3d829"), torrent.getGID());
+        assertEquals(Download.Status.ACTIVE, torrent.getStatus());
+        assertEquals(5368709120L, torrent.getTotalLength());
+        assertEquals("ubuntu.iso", torrent.getName());
+        assertFalse(torrent.hasField(Download.Field.FILES));
+
+        Download http = (Download) downloads[1];
+        assertEquals("file.zip", http.getName());
+        assertEquals(1, http.getFiles().size());
+        assertEquals(2048L, http.getFiles().get(0).getLength());
+        assertEquals(0, http.updateDataFrom(new Download(toMap(HTTP))));
+    }
+
+    @Test
+    public void decodesMulticallResults() throws Exception {
+        DownloadResponseParser.Shape shape = DownloadResponseParser.Shape.callsOf(new DownloadResponseParser.Shape[] {
+                DownloadResponseParser.Shape.ANY, DownloadResponseParser.Shape.DOWNLOADS});
+
+        Object[] results = (Object[]) parse(shape, response("<array><data>"
+                + "<value><array><data><value><struct>" + member("numActive", "1") + "</struct></value></data></array></value>"
+                + "<value><array><data><value><array><data><value>" + HTTP + "</value></data></array></value></data></array></value>"
+                + "</data></array>"));
+
+        assertEquals("1", ((Map) ((Object[]) results[0])[0]).get("numActive"));
+        Object[] downloads = (Object[]) ((Object[]) results[1])[0];
+        assertTrue(downloads[0] instanceof Download);
+    }
+
+    @Test
+    public void faultIsThrown() throws Exception {
+        try {
+            parse(DownloadResponseParser.Shape.DOWNLOADS, "<?xml version=\"1.0\"?><methodResponse><fault><value><struct>"
+                    + "<member><name>faultCode</name><value><int>1</int></value></member>"
+                    + member("faultString", "Unauthorized")
+                    + "</struct></value></fault></methodResponse>");
+            fail();
+        } catch (XmlRpcException e) {
+            assertEquals(1, e.code);
+            assertEquals("Unauthorized", e.getMessage());
+        }
+    }
+
+    private static String member(String name, String value) {
+        return String.format("<member><name>%s</name><value><string>%s</string></value></member>", name, value);
+    }
+
+    private static String response(String value) {
+        return "<?xml version=\"1.0\"?><methodResponse><params><param><value>" + value
+                + "</value></param></params></methodResponse>";
+    }
+
+    private static Map<String, Object> toMap(String struct) throws Exception {
+        return (Map<String, Object>) parse(DownloadResponseParser.Shape.ANY, response(struct));
+    }
+
+    private static Object parse(DownloadResponseParser.Shape shape, String xml) throws Exception {
+        DownloadResponseParser parser = new DownloadResponseParser(shape);
+        XMLReader reader = SAXParsers.newXMLReader();
+        reader.setContentHandler(parser);
+        reader.parse(new InputSource(new StringReader(xml)));
+        return parser.getResult();
+    }
+}
@@ -0,0 +1,141 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadTest {
+
+    @Test
+    public void partialStatusLeavesMissingFieldsUnset() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("gid", "2089b05ecca3d829");
+        status.put("status", "paused");
+
+        Download download = new Download(status);
+
+        assertEquals(Download.Status.PAUSED, download.getStatus());
+        assertEquals(0L, download.getTotalLength());
+        assertNull(download.getName());
+        assertNull(download.getFiles());
+        assertTrue(download.hasField(Download.Field.STATUS));
+        assertFalse(download.hasField(Download.Field.TOTAL_LENGTH));
+        assertFalse(download.hasField(Download.Field.NAME));
+    }
+
+    @Test
+    public void torrentNameDoesNotNeedFiles() {
+        Map<String, Object> info = new HashMap<>();
+        info.put("name", "ubuntu.iso");
+        Map<String, Object> bittorrent = new HashMap<>();
+        bittorrent.put("info", info);
+
+        Map<String, Object> status = new HashMap<>();
+        status.put("gid", "2089b05ecca3d829");
+        status.put("status", "active");
+        status.put("bittorrent", bittorrent);
+
+        Download download = new Download(status);
+
+        assertEquals("ubuntu.iso", download.getName());
+        assertTrue(download.hasField(Download.Field.NAME));
+    }
+
+    @Test
+    public void updateKeepsFieldsMissingFromTheUpdate() {
+        Map<String, Object> file = new HashMap<>();
+        file.put("path", "/downloads/file.iso");
+
+        Map<String, Object> full = new HashMap<>();
+        full.put("gid", "2089b05ecca3d829");
+        full.put("status", "active");
+        full.put("totalLength", "1024");
+        full.put("completedLength", "10");
+        full.put("errorMessage", "");
+        full.put("dir", "/downloads");
+        full.put("files", new Object[] {file});
+
+        Map<String, Object> progress = new HashMap<>();
+        progress.put("gid", "2089b05ecca3d829");
+        progress.put("status", "active");
+        progress.put("completedLength", "512");
+
+        Download download = new Download(full);
+
+        assertEquals(Download.CHANGED_PROGRESS, download.updateDataFrom(new Download(progress)));
+        assertEquals(0, download.updateDataFrom(new Download(progress)));
+
+        assertEquals(512L, download.getCompletedLength());
+        assertEquals(1024L, download.getTotalLength());
+        assertEquals("file.iso", download.getName());
+        assertEquals("", download.getErrorMessage());
+    }
+
+    @Test
+    public void numbersAreParsedOnceIntoPrimitives() {
+        Map<String, Object> file = new HashMap<>();
+        file.put("index", "1");
+        file.put("path", "/downloads/big.iso");
+        file.put("length", "5368709120");
+        file.put("completedLength", "3221225472");
+        file.put("selected", "true");
+
+        Map<String, Object> status = new HashMap<>();
+        status.put("gid", "2089b05ecca3d829");
+        status.put("status", "complete");
+        status.put("totalLength", "5368709120");
+        status.put("completedLength", "3221225472");
+        status.put("downloadSpeed", "2684354560");
+        status.put("connections", "16");
+        status.put("seeder", "true");
+        status.put("files", new Object[] {file});
+
+        Download download = new Download(status);
+
+        assertEquals(Download.Status.COMPLETE, download.getStatus());
+        assertEquals(5368709120L, download.getTotalLength());
+        assertEquals(3221225472L, download.getCompletedLength());
+        assertEquals(2684354560L, download.getDownloadSpeed());
+        assertEquals(16, download.getConnections());
+        assertTrue(download.isSeeder());
+        assertEquals(1, download.getFiles().get(0).getIndex());
+        assertEquals(5368709120L, download.getFiles().get(0).getLength());
+        assertTrue(download.getFiles().get(0).isSelected());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void filesAreReadOnly() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("gid", "2089b05ecca3d829");
+        status.put("files", new Object[0]);
+
+        new Download(status).getFiles().clear();
+    }
+
+    @Test
+    public void unknownStatusIsNull() {
+        assertNull(Download.Status.fromKey("unknown"));
+        assertNull(Download.Status.fromKey(null));
+    }
+}
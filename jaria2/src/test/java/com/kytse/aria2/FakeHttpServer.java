@@ -0,0 +1,117 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stand-in for aria2's HTTP JSON-RPC endpoint. Requests are answered by a {@link Handler}; an
+ * {@link XmlRpcException} thrown by it is sent back as a JSON-RPC error with status 400, as aria2
+ * does. Clients that accept gzip get a gzipped, chunked response.
+ */
+class FakeHttpServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    interface Handler {
+
+        Object onRequest(String method, Object[] params) throws XmlRpcException;
+    }
+
+    private final HttpServer mServer;
+
+    private volatile boolean mGzipped;
+
+    FakeHttpServer(final Handler handler) throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        mServer.createContext("/jsonrpc", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Map request = (Map) Json.decode(new String(readFully(exchange.getRequestBody()), UTF_8));
+
+                Map<String, Object> response = new HashMap<>();
+                response.put("jsonrpc", "2.0");
+                response.put("id", request.get("id"));
+                int status = 200;
+                try {
+                    response.put("result", handler.onRequest((String) request.get("method"),
+                            (Object[]) request.get("params")));
+                } catch (XmlRpcException e) {
+                    Map<String, Object> error = new HashMap<>();
+                    error.put("code", e.code);
+                    error.put("message", e.getMessage());
+                    response.put("error", error);
+                    status = 400;
+                }
+
+                byte[] body = Json.encode(response).getBytes(UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json-rpc");
+
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                mGzipped = acceptEncoding != null && acceptEncoding.contains("gzip");
+                OutputStream output;
+                if (mGzipped) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    exchange.sendResponseHeaders(status, 0);
+                    output = new GZIPOutputStream(exchange.getResponseBody());
+                } else {
+                    exchange.sendResponseHeaders(status, body.length);
+                    output = exchange.getResponseBody();
+                }
+                output.write(body);
+                output.close();
+            }
+        });
+        mServer.start();
+    }
+
+    String getUrl() {
+        return String.format("http://127.0.0.1:%d", mServer.getAddress().getPort());
+    }
+
+    boolean wasLastResponseGzipped() {
+        return mGzipped;
+    }
+
+    void close() {
+        mServer.stop(0);
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,178 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Stand-in for aria2's WebSocket JSON-RPC endpoint. Requests are answered by a {@link Handler};
+ * notifications can be pushed at any time with {@link #push(String)}.
+ */
+class FakeWebSocketServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    interface Handler {
+
+        Object onRequest(String method, Object[] params);
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Handler mHandler;
+
+    private volatile Socket mSocket;
+    private OutputStream mOutput;
+
+    FakeWebSocketServer(Handler handler) throws IOException {
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        mHandler = handler;
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serve();
+                } catch (IOException ignored) {
+                    // Closed by the test.
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String getUrl() {
+        return String.format("http://127.0.0.1:%d", mServerSocket.getLocalPort());
+    }
+
+    void close() throws IOException {
+        mServerSocket.close();
+        if (mSocket != null) {
+            mSocket.close();
+        }
+    }
+
+    synchronized void push(String message) throws IOException {
+        byte[] payload = message.getBytes(UTF_8);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(0x81);
+        if (payload.length > 0xffff) {
+            frame.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                frame.write((int) (((long) payload.length) >>> shift));
+            }
+        } else if (payload.length > 125) {
+            frame.write(126);
+            frame.write(payload.length >>> 8);
+            frame.write(payload.length);
+        } else {
+            frame.write(payload.length);
+        }
+        frame.write(payload);
+
+        mOutput.write(frame.toByteArray());
+        mOutput.flush();
+    }
+
+    private void serve() throws IOException {
+        mSocket = mServerSocket.accept();
+        InputStream input = new BufferedInputStream(mSocket.getInputStream());
+        mOutput = mSocket.getOutputStream();
+
+        String key = null;
+        String line;
+        while (!(line = readLine(input)).isEmpty()) {
+            if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+                key = line.substring(line.indexOf(':') + 1).trim();
+            }
+        }
+
+        synchronized (this) {
+            mOutput.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                    "Upgrade: websocket\r\n" +
+                    "Connection: Upgrade\r\n" +
+                    "Sec-WebSocket-Accept: " + WebSocket.expectedAccept(key) + "\r\n" +
+                    "\r\n").getBytes(UTF_8));
+            mOutput.flush();
+        }
+
+        while (true) {
+            int b0 = input.read();
+            int b1 = input.read();
+            if (b0 == -1 || b1 == -1 || (b0 & 0x0f) == 0x8) {
+                return;
+            }
+
+            int length = b1 & 0x7f;
+            if (length == 126) {
+                length = (input.read() << 8) | input.read();
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | input.read();
+                }
+            }
+
+            byte[] mask = new byte[4];
+            readFully(input, mask);
+            byte[] payload = new byte[length];
+            readFully(input, payload);
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i & 3];
+            }
+
+            Map request = (Map) Json.decode(new String(payload, UTF_8));
+            Object result = mHandler.onRequest((String) request.get("method"),
+                    (Object[]) request.get("params"));
+            push(String.format("{\"jsonrpc\":\"2.0\",\"id\":%s,\"result\":%s}",
+                    Json.encode(request.get("id")), Json.encode(result)));
+        }
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int c;
+        while ((c = input.read()) != '\n') {
+            if (c == -1) {
+                throw new IOException("Connection closed");
+            }
+            if (c != '\r') {
+                builder.append((char) c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void readFully(InputStream input, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = input.read(buffer, offset, buffer.length - offset);
+            if (read == -1) {
+                throw new IOException("Connection closed");
+            }
+            offset += read;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class GetFilesTest {
+
+    private static final String GID = "2089b05ecca3d829";
+
+    private volatile String mStatus = "active";
+    private final AtomicInteger mGetFilesCalls = new AtomicInteger();
+
+    private FakeHttpServer mServer;
+    private Aria2 mAria2;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FakeHttpServer(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) throws XmlRpcException {
+                switch (method) {
+                    case "aria2.getFiles":
+                        mGetFilesCalls.incrementAndGet();
+                        return new Object[] {file()};
+                    case "aria2.tellActive":
+                        return "active".equals(mStatus) ? new Object[] {status(false)} : new Object[0];
+                    case "aria2.tellWaiting":
+                        return "paused".equals(mStatus) ? new Object[] {status(false)} : new Object[0];
+                    case "system.multicall":
+                        // The lists leave files out, so the name is looked up with tellStatus.
+                        Object[] calls = (Object[]) params[0];
+                        Object[] results = new Object[calls.length];
+                        for (int i = 0; i < calls.length; i++) {
+                            results[i] = new Object[] {status(true)};
+                        }
+                        return results;
+                    default:
+                        return new Object[0];
+                }
+            }
+        });
+        mAria2 = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+        mAria2.setListFields(Collections.singleton(Download.Field.NAME));
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void listsKeepNamesButNotFiles() throws Exception {
+        mAria2.updateList(Aria2.ListType.ACTIVE);
+
+        Download download = mAria2.getList(Aria2.ListType.ACTIVE).get(0);
+        assertEquals("file.iso", download.getName());
+        assertEquals(1, download.getNumFiles());
+        assertNull(download.getFiles());
+    }
+
+    @Test
+    public void filesAreKeptUntilTheStatusChanges() throws Exception {
+        mAria2.updateList(Aria2.ListType.ACTIVE);
+
+        List<File> files = mAria2.getFiles(GID);
+        assertEquals("/downloads/file.iso", files.get(0).getPath());
+        assertSame(files, mAria2.getFiles(GID));
+        assertEquals(1, mGetFilesCalls.get());
+
+        mStatus = "paused";
+        mAria2.updateList(Aria2.ListType.ACTIVE);
+        mAria2.updateList(Aria2.ListType.WAITING);
+        mAria2.getFiles(GID);
+        assertEquals(2, mGetFilesCalls.get());
+    }
+
+    private static Map<String, Object> file() {
+        Map<String, Object> file = new HashMap<>();
+        file.put("index", "1");
+        file.put("path", "/downloads/file.iso");
+        file.put("length", "1024");
+        file.put("completedLength", "512");
+        file.put("selected", "true");
+        return file;
+    }
+
+    private Map<String, Object> status(boolean withFiles) {
+        Map<String, Object> download = new HashMap<>();
+        download.put("gid", GID);
+        download.put("status", mStatus);
+        download.put("dir", "/downloads");
+        if (withFiles) {
+            download.put("files", new Object[] {file()});
+        }
+        return download;
+    }
+}
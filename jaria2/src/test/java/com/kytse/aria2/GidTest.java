@@ -0,0 +1,77 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GidTest {
+
+    @Test
+    public void convertsBothWays() {
+        assertEquals(0x2089b05ecca3d829L, Gid.parse("2089b05ecca3d829"));
+        assertEquals("2089b05ecca3d829", Gid.toString(0x2089b05ecca3d829L));
+
+        // The top bit is set in half of all GIDs, which Long.parseLong(s, 16) would refuse.
+        assertEquals(0xd2a3f4e5b6c7a8b9L, Gid.parse("D2A3F4E5B6C7A8B9"));
+        assertEquals("d2a3f4e5b6c7a8b9", Gid.toString(0xd2a3f4e5b6c7a8b9L));
+        assertEquals("0000000000000001", Gid.toString(1));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void refusesShortGid() {
+        Gid.parse("2089b05e");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void refusesNonHexGid() {
+        Gid.parse("2089b05ecca3d82g");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void refusesReservedGid() {
+        Gid.parse("80000000ffffffff");
+    }
+
+    @Test
+    public void reservesOnlyItsRange() {
+        assertTrue(Gid.isReserved(Gid.RESERVED_FIRST));
+        assertTrue(Gid.isReserved(Gid.RESERVED_FIRST + Gid.RESERVED_COUNT - 1));
+        assertFalse(Gid.isReserved(Gid.RESERVED_FIRST + Gid.RESERVED_COUNT));
+        assertFalse(Gid.isReserved(Gid.RESERVED_FIRST - 1));
+        assertFalse(Gid.isReserved(0));
+        assertEquals(0x8000000100000000L, Gid.parse("8000000100000000"));
+    }
+
+    @Test
+    public void indexesGids() {
+        GidIndex index = new GidIndex(1000);
+        for (int i = 0; i < 1000; i++) {
+            // Only the high bits differ, which a table keyed on the low bits would pile up.
+            assertEquals(-1, index.putIfAbsent((long) i << 48, i));
+        }
+
+        assertEquals(7, index.putIfAbsent(7L << 48, 0));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, index.get((long) i << 48));
+        }
+        assertEquals(-1, index.get(1));
+    }
+}
@@ -0,0 +1,236 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpConnectionPoolTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String GID = "<?xml version=\"1.0\"?><methodResponse><params><param>"
+            + "<value><string>2089b05ecca3d829</string></value></param></params></methodResponse>";
+
+    private static final String EMPTY_LIST = "<?xml version=\"1.0\"?><methodResponse><params><param>"
+            + "<value><array><data></data></array></value></param></params></methodResponse>";
+
+    // What serve() does with a connection once it has answered a request.
+    private static final int KEEP_OPEN = 0;
+    private static final int DROP_AFTER_RESPONSE = 1;
+    private static final int DROP_UNANSWERED = 2;
+
+    private FakeHttpServer mHttpServer;
+    private ServerSocket mServerSocket;
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    @After
+    public void tearDown() throws IOException {
+        if (mHttpServer != null) {
+            mHttpServer.close();
+        }
+        if (mServerSocket != null) {
+            mServerSocket.close();
+        }
+    }
+
+    @Test
+    public void callsReuseOneGzippedConnection() throws Exception {
+        mHttpServer = new FakeHttpServer(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) {
+                return new Object[0];
+            }
+        });
+        Aria2 aria2 = new Aria2(mHttpServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, aria2.tellActive(null).size());
+        }
+
+        assertTrue(mHttpServer.wasLastResponseGzipped());
+        HttpConnectionPool pool = aria2.getConnectionPool();
+        assertEquals(1, pool.getConnectionsOpened());
+        assertEquals(3, pool.getRequestCount());
+        assertEquals(2, pool.getReuseCount());
+
+        List<HttpConnectionPool.ConnectionStats> stats = pool.getConnectionStats();
+        assertEquals(1, stats.size());
+        assertEquals(3, stats.get(0).getRequestCount());
+        assertTrue(stats.get(0).isIdle());
+    }
+
+    @Test
+    public void xmlRpcGoesThroughThePool() throws Exception {
+        Aria2 aria2 = new Aria2(serve(EMPTY_LIST, KEEP_OPEN), null);
+
+        aria2.tellActive(null);
+        aria2.tellActive(null);
+
+        assertEquals(1, aria2.getConnectionPool().getConnectionsOpened());
+        assertEquals(1, aria2.getConnectionPool().getReuseCount());
+    }
+
+    @Test
+    public void droppedIdleConnectionIsReplaced() throws Exception {
+        Aria2 aria2 = new Aria2(serve(EMPTY_LIST, DROP_AFTER_RESPONSE), null);
+
+        aria2.tellActive(null);
+        aria2.tellActive(null);
+
+        assertEquals(2, aria2.getConnectionPool().getConnectionsOpened());
+        assertEquals(2, aria2.getConnectionPool().getRequestCount());
+    }
+
+    @Test
+    public void requestDroppedAfterReadingIsNotSentAgain() throws Exception {
+        Aria2 aria2 = new Aria2(serve(GID, DROP_UNANSWERED), null);
+
+        aria2.pause("2089b05ecca3d829");
+        try {
+            aria2.pause("2089b05ecca3d829");
+            fail();
+        } catch (XmlRpcException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+        }
+
+        assertEquals(2, mRequests.get());
+        assertEquals(1, aria2.getConnectionPool().getConnectionsOpened());
+    }
+
+    @Test
+    public void readOnlyRequestDroppedAfterReadingIsSentAgain() throws Exception {
+        Aria2 aria2 = new Aria2(serve(EMPTY_LIST, DROP_UNANSWERED), null);
+
+        aria2.tellActive(null);
+        aria2.tellActive(null);
+
+        assertEquals(3, mRequests.get());
+        assertEquals(2, aria2.getConnectionPool().getConnectionsOpened());
+    }
+
+    @Test
+    public void readTimeoutIsApplied() throws Exception {
+        Aria2 aria2 = new Aria2(serve(null, KEEP_OPEN), null);
+        aria2.getConnectionPool().setReadTimeout(200);
+
+        long start = System.currentTimeMillis();
+        try {
+            aria2.tellActive(null);
+            fail();
+        } catch (XmlRpcException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof SocketTimeoutException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(0, aria2.getConnectionPool().getConnectionStats().size());
+    }
+
+    /**
+     * Starts a server that answers every request with {@code response}, or never answers if it is
+     * {@code null}. With {@link #DROP_AFTER_RESPONSE} it closes the connection after each response
+     * without saying so, as a server dropping an idle keep-alive connection would. With
+     * {@link #DROP_UNANSWERED} it reads the next request first, and closes the connection without
+     * answering it.
+     */
+    private String serve(final String response, final int drop) throws IOException {
+        mServerSocket = new ServerSocket(0, 4, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = mServerSocket.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    serve(socket, response, drop);
+                                } catch (IOException ignored) {
+                                    // The client went away.
+                                }
+                            }
+                        }).start();
+                    }
+                } catch (IOException ignored) {
+                    // Closed by the test.
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+
+        return String.format("http://127.0.0.1:%d", mServerSocket.getLocalPort());
+    }
+
+    private void serve(Socket socket, String response, int drop) throws IOException {
+        InputStream input = socket.getInputStream();
+        OutputStream output = socket.getOutputStream();
+        boolean answered = false;
+        try {
+            while (true) {
+                int contentLength = 0;
+                String line;
+                while (!(line = HttpLines.readLine(input)).isEmpty()) {
+                    if (line.toLowerCase().startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(line.substring(15).trim());
+                    }
+                }
+                for (int i = 0; i < contentLength; i++) {
+                    input.read();
+                }
+                mRequests.incrementAndGet();
+
+                if (response == null) {
+                    continue;
+                }
+                if (answered && drop == DROP_UNANSWERED) {
+                    return;
+                }
+
+                byte[] body = response.getBytes(UTF_8);
+                output.write(String.format("HTTP/1.1 200 OK\r\nContent-Type: text/xml\r\nContent-Length: %d\r\n\r\n",
+                        body.length).getBytes(UTF_8));
+                output.write(body);
+                output.flush();
+
+                answered = true;
+
+                if (drop == DROP_AFTER_RESPONSE) {
+                    return;
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JsonRpcHttpTransportTest {
+
+    private static final String GID = "2089b05ecca3d829";
+
+    private FakeHttpServer mServer;
+    private final List<String> mCalls = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void listsAreFetchedOverJsonRpc() throws Exception {
+        Aria2 aria2 = start(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) {
+                mCalls.add(method + " " + params[0]);
+                return new Object[] {status()};
+            }
+        });
+
+        List<Download> downloads = aria2.tellActive(null);
+
+        assertEquals(Arrays.asList("aria2.tellActive token:secret"), mCalls);
+        assertEquals(1, downloads.size());
+        assertEquals(Gid.parse(GID), downloads.get(0).getGID());
+        assertEquals(5368709120L, downloads.get(0).getTotalLength());
+        assertEquals("ubuntu.iso", downloads.get(0).getName());
+    }
+
+    @Test
+    public void errorIsThrownWithItsCode() throws Exception {
+        Aria2 aria2 = start(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) throws XmlRpcException {
+                throw new XmlRpcException(1, "Unauthorized");
+            }
+        });
+
+        try {
+            aria2.tellActive(null);
+            fail();
+        } catch (XmlRpcException e) {
+            assertEquals(1, e.code);
+            assertEquals("Unauthorized", e.getMessage());
+        }
+    }
+
+    @Test
+    public void multicallErrorIsThrown() throws Exception {
+        Aria2 aria2 = start(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("code", 1);
+                error.put("message", "Unauthorized");
+                Object[] results = new Object[((Object[]) params[0]).length];
+                Arrays.fill(results, error);
+                return results;
+            }
+        });
+
+        try {
+            aria2.updateLists(EnumSet.allOf(Aria2.ListType.class));
+            fail();
+        } catch (XmlRpcException e) {
+            assertEquals(1, e.code);
+            assertEquals("Unauthorized", e.getMessage());
+        }
+    }
+
+    private Aria2 start(FakeHttpServer.Handler handler) throws Exception {
+        mServer = new FakeHttpServer(handler);
+        return new Aria2(mServer.getUrl(), "secret", Transport.Protocol.JSON_RPC);
+    }
+
+    private static Map<String, Object> status() {
+        Map<String, Object> info = new HashMap<>();
+        info.put("name", "ubuntu.iso");
+        Map<String, Object> bittorrent = new HashMap<>();
+        bittorrent.put("info", info);
+
+        Map<String, Object> status = new HashMap<>();
+        status.put("gid", GID);
+        status.put("status", "active");
+        status.put("totalLength", "5368709120");
+        status.put("bittorrent", bittorrent);
+        return status;
+    }
+}
@@ -0,0 +1,215 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ListDiffTest {
+
+    @Test
+    public void emptyLists() {
+        check(Collections.<Integer>emptyList(), Collections.<Integer>emptyList());
+        check(Arrays.asList(1, 2, 3), Collections.<Integer>emptyList());
+        check(Collections.<Integer>emptyList(), Arrays.asList(1, 2, 3));
+    }
+
+    @Test
+    public void removesEveryTrailingItem() {
+        List<ListDiff.Operation> operations = check(Arrays.asList(1, 2, 3, 4, 5), Arrays.asList(1, 2));
+
+        assertEquals(3, operations.size());
+    }
+
+    @Test
+    public void unchangedListHasNoOperations() {
+        assertEquals(0, check(Arrays.asList(1, 2, 3), Arrays.asList(1, 2, 3)).size());
+    }
+
+    @Test
+    public void rotationIsASingleMove() {
+        assertEquals(1, check(Arrays.asList(1, 2, 3, 4, 5), Arrays.asList(5, 1, 2, 3, 4)).size());
+        assertEquals(1, check(Arrays.asList(1, 2, 3, 4, 5), Arrays.asList(2, 3, 4, 5, 1)).size());
+    }
+
+    @Test
+    public void randomLists() {
+        Random random = new Random(20160801);
+
+        for (int round = 0; round < 2000; round++) {
+            int universe = 1 + random.nextInt(60);
+            List<Integer> source = randomSubsequence(random, universe);
+            List<Integer> target = randomSubsequence(random, universe);
+
+            if (random.nextBoolean()) {
+                // Mostly-sorted targets, like a poll where a few downloads changed state.
+                target = new ArrayList<>(source);
+                for (int i = random.nextInt(4); i > 0 && !target.isEmpty(); i--) {
+                    target.remove(random.nextInt(target.size()));
+                }
+                for (int i = random.nextInt(4); i > 0; i--) {
+                    Integer key = universe + i;
+                    target.add(random.nextInt(target.size() + 1), key);
+                }
+                if (target.size() > 1 && random.nextBoolean()) {
+                    target.add(random.nextInt(target.size()), target.remove(random.nextInt(target.size())));
+                }
+            }
+
+            check(source, target);
+        }
+    }
+
+    @Test
+    public void largeListIsFast() {
+        List<Integer> source = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            source.add(i);
+        }
+        List<Integer> target = new ArrayList<>(source);
+        Collections.shuffle(target, new Random(1));
+
+        long start = System.nanoTime();
+        ListDiff diff = ListDiff.compute(source, target);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(String.format("took %d ms", elapsedMillis), elapsedMillis < 2000);
+        assertEquals(0, countOf(diff, ListDiff.Operation.Type.INSERT));
+        assertEquals(0, countOf(diff, ListDiff.Operation.Type.REMOVE));
+    }
+
+    private static int countOf(ListDiff diff, ListDiff.Operation.Type type) {
+        int count = 0;
+        for (ListDiff.Operation operation :
+                diff.getOperations()) {
+            if (operation.getType() == type) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<Integer> randomSubsequence(Random random, int universe) {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < universe; i++) {
+            if (random.nextInt(3) != 0) {
+                keys.add(i);
+            }
+        }
+        Collections.shuffle(keys, random);
+        return keys;
+    }
+
+    /**
+     * Applies the operations in order, as RecyclerView would, and checks the outcome against the
+     * target list and the minimal number of operations.
+     */
+    private static List<ListDiff.Operation> check(List<Integer> source, List<Integer> target) {
+        ListDiff diff = ListDiff.compute(source, target);
+
+        // Lists of GIDs are matched through a GidIndex rather than a HashMap, to the same effect.
+        ListDiff gidDiff = ListDiff.compute(gidsOf(source), gidsOf(target));
+        assertEquals(diff.getOperations().toString(), gidDiff.getOperations().toString());
+
+        Set<Integer> sourceKeys = new HashSet<>(source);
+        Set<Integer> targetKeys = new HashSet<>(target);
+        List<Integer> inserted = new ArrayList<>();
+        List<Integer> survivorTargets = new ArrayList<>();
+        for (Integer key :
+                target) {
+            if (!sourceKeys.contains(key)) {
+                inserted.add(key);
+            }
+        }
+        for (Integer key :
+                source) {
+            if (targetKeys.contains(key)) {
+                survivorTargets.add(target.indexOf(key));
+            }
+        }
+
+        List<Integer> working = new ArrayList<>(source);
+        Iterator<Integer> insertions = inserted.iterator();
+        int removes = 0;
+        int inserts = 0;
+        int moves = 0;
+        for (ListDiff.Operation operation :
+                diff.getOperations()) {
+            switch (operation.getType()) {
+                case REMOVE:
+                    working.remove(operation.getPosition());
+                    removes++;
+                    break;
+                case INSERT:
+                    working.add(operation.getPosition(), insertions.next());
+                    inserts++;
+                    break;
+                case MOVE:
+                    working.add(operation.getToPosition(), working.remove(operation.getPosition()));
+                    moves++;
+                    break;
+            }
+        }
+
+        String message = String.format("%s -> %s: %s", source, target, diff.getOperations());
+        assertEquals(message, target, working);
+        assertEquals(message, source.size() - survivorTargets.size(), removes);
+        assertEquals(message, inserted.size(), inserts);
+        assertEquals(message, survivorTargets.size() - longestIncreasing(survivorTargets), moves);
+
+        for (int i = 0; i < target.size(); i++) {
+            int sourcePosition = diff.getSourcePosition(i);
+            assertEquals(message, sourceKeys.contains(target.get(i)) ? source.indexOf(target.get(i)) : -1,
+                    sourcePosition);
+        }
+
+        return diff.getOperations();
+    }
+
+    private static long[] gidsOf(List<Integer> keys) {
+        long[] gids = new long[keys.size()];
+        for (int i = 0; i < gids.length; i++) {
+            gids[i] = 0x9e3779b97f4a7c15L * keys.get(i);
+        }
+        return gids;
+    }
+
+    private static int longestIncreasing(List<Integer> values) {
+        int[] lengths = new int[values.size()];
+        int longest = 0;
+        for (int i = 0; i < values.size(); i++) {
+            lengths[i] = 1;
+            for (int j = 0; j < i; j++) {
+                if (values.get(j) < values.get(i)) {
+                    lengths[i] = Math.max(lengths[i], lengths[j] + 1);
+                }
+            }
+            longest = Math.max(longest, lengths[i]);
+        }
+        return longest;
+    }
+}
@@ -0,0 +1,138 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotCacheTest {
+
+    private static final String GID = "2089b05ecca3d829";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private volatile String mCompletedLength = "1024";
+
+    private FakeHttpServer mServer;
+    private SnapshotCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FakeHttpServer(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) throws XmlRpcException {
+                if (!method.equals("aria2.tellActive")) {
+                    return new Object[0];
+                }
+                Map<String, Object> status = new HashMap<>();
+                status.put("gid", GID);
+                status.put("status", "active");
+                status.put("totalLength", "4096");
+                status.put("completedLength", mCompletedLength);
+                status.put("dir", "/downloads");
+                status.put("files", new Object[0]);
+                return new Object[] {status};
+            }
+        });
+        mCache = new SnapshotCache(mFolder.newFolder());
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void restoresWhatWasSaved() throws Exception {
+        Aria2 aria2 = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+        aria2.updateList(Aria2.ListType.ACTIVE);
+        mCache.save(mServer.getUrl(), aria2);
+
+        Aria2 restored = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+        assertTrue(mCache.restore(mServer.getUrl(), restored));
+
+        DownloadList list = restored.getList(Aria2.ListType.ACTIVE);
+        assertEquals(1, list.getVersion());
+        Download download = list.find(Gid.parse(GID));
+        assertEquals(Download.Status.ACTIVE, download.getStatus());
+        assertEquals(4096, download.getTotalLength());
+        assertEquals(1024, download.getCompletedLength());
+        assertEquals(aria2.getList(Aria2.ListType.ACTIVE).get(0).getName(), download.getName());
+        assertEquals(0, restored.getList(Aria2.ListType.WAITING).size());
+
+        assertFalse(mCache.restore("http://localhost:1/jsonrpc", restored));
+    }
+
+    @Test
+    public void refreshReconcilesTheSnapshot() throws Exception {
+        Aria2 aria2 = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+        aria2.updateList(Aria2.ListType.ACTIVE);
+        mCache.save(mServer.getUrl(), aria2);
+
+        Aria2 restored = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+        mCache.restore(mServer.getUrl(), restored);
+
+        mCompletedLength = "2048";
+        assertTrue(restored.updateList(Aria2.ListType.ACTIVE));
+        DownloadList list = restored.getList(Aria2.ListType.ACTIVE);
+        assertEquals(2, list.getVersion());
+        assertEquals(2048, list.get(0).getCompletedLength());
+
+        // A snapshot never replaces a list that has been read.
+        mCache.restore(mServer.getUrl(), restored);
+        assertEquals(2, restored.getList(Aria2.ListType.ACTIVE).getVersion());
+    }
+
+    @Test
+    public void corruptSnapshotIsRejected() throws Exception {
+        Aria2 aria2 = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+        aria2.updateList(Aria2.ListType.ACTIVE);
+        mCache.save(mServer.getUrl(), aria2);
+
+        File file = mFolder.getRoot().listFiles()[0].listFiles()[0];
+        FileOutputStream stream = new FileOutputStream(file, true);
+        stream.getChannel().truncate(file.length() - 8);
+        stream.close();
+
+        Aria2 restored = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+        try {
+            mCache.restore(mServer.getUrl(), restored);
+            fail();
+        } catch (IOException e) {
+            assertEquals(0, restored.getList(Aria2.ListType.ACTIVE).getVersion());
+        }
+
+        mCache.delete(mServer.getUrl());
+        assertFalse(mCache.restore(mServer.getUrl(), restored));
+    }
+}
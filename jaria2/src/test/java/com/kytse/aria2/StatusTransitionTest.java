@@ -0,0 +1,158 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StatusTransitionTest {
+
+    private static final String GID = "2089b05ecca3d829";
+
+    private final AtomicInteger mPauses = new AtomicInteger();
+    private final CountDownLatch mPauseReceived = new CountDownLatch(1);
+    private final CountDownLatch mPauseAnswered = new CountDownLatch(1);
+    private volatile String mStatus = "active";
+    private volatile boolean mRefused;
+
+    private FakeHttpServer mServer;
+    private Aria2 mAria2;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FakeHttpServer(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) throws XmlRpcException {
+                if ("aria2.pause".equals(method)) {
+                    mPauses.incrementAndGet();
+                    mPauseReceived.countDown();
+                    try {
+                        mPauseAnswered.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new XmlRpcException("Interrupted");
+                    }
+                    if (mRefused) {
+                        throw new XmlRpcException(1, "Cannot pause");
+                    }
+                    return GID;
+                }
+
+                Map<String, Object> status = new HashMap<>();
+                status.put("gid", GID);
+                status.put("status", mStatus);
+                return new Object[] {status};
+            }
+        });
+        mAria2 = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+        mAria2.updateList(Aria2.ListType.ACTIVE);
+    }
+
+    @After
+    public void tearDown() {
+        mPauseAnswered.countDown();
+        mServer.close();
+    }
+
+    private Download download() {
+        return mAria2.getList(Aria2.ListType.ACTIVE).get(0);
+    }
+
+    /**
+     * Pauses on another thread and returns once aria2 has the command, but has not answered it.
+     */
+    private Thread pauseInBackground() throws InterruptedException {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mAria2.pause(GID);
+                } catch (XmlRpcException ignored) {
+                }
+            }
+        });
+        thread.start();
+        assertTrue(mPauseReceived.await(5, TimeUnit.SECONDS));
+        return thread;
+    }
+
+    @Test
+    public void pauseIsShownBeforeAriaAnswers() throws Exception {
+        Thread thread = pauseInBackground();
+
+        assertEquals(Download.Status.PAUSED, download().getStatus());
+        assertTrue(download().isChangingStatus());
+
+        // Tapping again while the first pause is on its way does not send another.
+        assertEquals(GID, mAria2.pause(GID));
+        assertEquals(1, mPauses.get());
+
+        mStatus = "paused";
+        mPauseAnswered.countDown();
+        thread.join();
+        mAria2.updateList(Aria2.ListType.ACTIVE);
+
+        assertEquals(Download.Status.PAUSED, download().getStatus());
+        assertFalse(download().isChangingStatus());
+    }
+
+    @Test
+    public void oldStatusIsNotShownWhileAriaCatchesUp() throws Exception {
+        Thread thread = pauseInBackground();
+        mPauseAnswered.countDown();
+        thread.join();
+
+        // An active download takes a moment to stop after aria2 accepted the pause.
+        mAria2.updateList(Aria2.ListType.ACTIVE);
+
+        assertEquals(Download.Status.PAUSED, download().getStatus());
+        assertTrue(download().isChangingStatus());
+    }
+
+    @Test
+    public void refusedPauseIsRolledBack() throws Exception {
+        mRefused = true;
+        mPauseAnswered.countDown();
+
+        try {
+            mAria2.pause(GID);
+            fail();
+        } catch (XmlRpcException e) {
+            assertEquals(1, e.code);
+        }
+
+        assertEquals(Download.Status.ACTIVE, download().getStatus());
+        assertFalse(download().isChangingStatus());
+
+        // Nothing is pending any more, so the next pause is sent.
+        mRefused = false;
+        mAria2.pause(GID);
+        assertEquals(2, mPauses.get());
+    }
+}
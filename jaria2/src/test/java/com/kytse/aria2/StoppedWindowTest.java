@@ -0,0 +1,173 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StoppedWindowTest {
+
+    // Oldest first, as aria2 keeps them.
+    private final List<String> mHistory = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger mLargestRead = new AtomicInteger();
+    private volatile ChangeSet mChangeSet;
+
+    private FakeHttpServer mServer;
+    private Aria2 mAria2;
+
+    @Before
+    public void setUp() throws Exception {
+        addResults(1000);
+
+        mServer = new FakeHttpServer(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) throws XmlRpcException {
+                Object[] calls = (Object[]) params[0];
+                Object[] results = new Object[calls.length];
+                for (int i = 0; i < calls.length; i++) {
+                    Map call = (Map) calls[i];
+                    results[i] = new Object[] {onCall((String) call.get("methodName"), (Object[]) call.get("params"))};
+                }
+                return results;
+            }
+        });
+        mAria2 = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+        mAria2.addListener(new Aria2.OnAria2ListUpdatedListener() {
+            @Override
+            public void onAria2ListUpdated(Aria2.ListType type, DownloadList list, ChangeSet changeSet) {
+                mChangeSet = changeSet;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    private Object onCall(String method, Object[] params) {
+        synchronized (mHistory) {
+            if ("aria2.getGlobalStat".equals(method)) {
+                Map<String, Object> stat = new HashMap<>();
+                stat.put("numStopped", String.valueOf(mHistory.size()));
+                return stat;
+            }
+
+            // Only negative offsets, which count back from the newest result.
+            int offset = ((Number) params[0]).intValue();
+            int num = ((Number) params[1]).intValue();
+            mLargestRead.set(Math.max(mLargestRead.get(), num));
+
+            List<Object> results = new ArrayList<>();
+            for (int i = mHistory.size() + offset; i >= 0 && results.size() < num; i--) {
+                Map<String, Object> status = new HashMap<>();
+                status.put("gid", mHistory.get(i));
+                status.put("status", "complete");
+                results.add(status);
+            }
+            return results.toArray();
+        }
+    }
+
+    private void addResults(int count) {
+        synchronized (mHistory) {
+            int first = mHistory.size();
+            for (int i = 0; i < count; i++) {
+                mHistory.add(gidOf(first + i));
+            }
+        }
+    }
+
+    private static String gidOf(int i) {
+        return String.format("%016x", i);
+    }
+
+    @Test
+    public void onlyTheWindowIsRead() throws Exception {
+        assertTrue(mAria2.setStoppedWindow(0, 9));
+        assertTrue(mAria2.updateList(Aria2.ListType.STOPPED));
+
+        DownloadList list = mAria2.getList(Aria2.ListType.STOPPED);
+        assertEquals(1000, list.getTotal());
+        assertEquals(0, list.getOffset());
+        assertEquals(2 * Aria2.STOPPED_PAGE_SIZE, list.size());
+        assertEquals(2 * Aria2.STOPPED_PAGE_SIZE, mLargestRead.get());
+        assertEquals(Gid.parse(gidOf(999)), list.findAt(0).getGID());
+        assertNull(list.findAt(2 * Aria2.STOPPED_PAGE_SIZE));
+        assertEquals("[INSERT(0+1000)]", mChangeSet.toString());
+    }
+
+    @Test
+    public void scrollingReadsTheNextPages() throws Exception {
+        mAria2.setStoppedWindow(0, 9);
+        mAria2.updateList(Aria2.ListType.STOPPED);
+
+        assertFalse(mAria2.setStoppedWindow(10, 19));
+        assertTrue(mAria2.setStoppedWindow(100, 110));
+        mAria2.updateList(Aria2.ListType.STOPPED);
+
+        DownloadList list = mAria2.getList(Aria2.ListType.STOPPED);
+        assertEquals(75, list.getOffset());
+        assertEquals(75, list.size());
+        assertEquals(Gid.parse(gidOf(899)), list.findAt(100).getGID());
+        assertNull(list.findAt(0));
+        assertEquals("[CHANGE(75+75)]", mChangeSet.toString());
+    }
+
+    @Test
+    public void newResultsShiftTheWindow() throws Exception {
+        mAria2.setStoppedWindow(0, 9);
+        mAria2.updateList(Aria2.ListType.STOPPED);
+
+        addResults(3);
+        assertTrue(mAria2.updateList(Aria2.ListType.STOPPED));
+        assertEquals("[INSERT(0+3)]", mChangeSet.toString());
+        assertEquals(Gid.parse(gidOf(1002)), mAria2.getList(Aria2.ListType.STOPPED).findAt(0).getGID());
+
+        // Past max-download-result, the oldest results go as new ones come.
+        mAria2.setStoppedWindow(100, 110);
+        mAria2.updateList(Aria2.ListType.STOPPED);
+        addResults(2);
+        mHistory.subList(0, 2).clear();
+        assertTrue(mAria2.updateList(Aria2.ListType.STOPPED));
+        assertEquals("[INSERT(0+2), REMOVE(1003+2), CHANGE(75+2)]", mChangeSet.toString());
+        assertEquals(Gid.parse(gidOf(904)), mAria2.getList(Aria2.ListType.STOPPED).findAt(100).getGID());
+    }
+
+    @Test
+    public void unchangedWindowIsNotPublishedAgain() throws Exception {
+        mAria2.setStoppedWindow(0, 9);
+        mAria2.updateList(Aria2.ListType.STOPPED);
+        long version = mAria2.getList(Aria2.ListType.STOPPED).getVersion();
+
+        assertFalse(mAria2.updateList(Aria2.ListType.STOPPED));
+        assertEquals(version, mAria2.getList(Aria2.ListType.STOPPED).getVersion());
+    }
+}
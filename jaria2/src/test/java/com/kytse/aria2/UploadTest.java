@@ -0,0 +1,295 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UploadTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private static final long LARGE_TORRENT = 50L * 1024 * 1024;
+
+    private HttpServer mServer;
+
+    /**
+     * Made-up torrent content, generated as it is read.
+     */
+    private static class SyntheticStream extends InputStream {
+
+        private final long mLength;
+        private long mPosition;
+        private int mSeed = 1;
+
+        SyntheticStream(long length) {
+            mLength = length;
+        }
+
+        @Override
+        public int read() {
+            if (mPosition == mLength) {
+                return -1;
+            }
+            mPosition++;
+            mSeed = mSeed * 1103515245 + 12345;
+            return mSeed >>> 16 & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (mPosition == mLength) {
+                return -1;
+            }
+            int count = (int) Math.min(length, mLength - mPosition);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) read();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Decodes the Base64 strings of a JSON request as it arrives, keeping only the checksum and
+     * length of the longest.
+     */
+    private static class UploadReader {
+
+        private final CRC32 mCrc = new CRC32();
+        private boolean mInString;
+        private int mQuad;
+        private int mQuadLength;
+        private long mDecoded;
+
+        private long mUploadCrc;
+        private long mUploadLength = -1;
+
+        void read(InputStream input) throws IOException {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    accept((char) buffer[i]);
+                }
+            }
+        }
+
+        private void accept(char c) {
+            if (c == '"') {
+                // What is left of the last, padded quad.
+                if (mQuadLength == 2) {
+                    mCrc.update(mQuad >>> 4 & 0xff);
+                    mDecoded += 1;
+                } else if (mQuadLength == 3) {
+                    mCrc.update(mQuad >>> 10 & 0xff);
+                    mCrc.update(mQuad >>> 2 & 0xff);
+                    mDecoded += 2;
+                }
+                if (mInString && mDecoded > mUploadLength) {
+                    mUploadLength = mDecoded;
+                    mUploadCrc = mCrc.getValue();
+                }
+                mInString = !mInString;
+                mCrc.reset();
+                mQuad = 0;
+                mQuadLength = 0;
+                mDecoded = 0;
+                return;
+            }
+
+            int value = ALPHABET.indexOf(c);
+            if (!mInString || value == -1) {
+                return;
+            }
+
+            mQuad = mQuad << 6 | value;
+            if (++mQuadLength == 4) {
+                mCrc.update(mQuad >>> 16 & 0xff);
+                mCrc.update(mQuad >>> 8 & 0xff);
+                mCrc.update(mQuad & 0xff);
+                mDecoded += 3;
+                mQuad = 0;
+                mQuadLength = 0;
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.stop(0);
+        }
+    }
+
+    @Test
+    public void streamedEncodingMatchesEncodingInMemory() throws Exception {
+        assertEquals("", Base64.encode(new byte[0]));
+        assertEquals("Zg==", Base64.encode("f".getBytes(UTF_8)));
+        assertEquals("Zm8=", Base64.encode("fo".getBytes(UTF_8)));
+        assertEquals("Zm9v", Base64.encode("foo".getBytes(UTF_8)));
+
+        for (int length :
+                new int[] {0, 1, 2, 3, 4, 3 * 4096 - 1, 3 * 4096, 3 * 4096 + 1, 100000}) {
+            byte[] data = new byte[length];
+            new SyntheticStream(length).read(data, 0, length);
+
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            Base64.encode(new ByteArrayInputStream(data), length, streamed);
+
+            assertEquals(Base64.encode(data), new String(streamed.toByteArray(), UTF_8));
+            assertEquals(streamed.size(), Base64.encodedLength(length));
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void shortStreamIsAnError() throws Exception {
+        Base64.encode(new ByteArrayInputStream(new byte[10]), 11, new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void addTorrentSendsTheFileOverJsonRpc() throws Exception {
+        final byte[] torrent = "d8:announce".getBytes(UTF_8);
+        FakeHttpServer server = new FakeHttpServer(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) throws XmlRpcException {
+                assertEquals("aria2.addTorrent", method);
+                assertEquals("token:secret", params[0]);
+                assertEquals(Base64.encode(torrent), params[1]);
+                return "2089b05ecca3d829";
+            }
+        });
+
+        try {
+            Aria2 aria2 = new Aria2(server.getUrl(), "secret", Transport.Protocol.JSON_RPC);
+            assertEquals("2089b05ecca3d829", aria2.addTorrent(torrent));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void addMetalinkSendsBase64OverXmlRpc() throws Exception {
+        final byte[] metalink = "<metalink/>".getBytes(UTF_8);
+        final String[] request = new String[1];
+        String url = serve("/rpc", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                request[0] = new String(readFully(exchange.getRequestBody()), UTF_8);
+                respond(exchange, "<?xml version=\"1.0\"?><methodResponse><params><param><value><array><data>"
+                        + "<value><string>2089b05ecca3d829</string></value>"
+                        + "<value><string>d2703803b52216d1</string></value>"
+                        + "</data></array></value></param></params></methodResponse>");
+            }
+        });
+
+        List<String> gids = new Aria2(url, null).addMetalink(metalink);
+
+        assertEquals(Arrays.asList("2089b05ecca3d829", "d2703803b52216d1"), gids);
+        assertTrue(request[0], request[0].contains(
+                "<value><base64>" + Base64.encode(metalink) + "</base64></value>"));
+    }
+
+    @Test
+    public void largeTorrentIsStreamedWithoutBeingHeldInMemory() throws Exception {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        final UploadReader upload = new UploadReader();
+        String url = serve("/jsonrpc", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                upload.read(exchange.getRequestBody());
+                respond(exchange, "{\"id\":\"1\",\"jsonrpc\":\"2.0\",\"result\":\"2089b05ecca3d829\"}");
+            }
+        });
+        Aria2 aria2 = new Aria2(url, null, Transport.Protocol.JSON_RPC);
+
+        CRC32 expected = new CRC32();
+        InputStream content = new SyntheticStream(LARGE_TORRENT);
+        byte[] buffer = new byte[65536];
+        int n;
+        while ((n = content.read(buffer)) != -1) {
+            expected.update(buffer, 0, n);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        String gid = aria2.addTorrent(new SyntheticStream(LARGE_TORRENT), LARGE_TORRENT);
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals("2089b05ecca3d829", gid);
+        assertEquals(LARGE_TORRENT, upload.mUploadLength);
+        assertEquals(expected.getValue(), upload.mUploadCrc);
+        // Holding the file, or its encoding, would take well over 50 MB.
+        if (allocated > 4 * 1024 * 1024) {
+            fail(String.format("Sending a %d byte torrent allocated %d bytes", LARGE_TORRENT, allocated));
+        }
+    }
+
+    private String serve(String path, HttpHandler handler) throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        mServer.createContext(path, handler);
+        mServer.start();
+        return String.format("http://127.0.0.1:%d", mServer.getAddress().getPort());
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(bytes);
+        output.close();
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,200 @@
+/* Copyright 2016 Tse Kit Yam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kytse.aria2;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UriImporterTest {
+
+    private static final String BAD_URI = "ftp://bad.invalid/";
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mReceived = new AtomicInteger();
+    private final AtomicInteger mMaxAhead = new AtomicInteger();
+
+    private LineReader mLines;
+    private FakeHttpServer mServer;
+    private Aria2 mAria2;
+
+    /**
+     * Makes up {@code count} distinct lines as they are read.
+     */
+    private static class LineReader extends Reader {
+
+        private final int mCount;
+        private final AtomicInteger mProduced = new AtomicInteger();
+        private String mPending = "";
+
+        LineReader(int count) {
+            mCount = count;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (mPending.isEmpty()) {
+                int i = mProduced.get();
+                if (i == mCount) {
+                    return -1;
+                }
+                mProduced.incrementAndGet();
+                mPending = String.format("http://example.com/%d\n", i);
+            }
+
+            int n = Math.min(length, mPending.length());
+            mPending.getChars(0, n, buffer, offset);
+            mPending = mPending.substring(n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FakeHttpServer(new FakeHttpServer.Handler() {
+            @Override
+            public Object onRequest(String method, Object[] params) throws XmlRpcException {
+                mRequests.incrementAndGet();
+                Object[] calls = (Object[]) params[0];
+                mReceived.addAndGet(calls.length);
+                if (mLines != null) {
+                    int ahead = mLines.mProduced.get() - mReceived.get();
+                    if (ahead > mMaxAhead.get()) {
+                        mMaxAhead.set(ahead);
+                    }
+                }
+
+                Object[] results = new Object[calls.length];
+                for (int i = 0; i < calls.length; i++) {
+                    Object uri = ((Object[]) ((Object[]) ((Map) calls[i]).get("params"))[0])[0];
+                    if (BAD_URI.equals(uri)) {
+                        Map<String, Object> fault = new HashMap<>();
+                        fault.put("code", 1);
+                        fault.put("message", "No URI to download.");
+                        results[i] = fault;
+                    } else {
+                        results[i] = new Object[] {String.format("%016x", mReceived.get() + i)};
+                    }
+                }
+                return results;
+            }
+        });
+        mAria2 = new Aria2(mServer.getUrl(), null, Transport.Protocol.JSON_RPC);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void urisAreDedupedAndSentInChunks() throws Exception {
+        String text = "# mirrors\n\nhttp://a/1\n  http://a/2  \nhttp://a/1\n" + BAD_URI + "\nhttp://a/3\n";
+        final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+
+        UriImporter.Progress progress = new UriImporter(mAria2, 2, 1).importUris(new StringReader(text),
+                new UriImporter.Listener() {
+                    @Override
+                    public void onProgress(UriImporter.Progress progress) {
+                    }
+
+                    @Override
+                    public void onUriFailed(String uri, XmlRpcException e) {
+                        failed.add(uri);
+                    }
+                });
+
+        assertEquals(5, progress.getRead());
+        assertEquals(1, progress.getDuplicates());
+        assertEquals(3, progress.getAdded());
+        assertEquals(1, progress.getFailed());
+        assertEquals(Collections.singletonList(BAD_URI), failed);
+        assertEquals(2, mRequests.get());
+    }
+
+    @Test
+    public void readingWaitsForRequestsInFlight() throws Exception {
+        mLines = new LineReader(20000);
+        final AtomicInteger reports = new AtomicInteger();
+
+        UriImporter.Progress progress = new UriImporter(mAria2).importUris(mLines, new UriImporter.Listener() {
+            @Override
+            public void onProgress(UriImporter.Progress progress) {
+                reports.incrementAndGet();
+            }
+
+            @Override
+            public void onUriFailed(String uri, XmlRpcException e) {
+            }
+        });
+
+        assertEquals(20000, progress.getRead());
+        assertEquals(20000, progress.getAdded());
+        assertEquals(200, mRequests.get());
+        assertEquals(200, reports.get());
+        // At most the chunks in flight and the one being filled have been read but not sent.
+        assertTrue(mMaxAhead.get() <= (UriImporter.DEFAULT_MAX_IN_FLIGHT + 1) * Aria2.BATCH_SIZE);
+    }
+
+    @Test(expected = IOException.class)
+    public void readFailureIsRethrownAfterRequestsInFlight() throws Exception {
+        Reader reader = new Reader() {
+            private final Reader mText = new StringReader("http://a/1\nhttp://a/2\n");
+
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                int n = mText.read(buffer, offset, length);
+                if (n == -1) {
+                    throw new IOException("Storage removed");
+                }
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        new UriImporter(mAria2, 1, 1).importUris(reader, new UriImporter.Listener() {
+            @Override
+            public void onProgress(UriImporter.Progress progress) {
+                assertEquals(0, progress.getFailed());
+            }
+
+            @Override
+            public void onUriFailed(String uri, XmlRpcException e) {
+            }
+        });
+    }
+}